@@ -19,6 +19,9 @@ package github.ankushsachdeva.emojicon;
 import android.content.Context;
 import android.content.res.TypedArray;
 import android.text.SpannableStringBuilder;
+import android.text.Spanned;
+import android.text.method.LinkMovementMethod;
+import android.text.style.URLSpan;
 import android.util.AttributeSet;
 import android.widget.TextView;
 
@@ -29,6 +32,7 @@ public class EmojiconTextView extends TextView {
     private int mEmojiconSize;
     private int mTextStart = 0;
     private int mTextLength = -1;
+    private boolean mPrepared = false;
 
     public EmojiconTextView(Context context) {
         super(context);
@@ -60,11 +64,46 @@ public class EmojiconTextView extends TextView {
 
     @Override
     public void setText(CharSequence text, BufferType type) {
+        if (mPrepared) {
+            super.setText(text, type);
+            return;
+        }
         SpannableStringBuilder builder = new SpannableStringBuilder(text);
         EmojiconHandler.addEmojis(getContext(), builder, mEmojiconSize, mTextStart, mTextLength);
         super.setText(builder, type);
     }
 
+    /**
+     * Set text which already has emojicon spans of {@link #getEmojiconSize()}
+     * and links, e.g. prepared in background. Neither emojicons nor auto
+     * links are processed again.
+     */
+    public void setPreparedText(CharSequence text) {
+        int autoLinkMask = getAutoLinkMask();
+        mPrepared = true;
+        setAutoLinkMask(0);
+        try {
+            setText(text);
+        } finally {
+            mPrepared = false;
+            setAutoLinkMask(autoLinkMask);
+        }
+
+        if (getLinksClickable() && !(getMovementMethod() instanceof LinkMovementMethod)
+                && text instanceof Spanned
+                && ((Spanned) text).getSpans(0, text.length(), URLSpan.class).length > 0) {
+            // as TextView does for auto links
+            setMovementMethod(LinkMovementMethod.getInstance());
+        }
+    }
+
+    /**
+     * Get the size of emojicon in pixels.
+     */
+    public int getEmojiconSize() {
+        return mEmojiconSize;
+    }
+
     /**
      * Set the size of emojicon in pixels.
      */
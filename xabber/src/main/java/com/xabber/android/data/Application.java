@@ -32,6 +32,8 @@ import com.xabber.android.data.connection.ConnectionManager;
 import com.xabber.android.data.connection.NetworkManager;
 import com.xabber.android.data.connection.ReconnectionManager;
 import com.xabber.android.data.database.DatabaseManager;
+import com.xabber.android.data.entity.AccountJid;
+import com.xabber.android.data.entity.UserJid;
 import com.xabber.android.data.extension.attention.AttentionManager;
 import com.xabber.android.data.extension.avatar.AvatarManager;
 import com.xabber.android.data.extension.avatar.AvatarStorage;
@@ -39,6 +41,7 @@ import com.xabber.android.data.extension.blocking.BlockingManager;
 import com.xabber.android.data.extension.capability.CapabilitiesManager;
 import com.xabber.android.data.extension.carbons.CarbonManager;
 import com.xabber.android.data.extension.cs.ChatStateManager;
+import com.xabber.android.data.extension.file.MediaCacheManager;
 import com.xabber.android.data.extension.httpfileupload.HttpFileUploadManager;
 import com.xabber.android.data.extension.mam.MamManager;
 import com.xabber.android.data.extension.muc.MUCManager;
@@ -127,7 +130,7 @@ public class Application extends android.app.Application {
             for (OnTimerListener listener : getManagers(OnTimerListener.class)) {
                 listener.onTimer();
             }
-            if (!closing) {
+            if (!closing && !getManagers(OnTimerListener.class).isEmpty()) {
                 startTimer();
             }
         }
@@ -213,7 +216,9 @@ public class Application extends android.app.Application {
         }
         initialized = true;
         XabberService.getInstance().changeForeground();
-        startTimer();
+        if (!getManagers(OnTimerListener.class).isEmpty()) {
+            startTimer();
+        }
     }
 
     private void onClose() {
@@ -356,6 +361,7 @@ public class Application extends android.app.Application {
         addManager(AttentionManager.getInstance());
         addManager(CarbonManager.getInstance());
         addManager(HttpFileUploadManager.getInstance());
+        addManager(MediaCacheManager.getInstance());
         addManager(BlockingManager.getInstance());
         addManager(MamManager.getInstance());
         addManager(CertificateManager.getInstance());
@@ -370,12 +376,27 @@ public class Application extends android.app.Application {
 
     @Override
     public void onLowMemory() {
+        LogManager.i(LOG_TAG, "onLowMemory, user jids: " + UserJid.getInterner()
+                + ", account jids: " + AccountJid.getInterner());
         for (OnLowMemoryListener listener : getManagers(OnLowMemoryListener.class)) {
             listener.onLowMemory();
         }
         super.onLowMemory();
     }
 
+    @Override
+    public void onTrimMemory(int level) {
+        super.onTrimMemory(level);
+        // hidden UI alone is not a reason to drop caches
+        boolean runningLow = level >= TRIM_MEMORY_RUNNING_LOW && level < TRIM_MEMORY_UI_HIDDEN;
+        if (runningLow || level >= TRIM_MEMORY_MODERATE) {
+            LogManager.i(LOG_TAG, "onTrimMemory " + level);
+            for (OnLowMemoryListener listener : getManagers(OnLowMemoryListener.class)) {
+                listener.onLowMemory();
+            }
+        }
+    }
+
     /**
      * Service have been destroyed.
      */
@@ -36,11 +36,11 @@ import com.xabber.android.data.extension.otr.OTRManager;
 import com.xabber.android.data.log.LogManager;
 import com.xabber.android.data.message.MessageManager;
 import com.xabber.android.data.notification.NotificationManager;
-import com.xabber.android.data.roster.AbstractContact;
 import com.xabber.android.data.xaccount.XabberAccountManager;
 import com.xabber.android.service.XabberService;
 import com.xabber.android.ui.adapter.ComparatorByName;
 import com.xabber.android.ui.adapter.ComparatorByStatus;
+import com.xabber.android.ui.adapter.ContactSortKey;
 import com.xabber.android.ui.color.ColorManager;
 import com.xabber.android.utils.Emoticons;
 
@@ -182,7 +182,7 @@ public class SettingsManager implements OnInitializedListener,
                 R.bool.contacts_show_accounts_default);
     }
 
-    public static Comparator<AbstractContact> contactsOrder() {
+    public static Comparator<ContactSortKey> contactsOrder() {
         String value = getString(R.string.contacts_order_key,
                 R.string.contacts_order_default);
         if (Application.getInstance()
@@ -408,6 +408,25 @@ public class SettingsManager implements OnInitializedListener,
             throw new IllegalStateException();
     }
 
+    public static ChatsImageQuality chatsImageQuality() {
+        String value = getString(R.string.chats_image_quality_key,
+                R.string.chats_image_quality_default);
+        if (Application.getInstance()
+                .getString(R.string.chats_image_quality_original_value)
+                .equals(value))
+            return ChatsImageQuality.original;
+        else if (Application.getInstance()
+                .getString(R.string.chats_image_quality_high_value)
+                .equals(value))
+            return ChatsImageQuality.high;
+        else if (Application.getInstance()
+                .getString(R.string.chats_image_quality_medium_value)
+                .equals(value))
+            return ChatsImageQuality.medium;
+        else
+            throw new IllegalStateException();
+    }
+
     public static boolean chatsShowBackground() {
         return getBoolean(R.string.chats_show_background_key, R.bool.chats_show_background_default);
     }
@@ -957,6 +976,47 @@ public class SettingsManager implements OnInitializedListener,
         never,
     }
 
+    public enum ChatsImageQuality {
+
+        /**
+         * Send images as is.
+         */
+        original(0, 0),
+
+        /**
+         * Downscale and recompress large images.
+         */
+        high(2048, 90),
+
+        /**
+         * Downscale and recompress images for slow networks.
+         */
+        medium(1280, 80);
+
+        private final int maxSize;
+
+        private final int quality;
+
+        ChatsImageQuality(int maxSize, int quality) {
+            this.maxSize = maxSize;
+            this.quality = quality;
+        }
+
+        /**
+         * @return max width and height in pixels, 0 if images should be sent as is.
+         */
+        public int getMaxSize() {
+            return maxSize;
+        }
+
+        /**
+         * @return JPEG quality.
+         */
+        public int getQuality() {
+            return quality;
+        }
+    }
+
     public enum SecurityOtrMode {
 
         /**
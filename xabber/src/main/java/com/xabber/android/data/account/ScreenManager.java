@@ -25,6 +25,7 @@ import com.xabber.android.data.log.LogManager;
 import com.xabber.android.data.OnCloseListener;
 import com.xabber.android.data.OnInitializedListener;
 import com.xabber.android.data.SettingsManager;
+import com.xabber.android.data.connection.ReconnectionManager;
 import com.xabber.android.data.extension.csi.ClientStateManager;
 import com.xabber.android.receiver.GoAwayReceiver;
 import com.xabber.android.receiver.GoXaReceiver;
@@ -106,6 +107,7 @@ public class ScreenManager implements OnInitializedListener, OnCloseListener {
             alarmManager.cancel(goAwayPendingIntent);
             alarmManager.cancel(goXaPendingIntent);
             AccountManager.getInstance().wakeUp();
+            ReconnectionManager.getInstance().onScreenOn();
 
             // notify server(s) that client is now active
             ClientStateManager.setActive();
@@ -3,18 +3,46 @@ package com.xabber.android.data.connection;
 
 import android.app.Activity;
 import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
 
 import com.xabber.android.data.Application;
-import com.xabber.android.data.account.AccountItem;
-import com.xabber.android.data.account.listeners.OnAccountRemovedListener;
-import com.xabber.android.data.entity.AccountJid;
+import com.xabber.android.data.log.LogManager;
 
-import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
+import org.jivesoftware.smack.util.TLSUtils;
+
+import java.security.KeyManagementException;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.security.cert.CertificateException;
+import java.security.cert.X509Certificate;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import javax.net.ssl.HostnameVerifier;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSession;
+import javax.net.ssl.SSLSessionContext;
+import javax.net.ssl.X509TrustManager;
 
 import de.duenndns.ssl.MemorizingTrustManager;
+import okhttp3.OkHttpClient;
+
+/**
+ * Provides TLS contexts shared by all XMPP connections and HTTP client
+ * shared by file uploads and downloads.
+ * <p/>
+ * Contexts are created lazily, one per trust configuration, with client
+ * session cache enabled, so reconnection to the same host resumes previous
+ * TLS session instead of doing full handshake. Contexts and client are
+ * recreated when user accepts new certificate.
+ */
+public class CertificateManager {
+
+    private static final String LOG_TAG = CertificateManager.class.getSimpleName();
+
+    private static final int SESSION_CACHE_SIZE = 32;
 
-public class CertificateManager implements OnAccountRemovedListener {
+    private static final int SESSION_TIMEOUT_SECONDS = (int) TimeUnit.HOURS.toSeconds(12);
 
     private static CertificateManager instance;
 
@@ -26,51 +54,207 @@ public class CertificateManager implements OnAccountRemovedListener {
         return instance;
     }
 
-    private Map<AccountJid, MemorizingTrustManager> memorizingTrustManagerMap;
-    private Map<AccountJid, MemorizingTrustManager> fileUploadMap;
+    /**
+     * Trust manager used to check certificates. Certificates accepted by user
+     * are stored inside it.
+     */
+    @Nullable
+    private MemorizingTrustManager memorizingTrustManager;
+
+    /**
+     * Context that checks certificates with {@link #memorizingTrustManager}.
+     */
+    @Nullable
+    private SSLContext checkingSslContext;
+
+    /**
+     * Context that accepts all certificates.
+     */
+    @Nullable
+    private SSLContext acceptingSslContext;
+
+    /**
+     * Client that checks certificates with {@link #checkingSslContext}.
+     */
+    @Nullable
+    private OkHttpClient httpClient;
+
+    /**
+     * Activity used by trust manager to ask user about unknown certificates.
+     */
+    @Nullable
+    private Activity displayActivity;
 
     private CertificateManager() {
-        this.memorizingTrustManagerMap = new ConcurrentHashMap<>();
-        this.fileUploadMap = new ConcurrentHashMap<>();
     }
 
     @NonNull
-    MemorizingTrustManager getNewMemorizingTrustManager(@NonNull final AccountJid accountJid) {
-        MemorizingTrustManager mtm = new MemorizingTrustManager(Application.getInstance());
-        memorizingTrustManagerMap.put(accountJid, mtm);
-        return mtm;
+    public synchronized MemorizingTrustManager getMemorizingTrustManager() {
+        if (memorizingTrustManager == null) {
+            memorizingTrustManager = new MemorizingTrustManager(Application.getInstance());
+            if (displayActivity != null) {
+                memorizingTrustManager.bindDisplayActivity(displayActivity);
+            }
+        }
+        return memorizingTrustManager;
     }
 
     @NonNull
-    public MemorizingTrustManager getNewFileUploadManager(@NonNull final AccountJid accountJid) {
-        MemorizingTrustManager mtm = new MemorizingTrustManager(Application.getInstance());
-        fileUploadMap.put(accountJid, mtm);
-        return mtm;
+    public HostnameVerifier getHostnameVerifier() {
+        final MemorizingTrustManager trustManager = getMemorizingTrustManager();
+        final HostnameVerifier hostnameVerifier
+                = trustManager.wrapHostnameVerifier(new org.apache.http.conn.ssl.StrictHostnameVerifier());
+        return new HostnameVerifier() {
+            @Override
+            public boolean verify(String hostname, SSLSession session) {
+                int certificates = getCertificateCount(trustManager);
+                boolean verified = hostnameVerifier.verify(hostname, session);
+                onCertificateChecked(trustManager, certificates);
+                return verified;
+            }
+        };
     }
 
-    public void registerActivity(Activity activity) {
-        for (MemorizingTrustManager memorizingTrustManager : memorizingTrustManagerMap.values()) {
-            memorizingTrustManager.bindDisplayActivity(activity);
+    /**
+     * @return trust manager that checks certificates with
+     * {@link #getMemorizingTrustManager()} and drops shared contexts if user
+     * accepted new certificate.
+     */
+    @NonNull
+    private X509TrustManager getCheckingTrustManager() {
+        final MemorizingTrustManager trustManager = getMemorizingTrustManager();
+        return new X509TrustManager() {
+            @Override
+            public void checkClientTrusted(X509Certificate[] chain, String authType) throws CertificateException {
+                trustManager.checkClientTrusted(chain, authType);
+            }
+
+            @Override
+            public void checkServerTrusted(X509Certificate[] chain, String authType) throws CertificateException {
+                int certificates = getCertificateCount(trustManager);
+                try {
+                    trustManager.checkServerTrusted(chain, authType);
+                } finally {
+                    onCertificateChecked(trustManager, certificates);
+                }
+            }
+
+            @Override
+            public X509Certificate[] getAcceptedIssuers() {
+                return trustManager.getAcceptedIssuers();
+            }
+        };
+    }
+
+    private static int getCertificateCount(MemorizingTrustManager trustManager) {
+        return Collections.list(trustManager.certAliases()).size();
+    }
+
+    /**
+     * Called after certificate check that could ask user to accept
+     * certificate.
+     */
+    private void onCertificateChecked(MemorizingTrustManager trustManager, int previousCertificateCount) {
+        if (getCertificateCount(trustManager) != previousCertificateCount) {
+            LogManager.i(LOG_TAG, "Certificate accepted by user");
+            onCertificatesChanged();
         }
+    }
 
-        for (MemorizingTrustManager memorizingTrustManager : fileUploadMap.values()) {
-            memorizingTrustManager.bindDisplayActivity(activity);
+    /**
+     * @param checkCertificate whether certificates should be checked by
+     *                         {@link #getMemorizingTrustManager()} or all
+     *                         certificates should be accepted.
+     * @return shared context or <code>null</code> if it can't be created.
+     */
+    @Nullable
+    public synchronized SSLContext getSslContext(boolean checkCertificate) {
+        if (checkCertificate) {
+            if (checkingSslContext == null) {
+                checkingSslContext = createSslContext(getCheckingTrustManager());
+            }
+            return checkingSslContext;
+        } else {
+            if (acceptingSslContext == null) {
+                acceptingSslContext = createSslContext(new TLSUtils.AcceptAllTrustManager());
+            }
+            return acceptingSslContext;
         }
     }
 
-    public void unregisterActivity(Activity activity) {
-        for (MemorizingTrustManager memorizingTrustManager : memorizingTrustManagerMap.values()) {
-            memorizingTrustManager.unbindDisplayActivity(activity);
+    /**
+     * @return shared client that checks certificates or <code>null</code>
+     * if TLS context can't be created.
+     */
+    @Nullable
+    public synchronized OkHttpClient getHttpClient() {
+        if (httpClient == null) {
+            SSLContext sslContext = getSslContext(true);
+            if (sslContext == null) {
+                return null;
+            }
+
+            httpClient = new OkHttpClient.Builder()
+                    .sslSocketFactory(sslContext.getSocketFactory(), getCheckingTrustManager())
+                    .hostnameVerifier(getHostnameVerifier())
+                    .writeTimeout(5, TimeUnit.MINUTES)
+                    .connectTimeout(5, TimeUnit.MINUTES)
+                    .readTimeout(5, TimeUnit.MINUTES)
+                    .build();
         }
+        return httpClient;
+    }
 
-        for (MemorizingTrustManager memorizingTrustManager : fileUploadMap.values()) {
-            memorizingTrustManager.unbindDisplayActivity(activity);
+    @Nullable
+    private static SSLContext createSslContext(X509TrustManager trustManager) {
+        SSLContext sslContext;
+        try {
+            sslContext = SSLContext.getInstance("TLS");
+            sslContext.init(null, new X509TrustManager[]{trustManager}, new SecureRandom());
+        } catch (NoSuchAlgorithmException | KeyManagementException e) {
+            LogManager.exception(LOG_TAG, e);
+            return null;
+        }
+
+        SSLSessionContext sessionContext = sslContext.getClientSessionContext();
+        if (sessionContext != null) {
+            sessionContext.setSessionCacheSize(SESSION_CACHE_SIZE);
+            sessionContext.setSessionTimeout(SESSION_TIMEOUT_SECONDS);
+        }
+        return sslContext;
+    }
+
+    /**
+     * Drops shared contexts together with their session caches. New ones
+     * will be created with fresh certificate store on next request.
+     * <p/>
+     * Should be called when certificates were accepted or revoked or trust
+     * settings were changed.
+     */
+    public synchronized void onCertificatesChanged() {
+        LogManager.i(LOG_TAG, "onCertificatesChanged");
+        if (memorizingTrustManager != null && displayActivity != null) {
+            memorizingTrustManager.unbindDisplayActivity(displayActivity);
         }
+        memorizingTrustManager = null;
+        checkingSslContext = null;
+        acceptingSslContext = null;
+        httpClient = null;
     }
 
-    @Override
-    public void onAccountRemoved(AccountItem accountItem) {
-        memorizingTrustManagerMap.remove(accountItem.getAccount());
-        fileUploadMap.remove(accountItem.getAccount());
+    public synchronized void registerActivity(Activity activity) {
+        displayActivity = activity;
+        if (memorizingTrustManager != null) {
+            memorizingTrustManager.bindDisplayActivity(activity);
+        }
+    }
+
+    public synchronized void unregisterActivity(Activity activity) {
+        if (displayActivity == activity) {
+            displayActivity = null;
+        }
+        if (memorizingTrustManager != null) {
+            memorizingTrustManager.unbindDisplayActivity(activity);
+        }
     }
 }
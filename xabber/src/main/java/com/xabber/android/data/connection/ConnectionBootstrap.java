@@ -0,0 +1,257 @@
+package com.xabber.android.data.connection;
+
+import android.support.annotation.NonNull;
+
+import com.xabber.android.data.entity.AccountJid;
+import com.xabber.android.data.log.LogManager;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Initialization of account performed after authentication.
+ * <p/>
+ * Every step declares steps it depends on. Step is started as soon as all
+ * its dependencies are finished, so independent steps are executed
+ * concurrently and whole bootstrap takes as long as its longest chain of
+ * dependent steps. Steps with higher priority are started first when
+ * there are no free threads. Time spent by each step is logged once
+ * bootstrap is finished.
+ * <p/>
+ * New bootstrap for the same account cancels steps of the previous one
+ * that were not started yet.
+ */
+class ConnectionBootstrap {
+
+    private static final String LOG_TAG = ConnectionBootstrap.class.getSimpleName();
+
+    private static final int THREAD_COUNT = 4;
+
+    private static final long KEEP_ALIVE_SECONDS = 30;
+
+    enum Priority {
+        /**
+         * Results are immediately visible for user: roster, presence, etc.
+         */
+        userVisible,
+        normal,
+        background
+    }
+
+    private static final ThreadPoolExecutor executor = createExecutor();
+
+    /**
+     * Last started bootstrap for each account.
+     */
+    private static final ConcurrentMap<AccountJid, ConnectionBootstrap> bootstraps = new ConcurrentHashMap<>();
+
+    @NonNull
+    private final AccountJid account;
+
+    private final Map<String, Step> steps;
+
+    private final Set<String> finished;
+
+    private volatile boolean cancelled;
+
+    private long startTimeMillis;
+
+    ConnectionBootstrap(@NonNull AccountJid account) {
+        this.account = account;
+        steps = new LinkedHashMap<>();
+        finished = new HashSet<>();
+    }
+
+    @NonNull
+    private static ThreadPoolExecutor createExecutor() {
+        final AtomicInteger threadNumber = new AtomicInteger();
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(THREAD_COUNT, THREAD_COUNT,
+                KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, new PriorityBlockingQueue<Runnable>(),
+                new ThreadFactory() {
+                    @Override
+                    public Thread newThread(@NonNull Runnable runnable) {
+                        Thread thread = new Thread(runnable,
+                                "Connection bootstrap " + threadNumber.incrementAndGet());
+                        thread.setPriority(Thread.MIN_PRIORITY);
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    /**
+     * Adds new step.
+     *
+     * @param dependencies names of steps to be finished before this one.
+     *                     They must be added before.
+     * @throws IllegalArgumentException if step with the same name already exists
+     *                                  or dependency is unknown.
+     */
+    synchronized ConnectionBootstrap addStep(String name, Priority priority, Runnable action,
+                                             String... dependencies) {
+        if (steps.containsKey(name)) {
+            throw new IllegalArgumentException("Duplicate bootstrap step " + name);
+        }
+        for (String dependency : dependencies) {
+            if (!steps.containsKey(dependency)) {
+                throw new IllegalArgumentException("Unknown dependency " + dependency + " of " + name);
+            }
+        }
+
+        steps.put(name, new Step(name, priority, steps.size(), action, Arrays.asList(dependencies)));
+        return this;
+    }
+
+    /**
+     * Starts all steps without dependencies and cancels previous bootstrap
+     * for this account.
+     */
+    void start() {
+        ConnectionBootstrap previous = bootstraps.put(account, this);
+        if (previous != null) {
+            previous.cancel();
+        }
+
+        List<Step> ready = new ArrayList<>();
+        synchronized (this) {
+            startTimeMillis = System.currentTimeMillis();
+            for (Step step : steps.values()) {
+                if (step.dependencies.isEmpty()) {
+                    step.submitted = true;
+                    ready.add(step);
+                }
+            }
+        }
+        execute(ready);
+    }
+
+    void cancel() {
+        cancelled = true;
+    }
+
+    /**
+     * Cancels not started steps of running bootstrap for the account.
+     */
+    static void cancel(AccountJid account) {
+        ConnectionBootstrap bootstrap = bootstraps.get(account);
+        if (bootstrap != null) {
+            bootstrap.cancel();
+        }
+    }
+
+    private void execute(Collection<Step> ready) {
+        for (Step step : ready) {
+            executor.execute(step);
+        }
+    }
+
+    @SuppressWarnings("WeakerAccess")
+    void onStepFinished(Step step) {
+        List<Step> ready = new ArrayList<>();
+        boolean allFinished;
+        synchronized (this) {
+            finished.add(step.name);
+            for (Step candidate : steps.values()) {
+                if (!candidate.submitted && finished.containsAll(candidate.dependencies)) {
+                    candidate.submitted = true;
+                    ready.add(candidate);
+                }
+            }
+            allFinished = finished.size() == steps.size();
+        }
+
+        execute(ready);
+
+        if (allFinished) {
+            bootstraps.remove(account, this);
+            logTimings();
+        }
+    }
+
+    private synchronized void logTimings() {
+        StringBuilder report = new StringBuilder();
+        report.append(account).append(" bootstrap ")
+                .append(cancelled ? "cancelled" : "finished")
+                .append(" in ").append(System.currentTimeMillis() - startTimeMillis).append(" ms.");
+        for (Step step : steps.values()) {
+            report.append(' ').append(step.name).append(": ");
+            if (step.skipped) {
+                report.append("skipped");
+            } else {
+                report.append("started +").append(step.startTimeMillis - startTimeMillis)
+                        .append(" ms, took ").append(step.endTimeMillis - step.startTimeMillis)
+                        .append(" ms");
+            }
+            report.append(';');
+        }
+        LogManager.i(LOG_TAG, report.toString());
+    }
+
+    private class Step implements Runnable, Comparable<Step> {
+
+        final String name;
+        final Priority priority;
+        final int order;
+        final Runnable action;
+        final Collection<String> dependencies;
+
+        /**
+         * Whether step was passed to executor. Guarded by bootstrap.
+         */
+        boolean submitted;
+
+        volatile boolean skipped;
+        volatile long startTimeMillis;
+        volatile long endTimeMillis;
+
+        Step(String name, Priority priority, int order, Runnable action,
+             Collection<String> dependencies) {
+            this.name = name;
+            this.priority = priority;
+            this.order = order;
+            this.action = action;
+            this.dependencies = dependencies;
+        }
+
+        @Override
+        public void run() {
+            if (cancelled) {
+                skipped = true;
+            } else {
+                startTimeMillis = System.currentTimeMillis();
+                try {
+                    action.run();
+                } catch (Exception e) {
+                    LogManager.exception(LOG_TAG, e);
+                }
+                endTimeMillis = System.currentTimeMillis();
+            }
+            onStepFinished(this);
+        }
+
+        @Override
+        public int compareTo(@NonNull Step another) {
+            int result = priority.compareTo(another.priority);
+            if (result != 0) {
+                return result;
+            }
+            return order < another.order ? -1 : (order == another.order ? 0 : 1);
+        }
+    }
+
+}
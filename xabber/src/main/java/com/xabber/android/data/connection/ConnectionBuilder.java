@@ -13,17 +13,11 @@ import org.jivesoftware.smack.proxy.ProxyInfo;
 import org.jivesoftware.smack.sasl.core.SASLXOauth2Mechanism;
 import org.jivesoftware.smack.tcp.XMPPTCPConnection;
 import org.jivesoftware.smack.tcp.XMPPTCPConnectionConfiguration;
-import org.jivesoftware.smack.util.TLSUtils;
 
 import java.net.InetAddress;
 import java.net.UnknownHostException;
-import java.security.KeyManagementException;
-import java.security.NoSuchAlgorithmException;
 
 import javax.net.ssl.SSLContext;
-import javax.net.ssl.X509TrustManager;
-
-import de.duenndns.ssl.MemorizingTrustManager;
 
 class ConnectionBuilder {
     private static final String LOG_TAG = ConnectionBuilder.class.getSimpleName();
@@ -48,22 +42,17 @@ class ConnectionBuilder {
 
         builder.setProxyInfo(getProxyInfo(connectionSettings));
 
-        try {
-            LogManager.i(LOG_TAG, "SettingsManager.securityCheckCertificate: " + SettingsManager.securityCheckCertificate());
-
-            if (SettingsManager.securityCheckCertificate()) {
-                SSLContext sslContext = SSLContext.getInstance("TLS");
-                MemorizingTrustManager mtm = CertificateManager.getInstance().getNewMemorizingTrustManager(account);
-                sslContext.init(null, new X509TrustManager[]{mtm}, new java.security.SecureRandom());
-                builder.setCustomSSLContext(sslContext);
-                builder.setHostnameVerifier(
-                        mtm.wrapHostnameVerifier(new org.apache.http.conn.ssl.StrictHostnameVerifier()));
-            } else {
-                TLSUtils.acceptAllCertificates(builder);
-                builder.setHostnameVerifier(new AllowAllHostnameVerifier());
-            }
-        } catch (NoSuchAlgorithmException | KeyManagementException e) {
-            LogManager.exception(LOG_TAG, e);
+        boolean checkCertificate = SettingsManager.securityCheckCertificate();
+        LogManager.i(LOG_TAG, "SettingsManager.securityCheckCertificate: " + checkCertificate);
+
+        SSLContext sslContext = CertificateManager.getInstance().getSslContext(checkCertificate);
+        if (sslContext != null) {
+            builder.setCustomSSLContext(sslContext);
+        }
+        if (checkCertificate) {
+            builder.setHostnameVerifier(CertificateManager.getInstance().getHostnameVerifier());
+        } else {
+            builder.setHostnameVerifier(new AllowAllHostnameVerifier());
         }
 
         // if account have token
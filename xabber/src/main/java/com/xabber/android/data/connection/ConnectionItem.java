@@ -23,6 +23,7 @@ import com.xabber.android.data.log.LogManager;
 import com.xabber.android.data.account.AccountManager;
 import com.xabber.android.data.connection.listeners.OnPacketListener;
 import com.xabber.android.data.entity.AccountJid;
+import com.xabber.android.data.extension.csi.DeferredStanzaManager;
 import com.xabber.android.data.roster.AccountRosterListener;
 
 import org.jivesoftware.smack.*;
@@ -31,8 +32,6 @@ import org.jivesoftware.smack.parsing.ExceptionLoggingCallback;
 import org.jivesoftware.smack.roster.Roster;
 import org.jivesoftware.smack.sm.predicates.ForEveryStanza;
 import org.jivesoftware.smack.tcp.XMPPTCPConnection;
-import org.jivesoftware.smackx.ping.PingFailedListener;
-import org.jivesoftware.smackx.ping.PingManager;
 import org.jxmpp.jid.DomainBareJid;
 import org.jxmpp.jid.EntityFullJid;
 import org.jxmpp.jid.parts.Localpart;
@@ -171,8 +170,6 @@ public abstract class ConnectionItem {
 
         connection.addAsyncStanzaListener(everyStanzaListener, ForEveryStanza.INSTANCE);
         connection.addConnectionListener(connectionListener);
-
-        PingManager.getInstanceFor(connection).registerPingFailedListener(pingFailedListener);
     }
 
     /**
@@ -256,8 +253,6 @@ public abstract class ConnectionItem {
     void createNewConnection() {
         LogManager.i(logTag, "createNewConnection");
 
-        PingManager.getInstanceFor(connection).unregisterPingFailedListener(pingFailedListener);
-
         connection.removeConnectionListener(connectionListener);
         connection.removeAsyncStanzaListener(everyStanzaListener);
         final Roster roster = Roster.getInstanceFor(connection);
@@ -294,6 +289,10 @@ public abstract class ConnectionItem {
     private StanzaListener everyStanzaListener = new StanzaListener() {
         @Override
         public void processStanza(final Stanza stanza) throws SmackException.NotConnectedException {
+            if (DeferredStanzaManager.getInstance().deferStanza(ConnectionItem.this, stanza)) {
+                return;
+            }
+
             Application.getInstance().runOnUiThread(new Runnable() {
                 @Override
                 public void run() {
@@ -305,13 +304,13 @@ public abstract class ConnectionItem {
         }
     };
 
-    private PingFailedListener pingFailedListener = new PingFailedListener() {
-        @Override
-        public void pingFailed() {
-            LogManager.i(this, "pingFailed for " + getAccount());
-            updateState(ConnectionState.offline);
-            disconnect();
-        }
-    };
+    /**
+     * Called by {@link KeepAliveManager} when server didn't answer ping.
+     */
+    void onPingFailed() {
+        LogManager.i(logTag, "pingFailed");
+        updateState(ConnectionState.offline);
+        disconnect();
+    }
 
 }
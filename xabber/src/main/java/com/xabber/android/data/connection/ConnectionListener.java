@@ -7,9 +7,11 @@ import com.xabber.android.data.connection.listeners.OnDisconnectListener;
 import com.xabber.android.data.extension.blocking.BlockingManager;
 import com.xabber.android.data.extension.bookmarks.BookmarksManager;
 import com.xabber.android.data.extension.carbons.CarbonManager;
+import com.xabber.android.data.extension.csi.ClientStateManager;
 import com.xabber.android.data.extension.httpfileupload.HttpFileUploadManager;
 import com.xabber.android.data.extension.mam.MamManager;
 import com.xabber.android.data.log.LogManager;
+import com.xabber.android.data.log.TrafficCapture;
 import com.xabber.android.data.message.MessageManager;
 import com.xabber.android.data.roster.PresenceManager;
 
@@ -20,6 +22,14 @@ import org.jivesoftware.smack.sasl.SASLErrorException;
 
 class ConnectionListener implements org.jivesoftware.smack.ConnectionListener {
 
+    private static final String STEP_PRESENCE = "presence";
+    private static final String STEP_BLOCKING = "blocking";
+    private static final String STEP_CARBONS = "carbons";
+    private static final String STEP_CSI = "csi";
+    private static final String STEP_BOOKMARKS = "bookmarks";
+    private static final String STEP_MAM = "mam";
+    private static final String STEP_HTTP_FILE_UPLOAD = "httpFileUpload";
+
     @SuppressWarnings("WeakerAccess")
     ConnectionItem connectionItem;
 
@@ -60,15 +70,8 @@ class ConnectionListener implements org.jivesoftware.smack.ConnectionListener {
 
         connectionItem.updateState(ConnectionState.connected);
 
-        // just to see the order of call
-
-        CarbonManager.getInstance().onAuthorized(connectionItem);
-        MamManager.getInstance().onAuthorized(connectionItem);
-        BlockingManager.getInstance().onAuthorized(connectionItem);
-        HttpFileUploadManager.getInstance().onAuthorized(connectionItem);
-
-        PresenceManager.getInstance().onAuthorized(connectionItem);
-        BookmarksManager.getInstance().onAuthorized(connectionItem.getAccount());
+        KeepAliveManager.getInstance().onAuthorized(connectionItem);
+        startBootstrap();
 
         Application.getInstance().runOnUiThread(new Runnable() {
             @Override
@@ -78,9 +81,63 @@ class ConnectionListener implements org.jivesoftware.smack.ConnectionListener {
         });
     }
 
+    /**
+     * Starts initialization of authenticated account. User visible steps
+     * (presence, block list, carbons and open chat history) go first,
+     * service discovery and preferences are loaded in background.
+     */
+    private void startBootstrap() {
+        new ConnectionBootstrap(connectionItem.getAccount())
+                .addStep(STEP_PRESENCE, ConnectionBootstrap.Priority.userVisible, new Runnable() {
+                    @Override
+                    public void run() {
+                        PresenceManager.getInstance().onAuthorized(connectionItem);
+                    }
+                })
+                .addStep(STEP_BLOCKING, ConnectionBootstrap.Priority.userVisible, new Runnable() {
+                    @Override
+                    public void run() {
+                        BlockingManager.getInstance().onAuthorized(connectionItem);
+                    }
+                })
+                .addStep(STEP_CARBONS, ConnectionBootstrap.Priority.userVisible, new Runnable() {
+                    @Override
+                    public void run() {
+                        CarbonManager.getInstance().onAuthorized(connectionItem);
+                    }
+                })
+                .addStep(STEP_CSI, ConnectionBootstrap.Priority.normal, new Runnable() {
+                    @Override
+                    public void run() {
+                        ClientStateManager.onAuthorized(connectionItem);
+                    }
+                }, STEP_PRESENCE)
+                .addStep(STEP_BOOKMARKS, ConnectionBootstrap.Priority.normal, new Runnable() {
+                    @Override
+                    public void run() {
+                        BookmarksManager.getInstance().onAuthorized(connectionItem.getAccount());
+                    }
+                }, STEP_PRESENCE)
+                .addStep(STEP_MAM, ConnectionBootstrap.Priority.userVisible, new Runnable() {
+                    @Override
+                    public void run() {
+                        MamManager.getInstance().onAuthorized(connectionItem);
+                    }
+                })
+                .addStep(STEP_HTTP_FILE_UPLOAD, ConnectionBootstrap.Priority.background, new Runnable() {
+                    @Override
+                    public void run() {
+                        HttpFileUploadManager.getInstance().onAuthorized(connectionItem);
+                    }
+                })
+                .start();
+    }
+
     @Override
     public void connectionClosed() {
         LogManager.i(getLogTag(), "connectionClosed");
+        ConnectionBootstrap.cancel(connectionItem.getAccount());
+        KeepAliveManager.getInstance().onDisconnect(connectionItem);
 
         Application.getInstance().runOnUiThread(new Runnable() {
             @Override
@@ -99,6 +156,9 @@ class ConnectionListener implements org.jivesoftware.smack.ConnectionListener {
     @Override
     public void connectionClosedOnError(final Exception e) {
         LogManager.i(getLogTag(), "connectionClosedOnError " + e + " " + e.getMessage());
+        TrafficCapture.getInstance().requestDumpOnError(connectionItem.getAccount() + " " + e);
+        ConnectionBootstrap.cancel(connectionItem.getAccount());
+        KeepAliveManager.getInstance().onDisconnect(connectionItem);
 
         Application.getInstance().runOnUiThread(new Runnable() {
             @Override
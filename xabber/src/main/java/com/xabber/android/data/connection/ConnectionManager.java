@@ -39,8 +39,6 @@ public class ConnectionManager implements OnInitializedListener, OnCloseListener
      */
     public final static int PACKET_REPLY_TIMEOUT = 30000;
 
-    private final static int PING_INTERVAL_SECONDS = 60;
-
     private static ConnectionManager instance;
 
     public static ConnectionManager getInstance() {
@@ -53,7 +51,8 @@ public class ConnectionManager implements OnInitializedListener, OnCloseListener
 
     private ConnectionManager() {
         LogManager.i(LOG_TAG, "ConnectionManager");
-        org.jivesoftware.smackx.ping.PingManager.setDefaultPingInterval(PING_INTERVAL_SECONDS);
+        // pings are sent by KeepAliveManager
+        org.jivesoftware.smackx.ping.PingManager.setDefaultPingInterval(-1);
         SmackConfiguration.setDefaultReplyTimeout(PACKET_REPLY_TIMEOUT);
         /*
             Fix working with Nimbuzz.com
@@ -93,10 +93,12 @@ class ConnectionThread {
     @SuppressWarnings("WeakerAccess")
     void connectAndLogin() {
         AndroidLoggingHandler.reset(new AndroidLoggingHandler());
-        java.util.logging.Logger.getLogger(XMPPTCPConnection.class.getName()).setLevel(Level.FINEST);
-        java.util.logging.Logger.getLogger(AbstractDNSClient.class.getName()).setLevel(Level.FINEST);
-        java.util.logging.Logger.getLogger(AbstractXMPPConnection.class.getName()).setLevel(Level.FINEST);
-        java.util.logging.Logger.getLogger(DNSUtil.class.getName()).setLevel(Level.FINEST);
+        // verbose logging is useless if log is not written anywhere
+        Level level = LogManager.isEnabled() ? Level.FINEST : Level.INFO;
+        java.util.logging.Logger.getLogger(XMPPTCPConnection.class.getName()).setLevel(level);
+        java.util.logging.Logger.getLogger(AbstractDNSClient.class.getName()).setLevel(level);
+        java.util.logging.Logger.getLogger(AbstractXMPPConnection.class.getName()).setLevel(level);
+        java.util.logging.Logger.getLogger(DNSUtil.class.getName()).setLevel(level);
 
         if (connection.getConfiguration().getPassword().isEmpty()) {
             AccountErrorEvent accountErrorEvent = new AccountErrorEvent(connectionItem.getAccount(),
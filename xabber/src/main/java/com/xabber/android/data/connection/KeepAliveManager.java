@@ -0,0 +1,226 @@
+package com.xabber.android.data.connection;
+
+import android.support.annotation.NonNull;
+
+import com.xabber.android.data.entity.AccountJid;
+import com.xabber.android.data.log.LogManager;
+
+import org.jivesoftware.smack.SmackException;
+import org.jivesoftware.smack.tcp.XMPPTCPConnection;
+import org.jivesoftware.smackx.ping.PingManager;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps connections alive with pings at interval learned for each network.
+ * <p/>
+ * Interval starts from known safe value and grows while pings after full
+ * idle interval succeed. When ping fails interval falls back to the last
+ * safe value and failed one is never reached again on this network. Ping
+ * is not sent if any stanza was received during the interval.
+ *
+ * @see NetworkManager#getNetworkId()
+ */
+public class KeepAliveManager {
+
+    private static final String LOG_TAG = KeepAliveManager.class.getSimpleName();
+
+    static final int DEFAULT_INTERVAL_SECONDS = 60;
+    private static final int MIN_INTERVAL_SECONDS = 30;
+    private static final int MAX_INTERVAL_SECONDS = (int) TimeUnit.MINUTES.toSeconds(20);
+
+    /**
+     * Interval is increased if number of successful pings in a row reaches this value.
+     */
+    private static final int SUCCESSES_TO_GROW = 3;
+
+    /**
+     * Min increase of interval.
+     */
+    private static final int MIN_GROW_SECONDS = 15;
+
+    private static KeepAliveManager instance;
+
+    public static KeepAliveManager getInstance() {
+        if (instance == null) {
+            instance = new KeepAliveManager();
+        }
+
+        return instance;
+    }
+
+    /**
+     * Learned intervals for network ids.
+     */
+    private final Map<String, NetworkInterval> networkIntervals;
+
+    private final Map<AccountJid, ScheduledFuture<?>> scheduledPings;
+
+    private final ScheduledExecutorService executor;
+
+    private KeepAliveManager() {
+        networkIntervals = new ConcurrentHashMap<>();
+        scheduledPings = new ConcurrentHashMap<>();
+        executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(@NonNull Runnable runnable) {
+                Thread thread = new Thread(runnable, "Keep alive service");
+                thread.setPriority(Thread.MIN_PRIORITY);
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    void onAuthorized(ConnectionItem connectionItem) {
+        schedule(connectionItem, getNetworkInterval().getIntervalSeconds());
+    }
+
+    void onDisconnect(ConnectionItem connectionItem) {
+        ScheduledFuture<?> future = scheduledPings.remove(connectionItem.getAccount());
+        if (future != null) {
+            future.cancel(false);
+        }
+    }
+
+    @NonNull
+    private NetworkInterval getNetworkInterval() {
+        String networkId = NetworkManager.getInstance().getNetworkId();
+        NetworkInterval networkInterval = networkIntervals.get(networkId);
+        if (networkInterval == null) {
+            networkInterval = new NetworkInterval(networkId);
+            networkIntervals.put(networkId, networkInterval);
+        }
+        return networkInterval;
+    }
+
+    private void schedule(final ConnectionItem connectionItem, long delaySeconds) {
+        ScheduledFuture<?> future = executor.schedule(new Runnable() {
+            @Override
+            public void run() {
+                check(connectionItem);
+            }
+        }, delaySeconds, TimeUnit.SECONDS);
+
+        ScheduledFuture<?> previous = scheduledPings.put(connectionItem.getAccount(), future);
+        if (previous != null) {
+            previous.cancel(false);
+        }
+    }
+
+    @SuppressWarnings("WeakerAccess")
+    void check(ConnectionItem connectionItem) {
+        XMPPTCPConnection connection = connectionItem.getConnection();
+        if (!connection.isAuthenticated()) {
+            scheduledPings.remove(connectionItem.getAccount());
+            return;
+        }
+
+        NetworkInterval networkInterval = getNetworkInterval();
+        int interval = networkInterval.getIntervalSeconds();
+
+        // other traffic keeps connection alive as well
+        long idleSeconds = TimeUnit.MILLISECONDS.toSeconds(
+                System.currentTimeMillis() - connection.getLastStanzaReceived());
+        if (idleSeconds < interval) {
+            schedule(connectionItem, interval - idleSeconds);
+            return;
+        }
+
+        boolean success;
+        try {
+            success = PingManager.getInstanceFor(connection).pingMyServer(false);
+        } catch (SmackException.NotConnectedException | InterruptedException e) {
+            LogManager.exception(LOG_TAG, e);
+            success = false;
+        }
+
+        LogManager.i(LOG_TAG, connectionItem.getAccount() + " ping after " + idleSeconds
+                + " idle seconds on " + networkInterval.networkId + ": " + success);
+
+        if (success) {
+            networkInterval.onSuccess(interval);
+            schedule(connectionItem, networkInterval.getIntervalSeconds());
+        } else {
+            networkInterval.onFailure(interval);
+            scheduledPings.remove(connectionItem.getAccount());
+            connectionItem.onPingFailed();
+        }
+    }
+
+    /**
+     * Learned keep alive interval for one network.
+     */
+    private static class NetworkInterval {
+
+        final String networkId;
+
+        /**
+         * Interval known to keep connection alive.
+         */
+        private int safeSeconds = DEFAULT_INTERVAL_SECONDS;
+
+        /**
+         * Interval being probed.
+         */
+        private int intervalSeconds = DEFAULT_INTERVAL_SECONDS;
+
+        /**
+         * Smallest interval ping failed after or <code>0</code>.
+         */
+        private int failedSeconds = 0;
+
+        private int successes = 0;
+
+        NetworkInterval(String networkId) {
+            this.networkId = networkId;
+        }
+
+        synchronized int getIntervalSeconds() {
+            return intervalSeconds;
+        }
+
+        synchronized void onSuccess(int probedSeconds) {
+            if (probedSeconds != intervalSeconds) {
+                return;
+            }
+
+            successes++;
+            if (successes < SUCCESSES_TO_GROW) {
+                return;
+            }
+
+            successes = 0;
+            safeSeconds = intervalSeconds;
+
+            int next = Math.min(intervalSeconds * 3 / 2, MAX_INTERVAL_SECONDS);
+            if (failedSeconds > 0 && next >= failedSeconds) {
+                next = (intervalSeconds + failedSeconds) / 2;
+            }
+            if (next - intervalSeconds >= MIN_GROW_SECONDS) {
+                intervalSeconds = next;
+                LogManager.i(LOG_TAG, networkId + " interval increased to " + intervalSeconds);
+            }
+        }
+
+        synchronized void onFailure(int probedSeconds) {
+            successes = 0;
+            if (failedSeconds == 0 || probedSeconds < failedSeconds) {
+                failedSeconds = probedSeconds;
+            }
+            if (probedSeconds <= safeSeconds) {
+                // even safe interval failed
+                safeSeconds = Math.max(MIN_INTERVAL_SECONDS, probedSeconds / 2);
+            }
+            intervalSeconds = safeSeconds;
+            LogManager.i(LOG_TAG, networkId + " interval decreased to " + intervalSeconds);
+        }
+    }
+
+}
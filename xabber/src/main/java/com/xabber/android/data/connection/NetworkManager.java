@@ -19,6 +19,7 @@ import android.content.IntentFilter;
 import android.net.ConnectivityManager;
 import android.net.NetworkInfo;
 import android.net.NetworkInfo.State;
+import android.support.v4.net.ConnectivityManagerCompat;
 
 import com.xabber.android.data.Application;
 import com.xabber.android.data.OnCloseListener;
@@ -92,6 +93,26 @@ public class  NetworkManager implements OnCloseListener, OnInitializedListener {
         ConnectionManager.getInstance().connectAll();
     }
 
+    /**
+     * @return identifier of active network: its type, subtype and extra info
+     * (SSID for Wi-Fi or APN for mobile networks).
+     */
+    public String getNetworkId() {
+        NetworkInfo networkInfo = connectivityManager.getActiveNetworkInfo();
+        if (networkInfo == null) {
+            return "none";
+        }
+        return networkInfo.getTypeName() + "/" + networkInfo.getSubtypeName()
+                + "/" + networkInfo.getExtraInfo();
+    }
+
+    /**
+     * @return whether user could be charged for traffic of active network.
+     */
+    public boolean isNetworkMetered() {
+        return ConnectivityManagerCompat.isActiveNetworkMetered(connectivityManager);
+    }
+
     public static boolean isNetworkAvailable() {
         ConnectivityManager connectivityManager
                 = (ConnectivityManager) Application.getInstance()
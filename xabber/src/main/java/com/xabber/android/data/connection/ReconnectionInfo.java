@@ -17,6 +17,11 @@ class ReconnectionInfo {
      */
     private long lastReconnectionTimeMillis;
 
+    /**
+     * Delay to be waited after last reconnection before next attempt.
+     */
+    private long reconnectDelayMillis;
+
     public ReconnectionInfo() {
         reset();
     }
@@ -29,8 +34,13 @@ class ReconnectionInfo {
         return lastReconnectionTimeMillis;
     }
 
+    public long getReconnectDelayMillis() {
+        return reconnectDelayMillis;
+    }
+
     public void reset() {
         reconnectAttempts = 0;
+        reconnectDelayMillis = 0;
         resetReconnectionTime();
     }
 
@@ -38,8 +48,9 @@ class ReconnectionInfo {
         lastReconnectionTimeMillis = System.currentTimeMillis();
     }
 
-    public void nextAttempt() {
+    public void nextAttempt(long reconnectDelayMillis) {
         resetReconnectionTime();
         reconnectAttempts += 1;
+        this.reconnectDelayMillis = reconnectDelayMillis;
     }
 }
@@ -1,34 +1,72 @@
 package com.xabber.android.data.connection;
 
+import android.os.Handler;
+import android.os.Looper;
 import android.support.annotation.NonNull;
 
-import com.xabber.android.data.OnTimerListener;
+import com.xabber.android.data.Application;
+import com.xabber.android.data.OnCloseListener;
+import com.xabber.android.data.OnInitializedListener;
 import com.xabber.android.data.account.AccountItem;
 import com.xabber.android.data.account.AccountManager;
+import com.xabber.android.data.account.listeners.OnAccountChangedListener;
 import com.xabber.android.data.account.listeners.OnAccountRemovedListener;
 import com.xabber.android.data.connection.listeners.OnConnectedListener;
 import com.xabber.android.data.entity.AccountJid;
 import com.xabber.android.data.log.LogManager;
 
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
 import java.util.concurrent.TimeUnit;
 
-public class ReconnectionManager implements OnConnectedListener,
-        OnAccountRemovedListener, OnTimerListener {
+/**
+ * Schedules reconnection attempts.
+ * <p/>
+ * Instead of polling all accounts, one delayed check is armed per account
+ * that actually waits for reconnection. Delay between attempts grows
+ * exponentially with random jitter. Connectivity, screen and account state
+ * changes trigger check immediately. When nothing is pending no callbacks
+ * are scheduled at all.
+ * <p/>
+ * All methods should be called from UI thread.
+ */
+public class ReconnectionManager implements OnConnectedListener, OnAccountRemovedListener,
+        OnAccountChangedListener, OnInitializedListener, OnCloseListener {
+
+    private static final String LOG_TAG = ReconnectionManager.class.getSimpleName();
 
     /**
-     * Intervals in seconds to be used for attempt to reconnect. First value
-     * will be used on first attempt. Next value will be used if reconnection
-     * fails. Last value will be used if there is no more values in array.
+     * Delay before second attempt to reconnect. First attempt is performed
+     * immediately, every next delay is doubled.
      */
-    private final static int RECONNECT_AFTER[] = new int[]{0, 2, 10, 30, 60};
-    private static final String LOG_TAG = ReconnectionManager.class.getSimpleName();
+    private static final long BASE_RECONNECT_DELAY_MILLIS = TimeUnit.SECONDS.toMillis(2);
+
+    /**
+     * Upper bound for delay between attempts.
+     */
+    private static final long MAX_RECONNECT_DELAY_MILLIS = TimeUnit.MINUTES.toMillis(5);
+
+    /**
+     * Part of delay to be randomized, so that accounts on the same server
+     * don't reconnect all at once.
+     */
+    private static final double JITTER_FACTOR = 0.5;
 
     /**
      * Managed connections.
      */
-    private final HashMap<AccountJid, ReconnectionInfo> connections;
+    private final Map<AccountJid, ReconnectionInfo> connections;
+
+    /**
+     * Armed checks for accounts waiting for reconnection.
+     */
+    private final Map<AccountJid, Runnable> pendingChecks;
+
+    private final Handler handler;
+    private final Random random;
 
     private static ReconnectionManager instance;
 
@@ -42,18 +80,60 @@ public class ReconnectionManager implements OnConnectedListener,
 
     private ReconnectionManager() {
         connections = new HashMap<>();
+        pendingChecks = new HashMap<>();
+        handler = new Handler(Looper.getMainLooper());
+        random = new Random();
     }
 
     @Override
-    public void onTimer() {
-        Collection<AccountJid> allAccounts = AccountManager.getInstance().getAllAccounts();
+    public void onInitialized() {
+        Application.getInstance().addUIListener(OnAccountChangedListener.class, this);
+        checkAll();
+    }
+
+    @Override
+    public void onClose() {
+        Application.getInstance().removeUIListener(OnAccountChangedListener.class, this);
+        for (Runnable check : pendingChecks.values()) {
+            handler.removeCallbacks(check);
+        }
+        pendingChecks.clear();
+    }
+
+    @Override
+    public void onAccountsChanged(Collection<AccountJid> accounts) {
+        for (AccountJid accountJid : accounts) {
+            check(accountJid);
+        }
+    }
 
-        for (AccountJid accountJid : allAccounts) {
-            checkConnection(AccountManager.getInstance().getAccount(accountJid),
-                    getReconnectionInfo(accountJid));
+    /**
+     * Screen was turned on. Accounts waiting for next attempt should not wait
+     * for the rest of backoff delay.
+     */
+    public void onScreenOn() {
+        for (AccountJid accountJid : new ArrayList<>(pendingChecks.keySet())) {
+            requestReconnect(accountJid);
         }
     }
 
+    private void checkAll() {
+        for (AccountJid accountJid : AccountManager.getInstance().getAllAccounts()) {
+            check(accountJid);
+        }
+    }
+
+    private void check(AccountJid accountJid) {
+        cancelCheck(accountJid);
+
+        AccountItem accountItem = AccountManager.getInstance().getAccount(accountJid);
+        if (accountItem == null) {
+            return;
+        }
+
+        checkConnection(accountItem, getReconnectionInfo(accountJid));
+    }
+
     private void checkConnection(AccountItem accountItem, ReconnectionInfo reconnectionInfo) {
         if (!accountItem.isEnabled()) {
             if (accountItem.getState() != ConnectionState.offline) {
@@ -72,17 +152,26 @@ public class ReconnectionManager implements OnConnectedListener,
             return;
         }
 
-        if (!isTimeToReconnect(reconnectionInfo)) {
+        if (!NetworkManager.isNetworkAvailable()) {
+            // connectivity receiver will request reconnection
+            LogManager.i(LOG_TAG, accountItem.getAccount()
+                    + " not authenticated. No network, waiting for connectivity change");
+            return;
+        }
+
+        long timeToReconnect = getTimeToReconnectMillis(reconnectionInfo);
+        if (timeToReconnect > 0) {
             LogManager.i(LOG_TAG, accountItem.getAccount()
                     + " not authenticated. State: " + accountItem.getState()
-                    + " waiting... seconds from last reconnection "
-                    + getTimeSinceLastReconnectionSeconds(reconnectionInfo));
+                    + " waiting... next attempt in "
+                    + TimeUnit.MILLISECONDS.toSeconds(timeToReconnect) + " seconds");
+            scheduleCheck(accountItem.getAccount(), timeToReconnect);
             return;
         }
 
         boolean newThreadStarted = accountItem.connect();
         if (newThreadStarted) {
-            reconnectionInfo.nextAttempt();
+            reconnectionInfo.nextAttempt(getReconnectDelayMillis(reconnectionInfo.getReconnectAttempts() + 1));
             LogManager.i(LOG_TAG, accountItem.getAccount()
                     + " not authenticated. new thread started. next attempt "
                     + reconnectionInfo.getReconnectAttempts());
@@ -92,6 +181,9 @@ public class ReconnectionManager implements OnConnectedListener,
                     + " not authenticated. already in progress. reset time. attempt "
                     + reconnectionInfo.getReconnectAttempts());
         }
+        // check again later in case attempt fails without any state change
+        scheduleCheck(accountItem.getAccount(),
+                Math.max(reconnectionInfo.getReconnectDelayMillis(), BASE_RECONNECT_DELAY_MILLIS));
     }
 
     private boolean isAccountNeedConnection(AccountItem accountItem) {
@@ -99,24 +191,54 @@ public class ReconnectionManager implements OnConnectedListener,
                 && !accountItem.getConnection().isAuthenticated();
     }
 
-    private boolean isTimeToReconnect(ReconnectionInfo reconnectionInfo) {
-        int reconnectAfter;
-        if (reconnectionInfo.getReconnectAttempts() < RECONNECT_AFTER.length) {
-            reconnectAfter = RECONNECT_AFTER[reconnectionInfo.getReconnectAttempts()];
-        } else {
-            reconnectAfter = RECONNECT_AFTER[RECONNECT_AFTER.length - 1];
+    private long getTimeToReconnectMillis(ReconnectionInfo reconnectionInfo) {
+        return reconnectionInfo.getLastReconnectionTimeMillis()
+                + reconnectionInfo.getReconnectDelayMillis() - System.currentTimeMillis();
+    }
+
+    /**
+     * @param attempt number of failed attempts.
+     * @return delay with jitter to be waited before next attempt.
+     */
+    private long getReconnectDelayMillis(int attempt) {
+        if (attempt <= 0) {
+            return 0;
+        }
+
+        long delay = BASE_RECONNECT_DELAY_MILLIS;
+        for (int i = 1; i < attempt && delay < MAX_RECONNECT_DELAY_MILLIS; i++) {
+            delay *= 2;
         }
+        delay = Math.min(delay, MAX_RECONNECT_DELAY_MILLIS);
+
+        long jitter = (long) (delay * JITTER_FACTOR * random.nextDouble());
+        return delay - jitter;
+    }
 
-        return getTimeSinceLastReconnectionSeconds(reconnectionInfo) >= reconnectAfter;
+    private void scheduleCheck(final AccountJid accountJid, long delayMillis) {
+        cancelCheck(accountJid);
+
+        Runnable check = new Runnable() {
+            @Override
+            public void run() {
+                pendingChecks.remove(accountJid);
+                check(accountJid);
+            }
+        };
+        pendingChecks.put(accountJid, check);
+        handler.postDelayed(check, delayMillis);
     }
 
-    private long getTimeSinceLastReconnectionSeconds(ReconnectionInfo reconnectionInfo) {
-        return TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis()
-                - reconnectionInfo.getLastReconnectionTimeMillis());
+    private void cancelCheck(AccountJid accountJid) {
+        Runnable check = pendingChecks.remove(accountJid);
+        if (check != null) {
+            handler.removeCallbacks(check);
+        }
     }
 
     public void requestReconnect(AccountJid accountJid) {
         getReconnectionInfo(accountJid).reset();
+        check(accountJid);
     }
 
     @NonNull
@@ -145,7 +267,8 @@ public class ReconnectionManager implements OnConnectedListener,
 
     @Override
     public void onAccountRemoved(AccountItem accountItem) {
+        cancelCheck(accountItem.getAccount());
         connections.remove(accountItem.getAccount());
     }
 
-}
\ No newline at end of file
+}
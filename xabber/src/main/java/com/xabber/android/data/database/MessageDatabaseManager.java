@@ -29,7 +29,7 @@ import io.realm.annotations.RealmModule;
 
 public class MessageDatabaseManager {
     private static final String REALM_MESSAGE_DATABASE_NAME = "xabber.realm";
-    static final int REALM_MESSAGE_DATABASE_VERSION = 15;
+    static final int REALM_MESSAGE_DATABASE_VERSION = 16;
     private final RealmConfiguration realmConfiguration;
 
     private static MessageDatabaseManager instance;
@@ -260,6 +260,12 @@ public class MessageDatabaseManager {
                             oldVersion++;
                         }
 
+                        if (oldVersion == 15) {
+                            schema.get(MessageItem.class.getSimpleName())
+                                    .addField(MessageItem.Fields.IMAGE_THUMBNAIL, byte[].class);
+                            oldVersion++;
+                        }
+
                     }
                 })
                 .build();
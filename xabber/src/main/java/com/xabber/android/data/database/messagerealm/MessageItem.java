@@ -63,6 +63,7 @@ public class MessageItem extends RealmObject {
         public static final String IS_IMAGE = "isImage";
         public static final String IMAGE_WIDTH = "imageWidth";
         public static final String IMAGE_HEIGHT = "imageHeight";
+        public static final String IMAGE_THUMBNAIL = "imageThumbnail";
         public static final String ACKNOWLEDGED = "acknowledged";
         public static final String IS_IN_PROGRESS = "isInProgress";
 
@@ -169,6 +170,12 @@ public class MessageItem extends RealmObject {
     @Nullable
     private Integer imageHeight;
 
+    /**
+     * Small JPEG preview shown while image is loading.
+     */
+    @Nullable
+    private byte[] imageThumbnail;
+
     private Long fileSize;
 
     /**
@@ -383,6 +390,15 @@ public class MessageItem extends RealmObject {
         this.imageHeight = imageHeight;
     }
 
+    @Nullable
+    public byte[] getImageThumbnail() {
+        return imageThumbnail;
+    }
+
+    public void setImageThumbnail(@Nullable byte[] imageThumbnail) {
+        this.imageThumbnail = imageThumbnail;
+    }
+
     public String getFileUrl() {
         return fileUrl;
     }
@@ -22,6 +22,8 @@ import android.provider.BaseColumns;
 import com.xabber.android.data.database.DatabaseManager;
 import com.xabber.android.data.roster.StructuredName;
 
+import java.util.Map;
+
 /**
  * Storage with useful vcard fields.
  *
@@ -127,6 +129,26 @@ public class VCardTable extends AbstractTable {
         }
     }
 
+    /**
+     * Writes names in one transaction.
+     *
+     * @param names names for bare addresses.
+     */
+    public void write(Map<String, StructuredName> names) {
+        synchronized (writeLock) {
+            SQLiteDatabase db = databaseManager.getWritableDatabase();
+            db.beginTransaction();
+            try {
+                for (Map.Entry<String, StructuredName> entry : names.entrySet()) {
+                    write(entry.getKey(), entry.getValue());
+                }
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+        }
+    }
+
     @Override
     protected String getTableName() {
         return NAME;
@@ -15,17 +15,23 @@ import org.jxmpp.jid.parts.Resourcepart;
 import org.jxmpp.stringprep.XmppStringprepException;
 
 import java.io.Serializable;
-import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
 
 public class AccountJid implements Comparable<AccountJid>, Parcelable, Serializable {
     private static final String LOG_TAG = AccountJid.class.getSimpleName();
 
     private final @NonNull FullJid fullJid;
 
-    private static int counter = 0;
     private int order = 0;
-    private static Map<FullJid, AccountJid> instances = new ConcurrentHashMap<>();
+
+    private static final Interner<FullJid, AccountJid> INTERNER = new Interner<>();
+
+    private static final Interner.Factory<FullJid, AccountJid> FACTORY = new Interner.Factory<FullJid, AccountJid>() {
+        @NonNull
+        @Override
+        public AccountJid create(@NonNull FullJid fullJid) {
+            return new AccountJid(fullJid);
+        }
+    };
 
 
     public static AccountJid from(Localpart localpart, DomainBareJid domainBareJid, Resourcepart resource) {
@@ -38,18 +44,17 @@ public class AccountJid implements Comparable<AccountJid>, Parcelable, Serializa
 
     private AccountJid(@NonNull FullJid fullJid) {
         this.fullJid = fullJid;
-        counter++;
     }
 
     private static AccountJid getAccountJid(@NonNull FullJid fullJid) {
-        AccountJid accountJid = instances.get(fullJid);
-        if (accountJid != null) {
-            return accountJid;
-        } else {
-            AccountJid newAccountJid = new AccountJid(fullJid);
-            instances.put(fullJid, newAccountJid);
-            return newAccountJid;
-        }
+        return INTERNER.intern(fullJid, FACTORY);
+    }
+
+    /**
+     * @return interner of all instances, for metrics only.
+     */
+    public static Interner<FullJid, AccountJid> getInterner() {
+        return INTERNER;
     }
 
     public @NonNull FullJid getFullJid() {
@@ -0,0 +1,178 @@
+package com.xabber.android.data.entity;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.util.AbstractCollection;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Two level map keyed by account and typed second key, usually {@link UserJid}
+ * or {@link org.jxmpp.jid.BareJid}.
+ * <p/>
+ * Unlike {@link NestedMap} keys are used as is, without conversion to string.
+ * Reads are lock-free, modifications are synchronized. Views returned by
+ * {@link #getNested(AccountJid)} and {@link #values()} are live and never
+ * throw {@link java.util.ConcurrentModificationException}.
+ *
+ * @param <K> second level key.
+ * @param <V> value.
+ */
+public class AccountNestedMap<K, V> {
+
+    private final Map<AccountJid, Map<K, V>> map;
+
+    private final Collection<V> values;
+
+    public AccountNestedMap() {
+        map = new ConcurrentHashMap<>();
+        values = new Values();
+    }
+
+    /**
+     * @return <code>null</code> if there is no such first or second level.
+     */
+    @Nullable
+    public V get(AccountJid account, K key) {
+        Map<K, V> nested = map.get(account);
+        if (nested == null) {
+            return null;
+        }
+        return nested.get(key);
+    }
+
+    /**
+     * Puts value. Nested map will be created if necessary.
+     */
+    public synchronized void put(@NonNull AccountJid account, @NonNull K key, @NonNull V value) {
+        Map<K, V> nested = map.get(account);
+        if (nested == null) {
+            nested = new ConcurrentHashMap<>();
+            map.put(account, nested);
+        }
+        nested.put(key, value);
+    }
+
+    /**
+     * Removes value. Empty nested map is kept until {@link #clear(AccountJid)},
+     * so that views returned by {@link #getNested(AccountJid)} stay live.
+     */
+    @Nullable
+    public synchronized V remove(AccountJid account, K key) {
+        Map<K, V> nested = map.get(account);
+        if (nested == null) {
+            return null;
+        }
+        return nested.remove(key);
+    }
+
+    /**
+     * Removes all information associated with account.
+     */
+    public synchronized void clear(AccountJid account) {
+        map.remove(account);
+    }
+
+    /**
+     * Removes all information.
+     */
+    public synchronized void clear() {
+        map.clear();
+    }
+
+    public boolean isEmpty() {
+        for (Map<K, V> nested : map.values()) {
+            if (!nested.isEmpty()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return live unmodifiable view of nested map or empty map if nothing
+     * was put for the account yet. View stays live until
+     * {@link #clear(AccountJid)} or {@link #clear()} is called.
+     */
+    @NonNull
+    public Map<K, V> getNested(AccountJid account) {
+        Map<K, V> nested = map.get(account);
+        if (nested == null) {
+            return Collections.emptyMap();
+        }
+        return Collections.unmodifiableMap(nested);
+    }
+
+    /**
+     * @return live unmodifiable view of values for all accounts.
+     */
+    @NonNull
+    public Collection<V> values() {
+        return values;
+    }
+
+    private class Values extends AbstractCollection<V> {
+
+        @Override
+        public Iterator<V> iterator() {
+            return new ValuesIterator();
+        }
+
+        @Override
+        public int size() {
+            int size = 0;
+            for (Map<K, V> nested : map.values()) {
+                size += nested.size();
+            }
+            return size;
+        }
+
+        @Override
+        public boolean isEmpty() {
+            return !iterator().hasNext();
+        }
+
+    }
+
+    private class ValuesIterator implements Iterator<V> {
+
+        private final Iterator<Map<K, V>> firstIterator;
+
+        private Iterator<V> secondIterator;
+
+        private ValuesIterator() {
+            firstIterator = map.values().iterator();
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (secondIterator == null || !secondIterator.hasNext()) {
+                if (!firstIterator.hasNext()) {
+                    return false;
+                }
+                secondIterator = firstIterator.next().values().iterator();
+            }
+            return true;
+        }
+
+        @Override
+        public V next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            return secondIterator.next();
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+
+    }
+
+}
@@ -0,0 +1,123 @@
+package com.xabber.android.data.entity;
+
+import android.support.annotation.NonNull;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Canonical instances of values with weak references to them.
+ * <p/>
+ * While value is reachable, {@link #intern(Object, Factory)} returns the same
+ * instance for equal keys. Entries of collected values are purged through
+ * reference queue on each call, so size is bounded by number of reachable
+ * values rather than by number of keys ever seen.
+ *
+ * @param <K> key.
+ * @param <V> interned value.
+ */
+public class Interner<K, V> {
+
+    interface Factory<K, V> {
+        @NonNull
+        V create(@NonNull K key);
+    }
+
+    private final ConcurrentHashMap<K, KeyedReference<K, V>> references;
+
+    private final ReferenceQueue<V> queue;
+
+    private final AtomicLong createdCount;
+
+    private final AtomicLong purgedCount;
+
+    Interner() {
+        references = new ConcurrentHashMap<>();
+        queue = new ReferenceQueue<>();
+        createdCount = new AtomicLong();
+        purgedCount = new AtomicLong();
+    }
+
+    /**
+     * @return existing instance for the key or new one created by factory.
+     */
+    @NonNull
+    V intern(@NonNull K key, @NonNull Factory<K, V> factory) {
+        purge();
+
+        while (true) {
+            KeyedReference<K, V> reference = references.get(key);
+            if (reference != null) {
+                V value = reference.get();
+                if (value != null) {
+                    return value;
+                }
+            }
+
+            V value = factory.create(key);
+            KeyedReference<K, V> newReference = new KeyedReference<>(key, value, queue);
+            boolean stored;
+            if (reference == null) {
+                stored = references.putIfAbsent(key, newReference) == null;
+            } else {
+                stored = references.replace(key, reference, newReference);
+            }
+            if (stored) {
+                createdCount.incrementAndGet();
+                return value;
+            }
+            // other thread has interned value for the same key
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void purge() {
+        KeyedReference<K, V> reference;
+        while ((reference = (KeyedReference<K, V>) queue.poll()) != null) {
+            // entry could be already replaced with reference to new value
+            if (references.remove(reference.key, reference)) {
+                purgedCount.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * @return number of entries, including ones with values collected but
+     * not purged yet.
+     */
+    public int size() {
+        return references.size();
+    }
+
+    /**
+     * @return total number of interned values.
+     */
+    public long getCreatedCount() {
+        return createdCount.get();
+    }
+
+    /**
+     * @return total number of purged entries.
+     */
+    public long getPurgedCount() {
+        return purgedCount.get();
+    }
+
+    @Override
+    public String toString() {
+        return "size=" + size() + ", created=" + getCreatedCount() + ", purged=" + getPurgedCount();
+    }
+
+    private static class KeyedReference<K, V> extends WeakReference<V> {
+
+        private final K key;
+
+        KeyedReference(K key, V value, ReferenceQueue<? super V> queue) {
+            super(value, queue);
+            this.key = key;
+        }
+    }
+
+}
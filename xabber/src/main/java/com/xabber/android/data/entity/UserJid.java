@@ -15,9 +15,6 @@ import org.jxmpp.jid.impl.JidCreate;
 import org.jxmpp.stringprep.XmppStringprepException;
 
 import java.io.IOException;
-import java.lang.ref.WeakReference;
-import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
 
 public class UserJid implements Comparable<UserJid>, Parcelable {
 
@@ -28,8 +25,16 @@ public class UserJid implements Comparable<UserJid>, Parcelable {
     }
 
     private final @NonNull Jid jid;
-    private static int counter = 0;
-    private static Map<Jid, WeakReference<UserJid>> instances = new ConcurrentHashMap<>();
+
+    private static final Interner<Jid, UserJid> INTERNER = new Interner<>();
+
+    private static final Interner.Factory<Jid, UserJid> FACTORY = new Interner.Factory<Jid, UserJid>() {
+        @NonNull
+        @Override
+        public UserJid create(@NonNull Jid jid) {
+            return new UserJid(jid);
+        }
+    };
 
 
     public static @NonNull UserJid from(@Nullable String string) throws UserJidCreateException {
@@ -56,20 +61,18 @@ public class UserJid implements Comparable<UserJid>, Parcelable {
     }
 
     private static UserJid getUserJid(@NonNull Jid jid) {
-        WeakReference<UserJid> userJidWeakReference = instances.get(jid);
+        return INTERNER.intern(jid, FACTORY);
+    }
 
-        if (userJidWeakReference != null && userJidWeakReference.get() != null) {
-            return userJidWeakReference.get();
-        } else {
-            UserJid newUserJid = new UserJid(jid);
-            instances.put(jid, new WeakReference<>(newUserJid));
-            return newUserJid;
-        }
+    /**
+     * @return interner of all instances, for metrics only.
+     */
+    public static Interner<Jid, UserJid> getInterner() {
+        return INTERNER;
     }
 
     private UserJid(@NonNull Jid jid) {
         this.jid = jid;
-        counter++;
     }
 
     public @NonNull Jid getJid() {
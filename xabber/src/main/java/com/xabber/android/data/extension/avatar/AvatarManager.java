@@ -16,14 +16,15 @@ package com.xabber.android.data.extension.avatar;
 
 import android.database.Cursor;
 import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
 import android.graphics.Canvas;
 import android.graphics.drawable.BitmapDrawable;
 import android.graphics.drawable.ColorDrawable;
 import android.graphics.drawable.Drawable;
 import android.graphics.drawable.LayerDrawable;
+import android.os.Looper;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
+import android.util.LruCache;
 
 import com.xabber.android.R;
 import com.xabber.android.data.Application;
@@ -41,6 +42,7 @@ import com.xabber.android.data.extension.vcard.VCardManager;
 import com.xabber.android.ui.color.ColorManager;
 import com.xabber.xmpp.vcardupdate.VCardUpdate;
 
+import org.greenrobot.eventbus.EventBus;
 import org.jivesoftware.smack.packet.ExtensionElement;
 import org.jivesoftware.smack.packet.Presence;
 import org.jivesoftware.smack.packet.Stanza;
@@ -48,14 +50,21 @@ import org.jxmpp.jid.Jid;
 import org.jxmpp.jid.impl.JidCreate;
 import org.jxmpp.stringprep.XmppStringprepException;
 
+import java.util.Collections;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 
 /**
  * Provides information about avatars (hashes and values). Store and retrieve
  * hashes from database and binary values from file system. Caches user's hashes
- * and avatar's values in memory. Handles changes in user's hashes. Requests
+ * in memory. Thumbnails of avatar's values are decoded in background on first
+ * use and kept in LRU cache bounded by size in bytes, default avatar is shown
+ * until thumbnail is decoded. Handles changes in user's hashes. Requests
  * information from server when avatar for given hash don't exists locally.
  * <p/>
  * <p/>
@@ -71,9 +80,14 @@ import java.util.Map;
 public class AvatarManager implements OnLoadListener, OnLowMemoryListener, OnPacketListener {
 
     /**
-     * Maximum image width / height to be loaded.
+     * Part of maximum heap size available for decoded avatars.
      */
-    private static final int MAX_SIZE = 256;
+    private static final int BITMAPS_HEAP_FRACTION = 16;
+
+    /**
+     * Maximum number of default avatar drawables cached for contact list.
+     */
+    private static final int CONTACT_LIST_DRAWABLES_SIZE = 256;
 
     public static final String EMPTY_HASH = "";
     private static final Bitmap EMPTY_BITMAP = Bitmap.createBitmap(1, 1, Bitmap.Config.ALPHA_8);
@@ -87,15 +101,22 @@ public class AvatarManager implements OnLoadListener, OnLowMemoryListener, OnPac
      */
     private final Map<Jid, String> hashes;
     /**
-     * Map with bitmaps for specified hashes.
+     * Decoded thumbnails for specified hashes and sizes.
      * <p/>
      * {@link #EMPTY_BITMAP} is used to store <code>null</code> values.
      */
-    private final Map<String, Bitmap> bitmaps;
+    private final LruCache<String, Bitmap> bitmaps;
+    /**
+     * Keys of {@link #bitmaps} being decoded in background.
+     */
+    private final Set<String> decodingBitmaps;
+    private final ExecutorService bitmapExecutor;
     /**
-     * Map with drawable used in contact list only for specified uses.
+     * Default avatar drawables used in contact list only for specified users.
+     * Drawables with avatar's values are not cached, so decoded bitmaps are
+     * held by {@link #bitmaps} only.
      */
-    private final Map<Jid, Drawable> contactListDrawables;
+    private final LruCache<Jid, Drawable> contactListDrawables;
     /**
      * Users' default avatar set.
      */
@@ -119,41 +140,24 @@ public class AvatarManager implements OnLoadListener, OnLowMemoryListener, OnPac
         roomAvatarSet = new BaseAvatarSet(application, R.array.muc_avatars, R.array.default_avatars_colors);
 
         hashes = new HashMap<>();
-        bitmaps = new HashMap<>();
-        contactListDrawables = new HashMap<>();
-    }
-
-    /**
-     * Make {@link Bitmap} from array of bytes.
-     *
-     * @param value
-     * @return Bitmap. <code>null</code> can be returned if value is invalid or
-     * is <code>null</code>.
-     */
-    private static Bitmap makeBitmap(byte[] value) {
-        if (value == null) {
-            return null;
-        }
-
-        // Load only size values
-        BitmapFactory.Options sizeOptions = new BitmapFactory.Options();
-        sizeOptions.inJustDecodeBounds = true;
-        BitmapFactory.decodeByteArray(value, 0, value.length, sizeOptions);
-
-        // Calculate factor to down scale image
-        int scale = 1;
-        int width_tmp = sizeOptions.outWidth;
-        int height_tmp = sizeOptions.outHeight;
-        while (width_tmp / 2 >= MAX_SIZE && height_tmp / 2 >= MAX_SIZE) {
-            scale *= 2;
-            width_tmp /= 2;
-            height_tmp /= 2;
-        }
-
-        // Load image
-        BitmapFactory.Options resultOptions = new BitmapFactory.Options();
-        resultOptions.inSampleSize = scale;
-        return BitmapFactory.decodeByteArray(value, 0, value.length, resultOptions);
+        bitmaps = new LruCache<String, Bitmap>(
+                (int) Math.min(Runtime.getRuntime().maxMemory() / BITMAPS_HEAP_FRACTION, Integer.MAX_VALUE)) {
+            @Override
+            protected int sizeOf(String key, Bitmap value) {
+                return value.getByteCount();
+            }
+        };
+        decodingBitmaps = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+        bitmapExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(@NonNull Runnable runnable) {
+                Thread thread = new Thread(runnable, "Avatar decoder");
+                thread.setPriority(Thread.MIN_PRIORITY);
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        contactListDrawables = new LruCache<>(CONTACT_LIST_DRAWABLES_SIZE);
     }
 
     public static Bitmap drawableToBitmap(Drawable drawable) {
@@ -177,7 +181,6 @@ public class AvatarManager implements OnLoadListener, OnLowMemoryListener, OnPac
     @Override
     public void onLoad() {
         final Map<Jid, String> hashes = new HashMap<>();
-        final Map<String, Bitmap> bitmaps = new HashMap<>();
         Cursor cursor = AvatarTable.getInstance().list();
         try {
             if (cursor.moveToFirst()) {
@@ -195,22 +198,16 @@ public class AvatarManager implements OnLoadListener, OnLowMemoryListener, OnPac
         } finally {
             cursor.close();
         }
-        for (String hash : new HashSet<>(hashes.values()))
-            if (!hash.equals(EMPTY_HASH)) {
-                Bitmap bitmap = makeBitmap(AvatarStorage.getInstance().read(hash));
-                bitmaps.put(hash, bitmap == null ? EMPTY_BITMAP : bitmap);
-            }
         Application.getInstance().runOnUiThread(new Runnable() {
             @Override
             public void run() {
-                onLoaded(hashes, bitmaps);
+                onLoaded(hashes);
             }
         });
     }
 
-    private void onLoaded(Map<Jid, String> hashes, Map<String, Bitmap> bitmaps) {
+    private void onLoaded(Map<Jid, String> hashes) {
         this.hashes.putAll(hashes);
-        this.bitmaps.putAll(bitmaps);
     }
 
     /**
@@ -230,19 +227,33 @@ public class AvatarManager implements OnLoadListener, OnLowMemoryListener, OnPac
         });
     }
 
+    private static String getBitmapKey(String hash, AvatarSize size) {
+        return hash + "/" + size;
+    }
+
     /**
-     * Get avatar's value for user.
+     * Get avatar's thumbnail for user. If thumbnail is not cached, it will be
+     * decoded in background when called from UI thread, listeners will be
+     * notified when it is ready.
      *
      * @param jid
-     * @return avatar's value. <code>null</code> can be returned if user has no
-     * avatar or avatar doesn't exists.
+     * @return avatar's thumbnail. <code>null</code> can be returned if user has no
+     * avatar, avatar doesn't exists or is not decoded yet.
      */
-    private Bitmap getBitmap(Jid jid) {
+    private Bitmap getBitmap(Jid jid, AvatarSize size) {
         String hash = getHash(jid);
         if (hash == null || hash.equals(EMPTY_HASH)) {
             return null;
         }
-        Bitmap bitmap = bitmaps.get(hash);
+        String key = getBitmapKey(hash, size);
+        Bitmap bitmap = bitmaps.get(key);
+        if (bitmap == null) {
+            if (Looper.myLooper() == Looper.getMainLooper()) {
+                requestBitmap(hash, size);
+                return null;
+            }
+            bitmap = decodeBitmap(hash, size);
+        }
         if (bitmap == EMPTY_BITMAP) {
             return null;
         } else {
@@ -250,6 +261,50 @@ public class AvatarManager implements OnLoadListener, OnLowMemoryListener, OnPac
         }
     }
 
+    private void requestBitmap(final String hash, final AvatarSize size) {
+        if (!decodingBitmaps.add(getBitmapKey(hash, size))) {
+            return;
+        }
+
+        bitmapExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    decodeBitmap(hash, size);
+                } finally {
+                    decodingBitmaps.remove(getBitmapKey(hash, size));
+                }
+                if (decodingBitmaps.isEmpty()) {
+                    onBitmapsDecoded();
+                }
+            }
+        });
+    }
+
+    /**
+     * Reads thumbnail to the cache, creating missing thumbnails for avatars
+     * stored before thumbnails were introduced. Must be called from
+     * background thread.
+     *
+     * @return decoded thumbnail or {@link #EMPTY_BITMAP}.
+     */
+    private Bitmap decodeBitmap(String hash, AvatarSize size) {
+        Bitmap bitmap = AvatarStorage.getInstance().readThumbnail(hash, size);
+        if (bitmap == null) {
+            bitmap = EMPTY_BITMAP;
+        }
+        bitmaps.put(getBitmapKey(hash, size), bitmap);
+        return bitmap;
+    }
+
+    /**
+     * Posts {@link AvatarsDecodedEvent} once queued thumbnails are decoded,
+     * so that views with default avatars will be updated.
+     */
+    private void onBitmapsDecoded() {
+        EventBus.getDefault().post(new AvatarsDecodedEvent());
+    }
+
     @Nullable
     public String getHash(Jid bareAddress) {
         return hashes.get(bareAddress);
@@ -262,22 +317,20 @@ public class AvatarManager implements OnLoadListener, OnLowMemoryListener, OnPac
      * @param value
      */
     private void setValue(final String hash, final byte[] value) {
-        if (hash == null) {
+        if (hash == null || value == null) {
             return;
         }
-        Bitmap bitmap = makeBitmap(value);
-        bitmaps.put(hash, bitmap == null ? EMPTY_BITMAP : bitmap);
-        application.runInBackground(new Runnable() {
-            @Override
-            public void run() {
-                AvatarStorage.getInstance().write(hash, value);
-            }
-        });
+        AvatarStorage.getInstance().write(hash, value);
+        // value could be missed before
+        for (AvatarSize size : AvatarSize.values()) {
+            bitmaps.remove(getBitmapKey(hash, size));
+        }
     }
 
     @Override
     public void onLowMemory() {
-        contactListDrawables.clear();
+        bitmaps.evictAll();
+        contactListDrawables.evictAll();
         userAvatarSet.onLowMemory();
         roomAvatarSet.onLowMemory();
     }
@@ -292,7 +345,7 @@ public class AvatarManager implements OnLoadListener, OnLowMemoryListener, OnPac
      * </ul>
      */
     public Drawable getAccountAvatar(AccountJid account) {
-        Bitmap value = getBitmap(account.getFullJid().asBareJid());
+        Bitmap value = getBitmap(account.getFullJid().asBareJid(), AvatarSize.large);
         if (value != null) {
             return new BitmapDrawable(application.getResources(), value);
         } else {
@@ -315,7 +368,7 @@ public class AvatarManager implements OnLoadListener, OnLowMemoryListener, OnPac
      * @return
      */
     public Drawable getUserAvatar(UserJid user) {
-        Bitmap value = getBitmap(user.getJid());
+        Bitmap value = getBitmap(user.getJid(), AvatarSize.normal);
         if (value != null) {
             return new BitmapDrawable(application.getResources(), value);
         } else {
@@ -339,7 +392,7 @@ public class AvatarManager implements OnLoadListener, OnLowMemoryListener, OnPac
      * @return
      */
     public Bitmap getUserBitmap(UserJid user) {
-        Bitmap value = getBitmap(user.getJid());
+        Bitmap value = getBitmap(user.getJid(), AvatarSize.large);
         if (value != null) {
             return value;
         } else {
@@ -348,15 +401,20 @@ public class AvatarManager implements OnLoadListener, OnLowMemoryListener, OnPac
     }
 
     /**
-     * Gets and caches drawable with avatar for regular user.
+     * Gets drawable with avatar for regular user. Default avatar is cached.
      *
      * @param user
      * @return
      */
     public Drawable getUserAvatarForContactList(UserJid user) {
+        Bitmap value = getBitmap(user.getJid(), AvatarSize.normal);
+        if (value != null) {
+            return new BitmapDrawable(application.getResources(), value);
+        }
+
         Drawable drawable = contactListDrawables.get(user.getJid());
         if (drawable == null) {
-            drawable = getUserAvatar(user);
+            drawable = getDefaultAvatarDrawable(userAvatarSet.getResourceId(user));
             contactListDrawables.put(user.getJid(), drawable);
         }
         return drawable;
@@ -450,7 +508,8 @@ public class AvatarManager implements OnLoadListener, OnLowMemoryListener, OnPac
             return;
         }
         final String hash = vCardUpdate.getPhotoHash();
-        if (bitmaps.containsKey(hash)) {
+        Bitmap bitmap = bitmaps.get(getBitmapKey(hash, AvatarSize.normal));
+        if (bitmap != null && bitmap != EMPTY_BITMAP) {
             setHash(user.getJid(), hash);
             return;
         }
@@ -463,16 +522,15 @@ public class AvatarManager implements OnLoadListener, OnLowMemoryListener, OnPac
     }
 
     /**
-     * Read bitmap in background.
-     *
+     * Check whether avatar is stored in background. Thumbnails will be
+     * decoded on first use.
      */
     private void loadBitmap(final AccountJid account, final Jid jid, final String hash) {
-        final byte[] value = AvatarStorage.getInstance().read(hash);
-        final Bitmap bitmap = makeBitmap(value);
+        final boolean exists = AvatarStorage.getInstance().exists(hash);
         Application.getInstance().runOnUiThread(new Runnable() {
             @Override
             public void run() {
-                onBitmapLoaded(account, jid, hash, value, bitmap);
+                onBitmapLoaded(account, jid, hash, exists);
             }
         });
     }
@@ -480,14 +538,12 @@ public class AvatarManager implements OnLoadListener, OnLowMemoryListener, OnPac
     /**
      * Update data or request avatar on bitmap load.
      */
-    private void onBitmapLoaded(AccountJid account, Jid jid,
-                                String hash, byte[] value, Bitmap bitmap) {
-        if (value == null) {
+    private void onBitmapLoaded(AccountJid account, Jid jid, String hash, boolean exists) {
+        if (!exists) {
             if (SettingsManager.connectionLoadVCard()) {
                 VCardManager.getInstance().request(account, jid);
             }
         } else {
-            bitmaps.put(hash, bitmap == null ? EMPTY_BITMAP : bitmap);
             setHash(jid, hash);
         }
     }
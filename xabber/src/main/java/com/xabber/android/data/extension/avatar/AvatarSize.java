@@ -0,0 +1,18 @@
+package com.xabber.android.data.extension.avatar;
+
+/**
+ * Sizes of avatar thumbnails stored by {@link AvatarStorage}.
+ */
+enum AvatarSize {
+
+    /**
+     * Contact list, chat messages and toolbars.
+     */
+    normal,
+
+    /**
+     * Account avatars, notifications and shortcuts.
+     */
+    large
+
+}
@@ -14,25 +14,56 @@
  */
 package com.xabber.android.data.extension.avatar;
 
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import com.xabber.android.R;
 import com.xabber.android.data.Application;
 import com.xabber.android.data.log.LogManager;
 import com.xabber.android.data.OnClearListener;
 import com.xabber.android.data.OnLoadListener;
 
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Manager for avatar files.
+ * <p/>
+ * Original value is stored for each hash together with thumbnails for each
+ * {@link AvatarSize}. Thumbnails are created when value is written or on
+ * first request for avatars stored before. All methods access file system,
+ * so must be called from background thread.
  *
  * @author alexander.ivanov
  */
 public class AvatarStorage implements OnLoadListener, OnClearListener {
 
+    private static final int BUFFER_SIZE = 8192;
+
     private final File folder;
 
+    /**
+     * Maximum width / height of thumbnails for each {@link AvatarSize}.
+     */
+    private final int[] sizes;
+
+    /**
+     * Values being written in background, so they can be read before write
+     * is finished.
+     */
+    private final Map<String, byte[]> pendingValues;
+
     private static AvatarStorage instance;
 
     public static AvatarStorage getInstance() {
@@ -45,6 +76,15 @@ public class AvatarStorage implements OnLoadListener, OnClearListener {
 
     private AvatarStorage() {
         folder = new File(Application.getInstance().getFilesDir(), "avatars");
+        pendingValues = new ConcurrentHashMap<>();
+
+        Resources resources = Application.getInstance().getResources();
+        sizes = new int[AvatarSize.values().length];
+        sizes[AvatarSize.normal.ordinal()] = resources.getDimensionPixelSize(R.dimen.avatar_normal_size);
+        sizes[AvatarSize.large.ordinal()] = Math.max(
+                resources.getDimensionPixelSize(R.dimen.avatar_large_size),
+                Math.max(resources.getDimensionPixelSize(android.R.dimen.notification_large_icon_width),
+                        HoneycombShortcutHelper.getLauncherLargeIconSize()));
     }
 
     @Override
@@ -58,26 +98,181 @@ public class AvatarStorage implements OnLoadListener, OnClearListener {
         return new File(folder, hash);
     }
 
+    private File getThumbnailFile(String hash, AvatarSize size) {
+        return new File(folder, hash + "_" + sizes[size.ordinal()]);
+    }
+
+    /**
+     * @return original value or <code>null</code> if there is no such avatar.
+     */
+    @Nullable
     byte[] read(String hash) {
-        byte[] value;
-        FileInputStream inputStream;
+        byte[] pendingValue = pendingValues.get(hash);
+        if (pendingValue != null) {
+            return pendingValue;
+        }
+
+        File file = getFile(hash);
+        if (!file.exists()) {
+            return null;
+        }
+
+        InputStream inputStream = null;
         try {
-            inputStream = new FileInputStream(getFile(hash));
-            value = new byte[inputStream.available()];
-            inputStream.read(value);
-            inputStream.close();
+            inputStream = new FileInputStream(file);
+            ByteArrayOutputStream outputStream = new ByteArrayOutputStream((int) file.length());
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int count;
+            while ((count = inputStream.read(buffer)) != -1) {
+                outputStream.write(buffer, 0, count);
+            }
+            return outputStream.toByteArray();
         } catch (IOException e) {
             LogManager.exception(this, e);
-            value = null;
+            return null;
+        } finally {
+            close(inputStream);
         }
-        return value;
     }
 
-    void write(String hash, byte[] value) {
+    /**
+     * @return whether avatar with given hash is stored.
+     */
+    boolean exists(String hash) {
+        return pendingValues.containsKey(hash) || getFile(hash).exists();
+    }
+
+    /**
+     * Writes value and creates its thumbnails in background. Value can be
+     * read immediately.
+     */
+    void write(final String hash, final byte[] value) {
+        pendingValues.put(hash, value);
+        Application.getInstance().runInBackground(new Runnable() {
+            @Override
+            public void run() {
+                if (writeFile(getFile(hash), value)) {
+                    for (AvatarSize size : AvatarSize.values()) {
+                        createThumbnail(hash, size, value);
+                    }
+                }
+                pendingValues.remove(hash);
+            }
+        });
+    }
+
+    /**
+     * Reads thumbnail. If it is missing, thumbnails of all sizes are created
+     * from original value, so that it is read and decoded once.
+     *
+     * @return <code>null</code> if there is no such avatar or it can't be decoded.
+     */
+    @Nullable
+    Bitmap readThumbnail(String hash, AvatarSize size) {
+        if (!pendingValues.containsKey(hash)) {
+            File file = getThumbnailFile(hash, size);
+            if (file.exists()) {
+                Bitmap bitmap = BitmapFactory.decodeFile(file.getPath());
+                if (bitmap != null) {
+                    return bitmap;
+                }
+            }
+        }
+
+        byte[] value = read(hash);
+        if (value == null) {
+            return null;
+        }
+
+        Bitmap result = null;
+        for (AvatarSize thumbnailSize : AvatarSize.values()) {
+            if (thumbnailSize == size) {
+                result = createThumbnail(hash, thumbnailSize, value);
+            } else if (!getThumbnailFile(hash, thumbnailSize).exists()) {
+                Bitmap bitmap = createThumbnail(hash, thumbnailSize, value);
+                if (bitmap != null) {
+                    bitmap.recycle();
+                }
+            }
+        }
+        return result;
+    }
+
+    @Nullable
+    private Bitmap createThumbnail(String hash, AvatarSize size, @NonNull byte[] value) {
+        int maxSize = sizes[size.ordinal()];
+
+        // Load only size values
+        BitmapFactory.Options sizeOptions = new BitmapFactory.Options();
+        sizeOptions.inJustDecodeBounds = true;
+        BitmapFactory.decodeByteArray(value, 0, value.length, sizeOptions);
+        if (sizeOptions.outWidth <= 0 || sizeOptions.outHeight <= 0) {
+            return null;
+        }
+
+        // Calculate factor to down scale image while decoding
+        int scale = 1;
+        while (sizeOptions.outWidth / scale / 2 >= maxSize && sizeOptions.outHeight / scale / 2 >= maxSize) {
+            scale *= 2;
+        }
+
+        BitmapFactory.Options resultOptions = new BitmapFactory.Options();
+        resultOptions.inSampleSize = scale;
+        Bitmap bitmap = BitmapFactory.decodeByteArray(value, 0, value.length, resultOptions);
+        if (bitmap == null) {
+            return null;
+        }
+
+        int max = Math.max(bitmap.getWidth(), bitmap.getHeight());
+        if (max > maxSize) {
+            Bitmap scaled = Bitmap.createScaledBitmap(bitmap,
+                    Math.max(1, bitmap.getWidth() * maxSize / max),
+                    Math.max(1, bitmap.getHeight() * maxSize / max), true);
+            if (scaled != bitmap) {
+                bitmap.recycle();
+            }
+            bitmap = scaled;
+        }
+
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        if (bitmap.compress(Bitmap.CompressFormat.PNG, 100, outputStream)) {
+            writeFile(getThumbnailFile(hash, size), outputStream.toByteArray());
+        }
+        return bitmap;
+    }
+
+    /**
+     * Writes through temporary file, so partially written file is never read.
+     *
+     * @return whether file was written.
+     */
+    private boolean writeFile(File file, byte[] value) {
+        File temporary = new File(file.getPath() + ".tmp." + Thread.currentThread().getId());
+        OutputStream outputStream = null;
         try {
-            FileOutputStream outputStream = new FileOutputStream(getFile(hash));
+            outputStream = new FileOutputStream(temporary);
             outputStream.write(value);
             outputStream.close();
+            outputStream = null;
+            if (temporary.renameTo(file)) {
+                return true;
+            }
+            LogManager.w(this, "Can't rename " + temporary);
+        } catch (IOException e) {
+            LogManager.exception(this, e);
+        } finally {
+            close(outputStream);
+        }
+        temporary.delete();
+        return false;
+    }
+
+    private void close(Closeable closeable) {
+        if (closeable == null) {
+            return;
+        }
+        try {
+            closeable.close();
         } catch (IOException e) {
             LogManager.exception(this, e);
         }
@@ -0,0 +1,8 @@
+package com.xabber.android.data.extension.avatar;
+
+/**
+ * Posted when queued avatar thumbnails were decoded, so that views showing
+ * default avatars instead of them can be rebound.
+ */
+public class AvatarsDecodedEvent {
+}
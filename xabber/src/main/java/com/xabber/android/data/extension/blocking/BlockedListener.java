@@ -20,6 +20,8 @@ class BlockedListener implements JidsBlockedListener {
 
     @Override
     public void onJidsBlocked(List<Jid> blockedJids) {
+        BlockingManager.getInstance().onJidsBlocked(account, blockedJids);
+
         for (Jid jid : blockedJids) {
             try {
                 BlockingManager.blockContactLocally(account, UserJid.from(jid));
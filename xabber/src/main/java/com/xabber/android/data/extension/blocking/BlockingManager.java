@@ -21,8 +21,13 @@ import org.jivesoftware.smackx.blocking.BlockingCommandManager;
 import org.jxmpp.jid.Jid;
 
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 
 public class BlockingManager {
@@ -33,6 +38,19 @@ public class BlockingManager {
     @SuppressWarnings("WeakerAccess")
     Map<AccountJid, Boolean> supportForAccounts;
 
+    /**
+     * Block list for each account. Sets are never modified, new set is put
+     * on each change.
+     */
+    private final Map<AccountJid, Set<UserJid>> blockedContacts;
+
+    /**
+     * Number of pushes applied to block list of each account, so that
+     * requested block list does not override pushes received meanwhile.
+     * Guarded by {@link #blockedContacts}.
+     */
+    private final Map<AccountJid, Integer> blockListVersions;
+
     @SuppressWarnings("WeakerAccess")
     Map<AccountJid, BlockedListener> blockedListeners;
     @SuppressWarnings("WeakerAccess")
@@ -50,6 +68,8 @@ public class BlockingManager {
 
     private BlockingManager() {
         supportForAccounts = new ConcurrentHashMap<>();
+        blockedContacts = new ConcurrentHashMap<>();
+        blockListVersions = new HashMap<>();
 
         blockedListeners = new ConcurrentHashMap<>();
         unblockedListeners = new ConcurrentHashMap<>();
@@ -63,18 +83,26 @@ public class BlockingManager {
 
         BlockingCommandManager blockingCommandManager = BlockingCommandManager.getInstanceFor(connection.getConnection());
 
+        // listen before request, so that pushes received meanwhile are not lost
+        addBlockedListener(blockingCommandManager, account);
+        addUnblockedListener(blockingCommandManager, account);
+        addUnblockedAllListener(blockingCommandManager, account);
+
         try {
             boolean supportedByServer = blockingCommandManager.isSupportedByServer();
 
             if (supportedByServer) {
-                // cache block list inside
-                blockingCommandManager.getBlockList();
+                // the only request of block list, then it is updated by pushes.
+                // Smack caches block list and applies pushes to it too,
+                // so it is taken again if pushes were received meanwhile.
+                int version;
+                List<Jid> blockList;
+                do {
+                    version = getBlockListVersion(account);
+                    blockList = blockingCommandManager.getBlockList();
+                } while (!setBlockedContacts(account, blockList, version));
             }
 
-            addBlockedListener(blockingCommandManager, account);
-            addUnblockedListener(blockingCommandManager, account);
-            addUnblockedAllListener(blockingCommandManager, account);
-
             // block list already cached successfully
             supportForAccounts.put(account, supportedByServer);
 
@@ -154,27 +182,101 @@ public class BlockingManager {
         return supportForAccounts.get(account);
     }
 
-    public List<UserJid> getBlockedContacts(AccountJid account) {
-        List<UserJid> blockedContacts = new ArrayList<>();
-
+    /**
+     * @return cached block list. Never performs network requests.
+     */
+    public Collection<UserJid> getBlockedContacts(AccountJid account) {
         Boolean supported = isSupported(account);
+        Set<UserJid> blocked = blockedContacts.get(account);
+        if (supported == null || !supported || blocked == null) {
+            return Collections.emptySet();
+        }
+        return blocked;
+    }
 
-        BlockingCommandManager blockingCommandManager = getBlockingCommandManager(account);
+    /**
+     * @return whether contact is in cached block list.
+     */
+    public boolean isBlocked(AccountJid account, UserJid user) {
+        return getBlockedContacts(account).contains(user);
+    }
 
-        if (blockingCommandManager != null && supported != null && supported) {
-            try {
-                List<Jid> blockedJids = blockingCommandManager.getBlockList();
-                for (Jid jid : blockedJids) {
-                    blockedContacts.add(UserJid.from(jid));
-                }
+    private int getBlockListVersion(AccountJid account) {
+        synchronized (blockedContacts) {
+            Integer version = blockListVersions.get(account);
+            return version == null ? 0 : version;
+        }
+    }
 
-            } catch (SmackException.NoResponseException | XMPPException.XMPPErrorException
-                    | InterruptedException | SmackException.NotConnectedException | UserJid.UserJidCreateException e) {
-                LogManager.exception(LOG_TAG, e);
+    /**
+     * Must be called when block list is changed by push.
+     */
+    private void incrementBlockListVersion(AccountJid account) {
+        blockListVersions.put(account, getBlockListVersion(account) + 1);
+    }
+
+    /**
+     * @param version of block list at the moment it was requested.
+     * @return whether block list was stored. It is not stored if pushes were
+     * received since it was requested.
+     */
+    private boolean setBlockedContacts(AccountJid account, Collection<Jid> jids, int version) {
+        Set<UserJid> blocked = Collections.unmodifiableSet(toUserJids(jids));
+        synchronized (blockedContacts) {
+            if (version != getBlockListVersion(account)) {
+                return false;
             }
+            blockedContacts.put(account, blocked);
+            return true;
+        }
+    }
+
+    @SuppressWarnings("WeakerAccess")
+    void onJidsBlocked(AccountJid account, List<Jid> jids) {
+        synchronized (blockedContacts) {
+            Set<UserJid> blocked = new HashSet<>(getCachedBlockedContacts(account));
+            blocked.addAll(toUserJids(jids));
+            blockedContacts.put(account, Collections.unmodifiableSet(blocked));
+            incrementBlockListVersion(account);
+        }
+    }
+
+    @SuppressWarnings("WeakerAccess")
+    void onJidsUnblocked(AccountJid account, List<Jid> jids) {
+        synchronized (blockedContacts) {
+            Set<UserJid> blocked = new HashSet<>(getCachedBlockedContacts(account));
+            blocked.removeAll(toUserJids(jids));
+            blockedContacts.put(account, Collections.unmodifiableSet(blocked));
+            incrementBlockListVersion(account);
         }
+    }
 
-        return blockedContacts;
+    @SuppressWarnings("WeakerAccess")
+    void onAllJidsUnblocked(AccountJid account) {
+        synchronized (blockedContacts) {
+            blockedContacts.put(account, Collections.<UserJid>emptySet());
+            incrementBlockListVersion(account);
+        }
+    }
+
+    private Set<UserJid> getCachedBlockedContacts(AccountJid account) {
+        Set<UserJid> blocked = blockedContacts.get(account);
+        if (blocked == null) {
+            return Collections.emptySet();
+        }
+        return blocked;
+    }
+
+    private static Set<UserJid> toUserJids(Collection<Jid> jids) {
+        Set<UserJid> userJids = new HashSet<>(jids.size());
+        for (Jid jid : jids) {
+            try {
+                userJids.add(UserJid.from(jid));
+            } catch (UserJid.UserJidCreateException e) {
+                LogManager.exception(LOG_TAG, e);
+            }
+        }
+        return userJids;
     }
 
     public interface BlockContactListener {
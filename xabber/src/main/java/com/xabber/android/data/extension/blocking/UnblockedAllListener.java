@@ -13,6 +13,7 @@ public class UnblockedAllListener implements AllJidsUnblockedListener {
 
     @Override
     public void onAllJidsUnblocked() {
+        BlockingManager.getInstance().onAllJidsUnblocked(account);
         BlockingManager.notify(account);
     }
 }
@@ -16,6 +16,7 @@ public class UnblockedListener implements JidsUnblockedListener {
 
     @Override
     public void onJidsUnblocked(List<Jid> unblockedJids) {
+        BlockingManager.getInstance().onJidsUnblocked(account, unblockedJids);
         BlockingManager.notify(account);
     }
 }
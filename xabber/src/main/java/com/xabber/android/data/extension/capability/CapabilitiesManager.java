@@ -32,13 +32,18 @@ import org.jivesoftware.smack.SmackException;
 import org.jivesoftware.smack.XMPPException;
 import org.jivesoftware.smack.packet.Presence;
 import org.jivesoftware.smackx.caps.EntityCapsManager;
+import org.jivesoftware.smackx.caps.packet.CapsExtension;
 import org.jivesoftware.smackx.disco.ServiceDiscoveryManager;
 import org.jivesoftware.smackx.disco.packet.DiscoverInfo;
 import org.jxmpp.jid.Jid;
 
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Provide information about entity capabilities.
@@ -50,6 +55,11 @@ public class CapabilitiesManager {
     @SuppressWarnings("WeakerAccess")
     static final String LOG_TAG = CapabilitiesManager.class.getSimpleName();
 
+    /**
+     * Time during which discovery is not repeated after failure.
+     */
+    private static final long FAILURE_EXPIRATION_MILLIS = TimeUnit.MINUTES.toMillis(5);
+
     private static CapabilitiesManager instance;
 
     // cache for jids does not supporting Entity Caps
@@ -57,6 +67,19 @@ public class CapabilitiesManager {
     Map<Jid, DiscoverInfo> discoverInfoCache;
     private Map<Jid, ClientInfo> clientInfoCache;
 
+    /**
+     * Entities waiting for running discovery, by discovery key. Guarded by itself.
+     *
+     * @see #getDiscoveryKey(AccountJid, Presence)
+     */
+    private final Map<String, Collection<Jid>> discoveries;
+
+    /**
+     * Time of last discovery failed by server by discovery key. Expired
+     * entries are removed when new failure is stored.
+     */
+    private final Map<String, Long> failedDiscoveries;
+
     public static CapabilitiesManager getInstance() {
         if (instance == null) {
             instance = new CapabilitiesManager();
@@ -75,6 +98,8 @@ public class CapabilitiesManager {
 
         discoverInfoCache = new ConcurrentHashMap<>();
         clientInfoCache = new ConcurrentHashMap<>();
+        discoveries = new HashMap<>();
+        failedDiscoveries = new ConcurrentHashMap<>();
     }
 
     private void setServiceDiscoveryClientIdentity(Context applicationContext) {
@@ -121,34 +146,147 @@ public class CapabilitiesManager {
             return;
         }
 
+        final String key = getDiscoveryKey(accountJid, presence);
+        if (isFailedRecently(key)) {
+            clientInfoCache.put(from, ClientInfo.INVALID_CLIENT_INFO);
+            return;
+        }
+
+        synchronized (discoveries) {
+            Collection<Jid> waiting = discoveries.get(key);
+            if (waiting != null) {
+                if (!waiting.contains(from)) {
+                    waiting.add(from);
+                }
+                return;
+            }
+            waiting = new ArrayList<>();
+            waiting.add(from);
+            discoveries.put(key, waiting);
+        }
+
         Application.getInstance().runInBackground(new Runnable() {
             @Override
             public void run() {
-                updateClientInfo(accountJid, from);
+                discover(accountJid, from, key);
             }
         });
     }
 
+    /**
+     * @return account with caps node and version if presence has them, so
+     * entities with the same capabilities are discovered once. Account with
+     * jid otherwise.
+     */
+    private static String getDiscoveryKey(AccountJid account, Presence presence) {
+        CapsExtension caps = presence.getExtension(CapsExtension.ELEMENT, CapsExtension.NAMESPACE);
+        if (caps == null) {
+            return account + "/" + presence.getFrom();
+        }
+        return account + "/" + caps.getNode() + "#" + caps.getVer();
+    }
+
+    private boolean isFailedRecently(String key) {
+        Long failed = failedDiscoveries.get(key);
+        if (failed == null) {
+            return false;
+        }
+        if (System.currentTimeMillis() - failed < FAILURE_EXPIRATION_MILLIS) {
+            return true;
+        }
+        failedDiscoveries.remove(key);
+        return false;
+    }
+
+    /**
+     * Discovers entity and applies result to all entities waiting for the
+     * same key.
+     */
+    @SuppressWarnings("WeakerAccess")
+    void discover(AccountJid account, Jid jid, String key) {
+        DiscoverInfo discoverInfo = null;
+        boolean failed = false;
+        boolean sent = false;
+        try {
+            discoverInfo = updateClientInfo(account, jid);
+            failed = discoverInfo == null;
+            sent = true;
+        } catch (SmackException.NotConnectedException | InterruptedException e) {
+            LogManager.exception(this, e);
+        } finally {
+            Collection<Jid> waiting;
+            synchronized (discoveries) {
+                waiting = discoveries.remove(key);
+            }
+
+            if (failed) {
+                onDiscoveryFailed(key);
+            }
+
+            // local failures are not cached, entities will be discovered
+            // on next presence
+            if (sent && waiting != null) {
+                for (Jid other : waiting) {
+                    if (other.equals(jid)) {
+                        continue;
+                    }
+                    if (failed) {
+                        clientInfoCache.put(other, ClientInfo.INVALID_CLIENT_INFO);
+                    } else {
+                        if (discoverInfo != null && EntityCapsManager.getDiscoverInfoByUser(other) == null) {
+                            discoverInfoCache.put(other, discoverInfo);
+                        }
+                        clientInfoCache.remove(other);
+                    }
+                    onClientInfoChanged(account, other);
+                }
+            }
+        }
+    }
+
+    private void onDiscoveryFailed(String key) {
+        long now = System.currentTimeMillis();
+        Iterator<Long> iterator = failedDiscoveries.values().iterator();
+        while (iterator.hasNext()) {
+            if (now - iterator.next() >= FAILURE_EXPIRATION_MILLIS) {
+                iterator.remove();
+            }
+        }
+        failedDiscoveries.put(key, now);
+    }
+
     public void requestClientInfoByUser(final AccountJid account, final Jid jid) {
         Application.getInstance().runInBackgroundUserRequest(new Runnable() {
             @Override
             public void run() {
-                updateClientInfo(account, jid);
+                try {
+                    updateClientInfo(account, jid);
+                } catch (SmackException.NotConnectedException | InterruptedException e) {
+                    LogManager.exception(CapabilitiesManager.this, e);
+                }
             }
         });
     }
 
+    /**
+     * @return discovered information or <code>null</code> if server has
+     * returned error or has not responded.
+     * @throws SmackException.NotConnectedException if account is not
+     *                                              connected or was removed.
+     */
+    @Nullable
     @SuppressWarnings("WeakerAccess")
-    void updateClientInfo(final AccountJid account, final Jid jid) {
+    DiscoverInfo updateClientInfo(final AccountJid account, final Jid jid)
+            throws SmackException.NotConnectedException, InterruptedException {
         DiscoverInfo discoverInfo = EntityCapsManager.getDiscoverInfoByUser(jid);
 
         if (discoverInfo != null) {
-            return;
+            return discoverInfo;
         }
 
         AccountItem accountItem = AccountManager.getInstance().getAccount(account);
         if (accountItem == null) {
-            return;
+            throw new SmackException.NotConnectedException();
         }
 
         try {
@@ -164,11 +302,16 @@ public class CapabilitiesManager {
                 clientInfoCache.put(jid, ClientInfo.fromDiscoveryInfo(discoverInfo));
             }
 
-        } catch (SmackException.NoResponseException | XMPPException.XMPPErrorException | InterruptedException | SmackException.NotConnectedException e) {
+        } catch (SmackException.NoResponseException | XMPPException.XMPPErrorException e) {
             LogManager.exception(this, e);
             clientInfoCache.put(jid, ClientInfo.INVALID_CLIENT_INFO);
         }
 
+        onClientInfoChanged(account, jid);
+        return discoverInfo;
+    }
+
+    private void onClientInfoChanged(AccountJid account, Jid jid) {
         RosterContact rosterContact = RosterManager.getInstance().getRosterContact(account, jid.asBareJid());
 
         if (rosterContact != null) {
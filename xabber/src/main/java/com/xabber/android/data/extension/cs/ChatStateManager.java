@@ -31,7 +31,7 @@ import com.xabber.android.data.connection.StanzaSender;
 import com.xabber.android.data.connection.listeners.OnDisconnectListener;
 import com.xabber.android.data.connection.listeners.OnPacketListener;
 import com.xabber.android.data.entity.AccountJid;
-import com.xabber.android.data.entity.NestedMap;
+import com.xabber.android.data.entity.AccountNestedMap;
 import com.xabber.android.data.entity.NestedNestedMaps;
 import com.xabber.android.data.entity.UserJid;
 import com.xabber.android.data.extension.muc.RoomChat;
@@ -110,12 +110,12 @@ public class ChatStateManager implements OnDisconnectListener,
     /**
      * Sent chat state notifications for bareAddress in account.
      */
-    private final NestedMap<ChatState> sent;
+    private final AccountNestedMap<UserJid, ChatState> sent;
 
     /**
      * Scheduled pause intents for bareAddress in account.
      */
-    private final NestedMap<PendingIntent> pauseIntents;
+    private final AccountNestedMap<UserJid, PendingIntent> pauseIntents;
 
     /**
      * Alarm manager.
@@ -131,8 +131,8 @@ public class ChatStateManager implements OnDisconnectListener,
         chatStates = new NestedNestedMaps<>();
         stateCleaners = new NestedNestedMaps<>();
         supports = new NestedNestedMaps<>();
-        sent = new NestedMap<>();
-        pauseIntents = new NestedMap<>();
+        sent = new AccountNestedMap<>();
+        pauseIntents = new AccountNestedMap<>();
         alarmManager = (AlarmManager) Application.getInstance()
                 .getSystemService(Context.ALARM_SERVICE);
         handler = new Handler();
@@ -191,7 +191,7 @@ public class ChatStateManager implements OnDisconnectListener,
             return;
         }
         message.addExtension(new ChatStateExtension(ChatState.active));
-        sent.put(chat.getAccount().toString(), chat.getUser().toString(), ChatState.active);
+        sent.put(chat.getAccount(), chat.getUser(), ChatState.active);
         cancelPauseIntent(chat.getAccount(), chat.getUser());
     }
 
@@ -201,14 +201,14 @@ public class ChatStateManager implements OnDisconnectListener,
     private void updateChatState(AccountJid account, UserJid user,
                                  ChatState chatState) {
         if (!SettingsManager.chatsStateNotification()
-                || sent.get(account.toString(), user.toString()) == chatState) {
+                || sent.get(account, user) == chatState) {
             return;
         }
         AbstractChat chat = MessageManager.getInstance().getChat(account, user);
         if (chat == null || !isSupported(chat, false)) {
             return;
         }
-        sent.put(chat.getAccount().toString(), chat.getUser().toString(), chatState);
+        sent.put(chat.getAccount(), chat.getUser(), chatState);
         Message message = new Message();
         message.setType(chat.getType());
         message.setTo(chat.getTo());
@@ -224,7 +224,7 @@ public class ChatStateManager implements OnDisconnectListener,
      * Cancel pause intent from the schedule.
      */
     private void cancelPauseIntent(AccountJid account, UserJid user) {
-        PendingIntent pendingIntent = pauseIntents.remove(account.toString(), user.toString());
+        PendingIntent pendingIntent = pauseIntents.remove(account, user);
         if (pendingIntent != null)
             alarmManager.cancel(pendingIntent);
     }
@@ -249,18 +249,18 @@ public class ChatStateManager implements OnDisconnectListener,
         calendar.add(Calendar.MILLISECOND, PAUSE_TIMEOUT);
         alarmManager.set(AlarmManager.RTC_WAKEUP, calendar.getTimeInMillis(),
                 pendingIntent);
-        pauseIntents.put(account.toString(), user.toString(), pendingIntent);
+        pauseIntents.put(account, user, pendingIntent);
     }
 
     public void onPaused(AccountJid account, UserJid user) {
         if (account == null || user == null)
             return;
-        if (sent.get(account.toString(), user.toString()) != ChatState.composing) {
+        if (sent.get(account, user) != ChatState.composing) {
             return;
         }
 
         updateChatState(account, user, ChatState.paused);
-        pauseIntents.remove(account.toString(), user.toString());
+        pauseIntents.remove(account, user);
     }
 
     @Override
@@ -276,11 +276,11 @@ public class ChatStateManager implements OnDisconnectListener,
         }
         stateCleaners.clear(account.toString());
         supports.clear(account.toString());
-        sent.clear(account.toString());
-        for (PendingIntent pendingIntent : pauseIntents.getNested(account.toString()).values()) {
+        sent.clear(account);
+        for (PendingIntent pendingIntent : pauseIntents.getNested(account).values()) {
             alarmManager.cancel(pendingIntent);
         }
-        pauseIntents.clear(account.toString());
+        pauseIntents.clear(account);
     }
 
     private void removeCallback(AccountJid account, BareJid bareAddress, Resourcepart resource) {
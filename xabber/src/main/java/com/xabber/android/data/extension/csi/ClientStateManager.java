@@ -3,6 +3,7 @@ package com.xabber.android.data.extension.csi;
 import com.xabber.android.data.log.LogManager;
 import com.xabber.android.data.account.AccountItem;
 import com.xabber.android.data.account.AccountManager;
+import com.xabber.android.data.connection.ConnectionItem;
 import com.xabber.android.data.entity.AccountJid;
 
 import org.jivesoftware.smack.AbstractXMPPConnection;
@@ -18,18 +19,37 @@ public class ClientStateManager {
 
     private static final String LOG_TAG = ClientStateManager.class.getSimpleName();
 
+    /**
+     * Last state indicated to server(s).
+     */
+    private static volatile boolean active = true;
+
     private ClientStateManager() {
     }
 
 
     public static void setInactive() {
+        active = false;
+        DeferredStanzaManager.getInstance().onInactive();
         sendClientState(ClientStateIndication.Inactive.INSTANCE);
     }
 
     public static void setActive() {
+        active = true;
+        DeferredStanzaManager.getInstance().onActive();
         sendClientState(ClientStateIndication.Active.INSTANCE);
     }
 
+    /**
+     * Server assumes that new session is active, so indicate state only if
+     * it was changed to inactive.
+     */
+    public static void onAuthorized(ConnectionItem connectionItem) {
+        if (!active) {
+            sendClientState(connectionItem.getConnection(), ClientStateIndication.Inactive.INSTANCE);
+        }
+    }
+
     protected static void sendClientState(Nonza nonza) {
         AccountManager accountManager = AccountManager.getInstance();
         for (AccountJid accountName : accountManager.getEnabledAccounts()) {
@@ -38,18 +58,21 @@ public class ClientStateManager {
                 continue;
             }
 
-            AbstractXMPPConnection xmppConnection = accountItem.getConnection();
-            if (!xmppConnection.isAuthenticated()) {
-                continue;
-            }
+            sendClientState(accountItem.getConnection(), nonza);
+        }
+    }
 
-            if (xmppConnection.hasFeature("csi", ClientStateIndication.NAMESPACE))
-                try {
-                    xmppConnection.sendNonza(nonza);
-                } catch (SmackException.NotConnectedException | InterruptedException e) {
-                    LogManager.exception(LOG_TAG, e);
-                }
+    private static void sendClientState(AbstractXMPPConnection xmppConnection, Nonza nonza) {
+        if (!xmppConnection.isAuthenticated()) {
+            return;
         }
+
+        if (xmppConnection.hasFeature("csi", ClientStateIndication.NAMESPACE))
+            try {
+                xmppConnection.sendNonza(nonza);
+            } catch (SmackException.NotConnectedException | InterruptedException e) {
+                LogManager.exception(LOG_TAG, e);
+            }
     }
 
 }
@@ -0,0 +1,264 @@
+package com.xabber.android.data.extension.csi;
+
+import com.xabber.android.data.Application;
+import com.xabber.android.data.connection.ConnectionItem;
+import com.xabber.android.data.connection.listeners.OnPacketListener;
+import com.xabber.android.data.entity.AccountJid;
+import com.xabber.android.data.log.LogManager;
+import com.xabber.android.data.roster.PresenceManager;
+
+import org.jivesoftware.smack.packet.ExtensionElement;
+import org.jivesoftware.smack.packet.Message;
+import org.jivesoftware.smack.packet.Presence;
+import org.jivesoftware.smack.packet.Stanza;
+import org.jivesoftware.smackx.chatstates.packet.ChatStateExtension;
+import org.jivesoftware.smackx.muc.packet.MUCUser;
+import org.jxmpp.jid.Jid;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Defers local processing of presences and chat states while client is
+ * inactive.
+ * <p/>
+ * Only the last stanza of each kind from each full jid is kept, so number
+ * of deferred stanzas is bounded by number of contacts. Deferred stanzas are
+ * processed in order of arrival when client becomes active, before any
+ * newer stanza. Messages, subscription requests,
+ * errors and room status presences are never deferred.
+ *
+ * @see ClientStateManager
+ */
+public class DeferredStanzaManager {
+
+    private static final String LOG_TAG = DeferredStanzaManager.class.getSimpleName();
+
+    /**
+     * Chat states deferred for longer time are not actual anymore.
+     */
+    private static final long CHAT_STATE_EXPIRATION_MILLIS = TimeUnit.MINUTES.toMillis(1);
+
+    private static final DeferredStanzaManager instance;
+
+    static {
+        instance = new DeferredStanzaManager();
+    }
+
+    public static DeferredStanzaManager getInstance() {
+        return instance;
+    }
+
+    /**
+     * Deferred stanzas to be passed to {@link OnPacketListener}s and roster
+     * presence changes to be passed to {@link PresenceManager}, in order of
+     * arrival. Guarded by this.
+     */
+    private final Map<String, DeferredStanza> deferredStanzas;
+
+    /**
+     * Whether client is active. Guarded by this.
+     */
+    private boolean active;
+
+    /**
+     * Whether deferred stanzas are being processed after client became
+     * active. New stanzas are deferred until all previous ones are
+     * processed. Guarded by this.
+     */
+    private boolean replaying;
+
+    private DeferredStanzaManager() {
+        deferredStanzas = new LinkedHashMap<>();
+        active = true;
+    }
+
+    /**
+     * @return whether stanza was deferred and must not be processed now.
+     */
+    public synchronized boolean deferStanza(ConnectionItem connection, Stanza stanza) {
+        if (!isDeferring() || stanza.getFrom() == null) {
+            return false;
+        }
+
+        String kind;
+        if (isDeferrablePresence(stanza)) {
+            kind = "presence";
+        } else if (isChatStateOnly(stanza)) {
+            kind = "chatState";
+        } else {
+            return false;
+        }
+
+        put(getKey(connection.getAccount(), stanza.getFrom(), kind),
+                new DeferredStanza(connection.getAccount(), connection, stanza));
+        return true;
+    }
+
+    /**
+     * @return whether presence change was deferred and must not be processed now.
+     */
+    public synchronized boolean deferPresenceChange(AccountJid account, Presence presence) {
+        if (!isDeferring() || !isDeferrablePresence(presence)) {
+            return false;
+        }
+
+        put(getKey(account, presence.getFrom(), "presenceChange"),
+                new DeferredStanza(account, null, presence));
+        return true;
+    }
+
+    private boolean isDeferring() {
+        return !active || replaying;
+    }
+
+    private void put(String key, DeferredStanza deferredStanza) {
+        // move to the end to keep order of last stanzas
+        deferredStanzas.remove(key);
+        deferredStanzas.put(key, deferredStanza);
+    }
+
+    /**
+     * Called before client state is indicated as inactive.
+     */
+    synchronized void onInactive() {
+        active = false;
+    }
+
+    /**
+     * Process all deferred stanzas in order of arrival. Called after client
+     * became active.
+     */
+    synchronized void onActive() {
+        active = true;
+        if (replaying || deferredStanzas.isEmpty()) {
+            return;
+        }
+
+        replaying = true;
+        Application.getInstance().runInBackground(new Runnable() {
+            @Override
+            public void run() {
+                replay();
+            }
+        });
+    }
+
+    /**
+     * Processes deferred stanzas including ones received while processing.
+     * Stops if client became inactive again.
+     */
+    private void replay() {
+        while (true) {
+            Collection<DeferredStanza> batch;
+            synchronized (this) {
+                if (!active || deferredStanzas.isEmpty()) {
+                    replaying = false;
+                    return;
+                }
+                batch = new ArrayList<>(deferredStanzas.values());
+                deferredStanzas.clear();
+            }
+
+            LogManager.i(LOG_TAG, "Processing " + batch.size() + " deferred stanzas");
+            try {
+                process(batch);
+            } catch (Exception e) {
+                LogManager.exception(LOG_TAG, e);
+            }
+        }
+    }
+
+    /**
+     * Passes presence changes to {@link PresenceManager} in this thread and
+     * stanzas to {@link OnPacketListener}s in UI thread, as live ones are.
+     * Following live stanzas are posted to UI thread after these.
+     */
+    private void process(Collection<DeferredStanza> batch) {
+        long expired = System.currentTimeMillis() - CHAT_STATE_EXPIRATION_MILLIS;
+        List<DeferredStanza> stanzas = new ArrayList<>();
+        for (DeferredStanza deferred : batch) {
+            if (deferred.connection == null) {
+                postStanzas(stanzas);
+                stanzas = new ArrayList<>();
+                PresenceManager.getInstance().onPresenceChanged(deferred.account, (Presence) deferred.stanza);
+            } else if (!(deferred.stanza instanceof Message) || deferred.timestamp >= expired) {
+                stanzas.add(deferred);
+            }
+        }
+        postStanzas(stanzas);
+    }
+
+    private static void postStanzas(final List<DeferredStanza> stanzas) {
+        if (stanzas.isEmpty()) {
+            return;
+        }
+
+        Application.getInstance().runOnUiThread(new Runnable() {
+            @Override
+            public void run() {
+                for (DeferredStanza deferred : stanzas) {
+                    for (OnPacketListener listener : Application.getInstance().getManagers(OnPacketListener.class)) {
+                        listener.onStanza(deferred.connection, deferred.stanza);
+                    }
+                }
+            }
+        });
+    }
+
+    private static String getKey(AccountJid account, Jid from, String kind) {
+        return account + "/" + from + "/" + kind;
+    }
+
+    private static boolean isDeferrablePresence(Stanza stanza) {
+        if (!(stanza instanceof Presence)) {
+            return false;
+        }
+
+        Presence.Type type = ((Presence) stanza).getType();
+        if (type != Presence.Type.available && type != Presence.Type.unavailable) {
+            return false;
+        }
+
+        // room presences with status codes change state of room itself
+        MUCUser mucUser = MUCUser.from(stanza);
+        return mucUser == null || mucUser.getStatus().isEmpty();
+    }
+
+    private static boolean isChatStateOnly(Stanza stanza) {
+        if (!(stanza instanceof Message)) {
+            return false;
+        }
+
+        Message message = (Message) stanza;
+        if (message.getType() == Message.Type.error || message.getBody() != null
+                || message.getSubject() != null || message.getExtensions().isEmpty()) {
+            return false;
+        }
+
+        for (ExtensionElement extension : message.getExtensions()) {
+            if (!(extension instanceof ChatStateExtension)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static class DeferredStanza {
+        final AccountJid account;
+        final ConnectionItem connection;
+        final Stanza stanza;
+        final long timestamp;
+
+        DeferredStanza(AccountJid account, ConnectionItem connection, Stanza stanza) {
+            this.account = account;
+            this.connection = connection;
+            this.stanza = stanza;
+            this.timestamp = System.currentTimeMillis();
+        }
+    }
+}
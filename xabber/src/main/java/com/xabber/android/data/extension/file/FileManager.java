@@ -1,19 +1,20 @@
 package com.xabber.android.data.extension.file;
 
-import android.content.Context;
 import android.content.res.Resources;
+import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
+import android.graphics.Matrix;
 import android.media.ExifInterface;
 import android.net.Uri;
+import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 import android.support.v4.content.FileProvider;
 import android.view.ViewGroup;
-import android.widget.ImageView;
 
-import com.bumptech.glide.Glide;
 import com.xabber.android.BuildConfig;
 import com.xabber.android.R;
 import com.xabber.android.data.Application;
+import com.xabber.android.data.SettingsManager;
 import com.xabber.android.data.database.messagerealm.MessageItem;
 import com.xabber.android.data.log.LogManager;
 
@@ -23,6 +24,7 @@ import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.util.Arrays;
@@ -33,6 +35,13 @@ public class FileManager {
 
     private static final String[] VALID_IMAGE_EXTENSIONS = {"webp", "jpeg", "jpg", "png", "jpe", "gif"};
 
+    private static final String[] JPEG_EXTENSIONS = {"jpeg", "jpg", "jpe"};
+
+    /**
+     * Directory in internal storage for images prepared for upload.
+     */
+    private static final String UPLOAD_DIRECTORY = "upload";
+
     private final static FileManager instance;
 
     private static int maxImageSize;
@@ -64,29 +73,7 @@ public class FileManager {
         return Arrays.asList(VALID_IMAGE_EXTENSIONS).contains(extension);
     }
 
-    public static boolean loadImageFromFile(Context context, String path, ImageView imageView) {
-        BitmapFactory.Options options = new BitmapFactory.Options();
-        options.inJustDecodeBounds = true;
-
-        // Returns null, sizes are in the options variable
-        BitmapFactory.decodeFile(path, options);
-
-        ViewGroup.LayoutParams layoutParams = imageView.getLayoutParams();
-        scaleImage(layoutParams, options.outHeight, options.outWidth);
-
-        if (options.outHeight == 0 || options.outWidth == 0) {
-            return false;
-        }
-
-        imageView.setLayoutParams(layoutParams);
-        Glide.with(context)
-                .load(path)
-                .into(imageView);
-
-        return true;
-    }
-
-    private static boolean isImageUrl(String text) {
+    static boolean isImageUrl(String text) {
         if (text == null) {
             return false;
         }
@@ -199,31 +186,171 @@ public class FileManager {
             return false;
         }
 
+        switch (getExifOrientation(srcPath)) {
+            case ExifInterface.ORIENTATION_FLIP_HORIZONTAL:
+            case ExifInterface.ORIENTATION_ROTATE_180:
+            case ExifInterface.ORIENTATION_FLIP_VERTICAL:
+            case ExifInterface.ORIENTATION_TRANSPOSE:
+            case ExifInterface.ORIENTATION_ROTATE_90:
+            case ExifInterface.ORIENTATION_TRANSVERSE:
+            case ExifInterface.ORIENTATION_ROTATE_270:
+                return true;
+
+            case ExifInterface.ORIENTATION_NORMAL:
+            case ExifInterface.ORIENTATION_UNDEFINED:
+            default:
+                return false;
+        }
+    }
+
+    static int getExifOrientation(String path) {
         ExifInterface exif;
         try {
-            exif = new ExifInterface(srcPath);
+            exif = new ExifInterface(path);
         } catch (IOException e) {
             LogManager.exception(LOG_TAG, e);
-            return false;
+            return ExifInterface.ORIENTATION_UNDEFINED;
         }
 
-        int orientation = exif.getAttributeInt(ExifInterface.TAG_ORIENTATION, ExifInterface.ORIENTATION_NORMAL);
+        return exif.getAttributeInt(ExifInterface.TAG_ORIENTATION, ExifInterface.ORIENTATION_NORMAL);
+    }
 
+    /**
+     * @return transformation to be applied to decoded image to show it as
+     * described by EXIF orientation.
+     */
+    static Matrix getOrientationMatrix(int orientation) {
+        Matrix matrix = new Matrix();
         switch (orientation) {
             case ExifInterface.ORIENTATION_FLIP_HORIZONTAL:
+                matrix.setScale(-1, 1);
+                break;
             case ExifInterface.ORIENTATION_ROTATE_180:
+                matrix.setRotate(180);
+                break;
             case ExifInterface.ORIENTATION_FLIP_VERTICAL:
+                matrix.setScale(1, -1);
+                break;
             case ExifInterface.ORIENTATION_TRANSPOSE:
+                matrix.setRotate(90);
+                matrix.postScale(-1, 1);
+                break;
             case ExifInterface.ORIENTATION_ROTATE_90:
+                matrix.setRotate(90);
+                break;
             case ExifInterface.ORIENTATION_TRANSVERSE:
+                matrix.setRotate(-90);
+                matrix.postScale(-1, 1);
+                break;
             case ExifInterface.ORIENTATION_ROTATE_270:
-                return true;
+                matrix.setRotate(-90);
+                break;
+        }
+        return matrix;
+    }
 
-            case ExifInterface.ORIENTATION_NORMAL:
-            case ExifInterface.ORIENTATION_UNDEFINED:
-            default:
-                return false;
+    /**
+     * Downscales and recompresses JPEG image according to chat settings.
+     * Orientation is applied to pixels, while EXIF data is not copied.
+     *
+     * @return new file in {@link #getUploadDirectory()} or source file if
+     * it is not a JPEG image, is small enough or could not be transformed.
+     */
+    @NonNull
+    public static File prepareImageForUpload(File file) {
+        SettingsManager.ChatsImageQuality imageQuality = SettingsManager.chatsImageQuality();
+        int maxSize = imageQuality.getMaxSize();
+        if (maxSize == 0 || !Arrays.asList(JPEG_EXTENSIONS).contains(extractRelevantExtension(file.getPath()))) {
+            return file;
+        }
+
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeFile(file.getPath(), options);
+        int width = options.outWidth;
+        int height = options.outHeight;
+        if (width <= 0 || height <= 0 || (width <= maxSize && height <= maxSize)) {
+            return file;
+        }
+
+        options = new BitmapFactory.Options();
+        options.inSampleSize = 1;
+        while (Math.max(width, height) / (options.inSampleSize * 2) >= maxSize) {
+            options.inSampleSize *= 2;
+        }
+
+        File result = null;
+        Bitmap sampled = null;
+        Bitmap scaled = null;
+        OutputStream outputStream = null;
+        try {
+            sampled = BitmapFactory.decodeFile(file.getPath(), options);
+            if (sampled == null) {
+                return file;
+            }
+
+            Matrix matrix = getOrientationMatrix(getExifOrientation(file.getPath()));
+            float scale = Math.min(1f, (float) maxSize / Math.max(sampled.getWidth(), sampled.getHeight()));
+            matrix.preScale(scale, scale);
+            scaled = Bitmap.createBitmap(sampled, 0, 0, sampled.getWidth(), sampled.getHeight(), matrix, true);
+
+            File directory = getUploadDirectory();
+            if (!directory.isDirectory() && !directory.mkdirs()) {
+                return file;
+            }
+            String name = file.getName();
+            String prefix = name.substring(0, name.lastIndexOf('.')) + "_";
+            if (prefix.length() < 3) {
+                // required by createTempFile
+                prefix = "img" + prefix;
+            }
+            result = File.createTempFile(prefix, ".jpg", directory);
+            outputStream = new BufferedOutputStream(new FileOutputStream(result));
+            if (!scaled.compress(Bitmap.CompressFormat.JPEG, imageQuality.getQuality(), outputStream)) {
+                throw new IOException("Could not compress " + file.getPath());
+            }
+            outputStream.close();
+            outputStream = null;
+        } catch (IOException | OutOfMemoryError e) {
+            LogManager.exception(LOG_TAG, e);
+            if (result != null) {
+                result.delete();
+            }
+            return file;
+        } finally {
+            if (outputStream != null) {
+                try {
+                    outputStream.close();
+                } catch (IOException e) {
+                    LogManager.exception(LOG_TAG, e);
+                }
+            }
+            if (scaled != null && scaled != sampled) {
+                scaled.recycle();
+            }
+            if (sampled != null) {
+                sampled.recycle();
+            }
+        }
+
+        if (result.length() >= file.length()) {
+            result.delete();
+            return file;
         }
+
+        LogManager.i(LOG_TAG, "Image " + file.getPath() + " " + width + "x" + height + " " + file.length()
+                + " bytes was prepared for upload as " + result.length() + " bytes");
+        return result;
+    }
+
+    /**
+     * Prepared image is the only copy uploaded by queued or resumed messages,
+     * so it is kept in files directory which is not purged by the system.
+     *
+     * @return directory with images prepared for upload.
+     */
+    public static File getUploadDirectory() {
+        return new File(Application.getInstance().getFilesDir(), UPLOAD_DIRECTORY);
     }
 
     @Nullable
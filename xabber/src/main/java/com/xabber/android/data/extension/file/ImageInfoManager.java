@@ -0,0 +1,270 @@
+package com.xabber.android.data.extension.file;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Matrix;
+import android.media.ExifInterface;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import com.bumptech.glide.Glide;
+import com.bumptech.glide.request.target.Target;
+import com.xabber.android.data.Application;
+import com.xabber.android.data.SettingsManager;
+import com.xabber.android.data.connection.NetworkManager;
+import com.xabber.android.data.database.MessageDatabaseManager;
+import com.xabber.android.data.database.messagerealm.MessageItem;
+import com.xabber.android.data.log.LogManager;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import io.realm.Realm;
+
+/**
+ * Computes dimensions and thumbnails of message images in background and
+ * stores them with messages, so that chat does not decode images while
+ * binding.
+ * <p/>
+ * Local files are processed when file message is created, images from URL
+ * are downloaded to {@link MediaCacheManager} when message is created on
+ * not metered network or when it is shown. Failed downloads are retried when
+ * message is shown again.
+ */
+public class ImageInfoManager {
+
+    private static final String LOG_TAG = ImageInfoManager.class.getSimpleName();
+
+    private static final int THREADS = 2;
+
+    private static final int THUMBNAIL_SIZE = 48;
+
+    private static final int THUMBNAIL_QUALITY = 70;
+
+    private static final ImageInfoManager instance;
+
+    static {
+        instance = new ImageInfoManager();
+    }
+
+    public static ImageInfoManager getInstance() {
+        return instance;
+    }
+
+    private final ExecutorService executor;
+
+    /**
+     * Ids of messages queued or processed during this session, except ones
+     * failed to be downloaded.
+     */
+    private final Set<String> requested;
+
+    private ImageInfoManager() {
+        executor = Executors.newFixedThreadPool(THREADS, new ThreadFactory() {
+            @Override
+            public Thread newThread(@NonNull Runnable runnable) {
+                Thread thread = new Thread(runnable, "Image info loader");
+                thread.setPriority(Thread.MIN_PRIORITY);
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        requested = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    }
+
+    /**
+     * Sets dimensions and thumbnail of not yet saved message from local
+     * file. Decodes image, so must be called from background thread.
+     */
+    public static void setImageInfo(MessageItem messageItem, File file) {
+        ImageInfo imageInfo = decode(file);
+        if (imageInfo != null) {
+            messageItem.setImageWidth(imageInfo.width);
+            messageItem.setImageHeight(imageInfo.height);
+            messageItem.setImageThumbnail(imageInfo.thumbnail);
+        }
+    }
+
+    /**
+     * Queues computation of image info for new image message. Images
+     * from URL are not downloaded on metered network until message is shown.
+     */
+    public void onNewMessage(MessageItem messageItem) {
+        if (messageItem.getFilePath() == null && NetworkManager.getInstance().isNetworkMetered()) {
+            return;
+        }
+        request(messageItem);
+    }
+
+    /**
+     * Queues computation of image info for image message without
+     * dimensions. Each message is processed once per session unless
+     * download fails.
+     */
+    public void request(MessageItem messageItem) {
+        if (!messageItem.isImage() || messageItem.getImageWidth() != null
+                || !SettingsManager.connectionLoadImages()) {
+            return;
+        }
+
+        final String uniqueId = messageItem.getUniqueId();
+        final String filePath = messageItem.getFilePath();
+        final String url = messageItem.getText();
+        if (!requested.add(uniqueId)) {
+            return;
+        }
+
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                process(uniqueId, filePath, url);
+            }
+        });
+    }
+
+    private void process(String uniqueId, @Nullable String filePath, String url) {
+        ImageInfo imageInfo = null;
+        boolean fileIsMissing = false;
+
+        if (filePath != null) {
+            imageInfo = decode(new File(filePath));
+            fileIsMissing = imageInfo == null;
+        }
+
+        if (imageInfo == null && FileManager.isImageUrl(url)) {
+            File file = MediaCacheManager.getInstance().download(url);
+            try {
+                if (file == null) {
+                    // too large for media cache or network error
+                    file = Glide.with(Application.getInstance())
+                            .load(url)
+                            .downloadOnly(Target.SIZE_ORIGINAL, Target.SIZE_ORIGINAL)
+                            .get();
+                }
+            } catch (InterruptedException | ExecutionException e) {
+                // could succeed later, retry when message is shown again
+                LogManager.i(LOG_TAG, "Could not download " + url + ": " + e);
+                if (fileIsMissing) {
+                    save(uniqueId, null, true, true);
+                }
+                requested.remove(uniqueId);
+                return;
+            }
+            imageInfo = decode(file);
+        }
+
+        save(uniqueId, imageInfo, fileIsMissing, imageInfo != null);
+    }
+
+    private static void save(final String uniqueId, @Nullable final ImageInfo imageInfo,
+                             final boolean fileIsMissing, final boolean isImage) {
+        Realm realm = MessageDatabaseManager.getInstance().getNewBackgroundRealm();
+        realm.executeTransaction(new Realm.Transaction() {
+            @Override
+            public void execute(Realm realm) {
+                MessageItem messageItem = realm.where(MessageItem.class)
+                        .equalTo(MessageItem.Fields.UNIQUE_ID, uniqueId)
+                        .findFirst();
+                if (messageItem == null) {
+                    return;
+                }
+
+                if (fileIsMissing) {
+                    messageItem.setFilePath(null);
+                }
+                if (imageInfo != null) {
+                    messageItem.setImageWidth(imageInfo.width);
+                    messageItem.setImageHeight(imageInfo.height);
+                    messageItem.setImageThumbnail(imageInfo.thumbnail);
+                } else if (!isImage) {
+                    messageItem.setIsImage(false);
+                }
+            }
+        });
+        realm.close();
+    }
+
+    /**
+     * @return dimensions as image is shown with EXIF orientation applied
+     * and thumbnail, or <code>null</code> if file is not a decodable image.
+     */
+    @Nullable
+    private static ImageInfo decode(File file) {
+        String path = file.getPath();
+
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeFile(path, options);
+        if (options.outWidth <= 0 || options.outHeight <= 0) {
+            return null;
+        }
+
+        int orientation = FileManager.getExifOrientation(path);
+        boolean transposed = orientation == ExifInterface.ORIENTATION_TRANSPOSE
+                || orientation == ExifInterface.ORIENTATION_ROTATE_90
+                || orientation == ExifInterface.ORIENTATION_TRANSVERSE
+                || orientation == ExifInterface.ORIENTATION_ROTATE_270;
+        int width = transposed ? options.outHeight : options.outWidth;
+        int height = transposed ? options.outWidth : options.outHeight;
+
+        return new ImageInfo(width, height, createThumbnail(path, options, orientation));
+    }
+
+    @Nullable
+    private static byte[] createThumbnail(String path, BitmapFactory.Options bounds, int orientation) {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inSampleSize = 1;
+        while (Math.max(bounds.outWidth, bounds.outHeight) / (options.inSampleSize * 2) >= THUMBNAIL_SIZE) {
+            options.inSampleSize *= 2;
+        }
+
+        Bitmap sampled = null;
+        Bitmap scaled = null;
+        try {
+            sampled = BitmapFactory.decodeFile(path, options);
+            if (sampled == null) {
+                return null;
+            }
+
+            Matrix matrix = FileManager.getOrientationMatrix(orientation);
+            float scale = Math.min(1f, (float) THUMBNAIL_SIZE / Math.max(sampled.getWidth(), sampled.getHeight()));
+            matrix.preScale(scale, scale);
+            scaled = Bitmap.createBitmap(sampled, 0, 0, sampled.getWidth(), sampled.getHeight(), matrix, true);
+
+            ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+            scaled.compress(Bitmap.CompressFormat.JPEG, THUMBNAIL_QUALITY, outputStream);
+            return outputStream.toByteArray();
+        } catch (OutOfMemoryError e) {
+            LogManager.exception(LOG_TAG, e);
+            return null;
+        } finally {
+            if (scaled != null && scaled != sampled) {
+                scaled.recycle();
+            }
+            if (sampled != null) {
+                sampled.recycle();
+            }
+        }
+    }
+
+    private static class ImageInfo {
+        final int width;
+        final int height;
+        @Nullable
+        final byte[] thumbnail;
+
+        ImageInfo(int width, int height, @Nullable byte[] thumbnail) {
+            this.width = width;
+            this.height = height;
+            this.thumbnail = thumbnail;
+        }
+    }
+
+}
@@ -0,0 +1,407 @@
+package com.xabber.android.data.extension.file;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import com.xabber.android.data.Application;
+import com.xabber.android.data.OnClearListener;
+import com.xabber.android.data.OnLoadListener;
+import com.xabber.android.data.SettingsManager;
+import com.xabber.android.data.connection.CertificateManager;
+import com.xabber.android.data.connection.NetworkManager;
+import com.xabber.android.data.database.MessageDatabaseManager;
+import com.xabber.android.data.database.messagerealm.MessageItem;
+import com.xabber.android.data.entity.AccountJid;
+import com.xabber.android.data.entity.UserJid;
+import com.xabber.android.data.log.LogManager;
+
+import org.jivesoftware.smack.util.SHA1;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import io.realm.Realm;
+import io.realm.RealmResults;
+import io.realm.Sort;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import okio.Buffer;
+import okio.BufferedSink;
+import okio.BufferedSource;
+import okio.Okio;
+
+/**
+ * Disk cache of images received by URL.
+ * <p/>
+ * Files are named by hash of URL, so each URL is downloaded once even if
+ * it was sent in several messages, and concurrent requests for the same
+ * URL share one download. Files larger than {@link #MAX_FILE_SIZE} are not
+ * cached, least recently used files are removed when total size exceeds
+ * {@link #MAX_CACHE_SIZE}.
+ * <p/>
+ * Images from last messages of opened chat are prefetched on not metered
+ * networks. Index is not checked against disk when file is requested, so
+ * file which failed to load should be reported by {@link #invalidate(String)}.
+ */
+public class MediaCacheManager implements OnLoadListener, OnClearListener {
+
+    private static final String LOG_TAG = MediaCacheManager.class.getSimpleName();
+
+    private static final String DIRECTORY = "media";
+
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    private static final long MAX_CACHE_SIZE = 100 * 1024 * 1024;
+
+    private static final long MAX_FILE_SIZE = 10 * 1024 * 1024;
+
+    private static final int THREADS = 2;
+
+    /**
+     * Number of last messages in opened chat to look for images.
+     */
+    private static final int PREFETCH_MESSAGES = 30;
+
+    /**
+     * Minimal interval between updates of file modification time used to
+     * restore access order on load.
+     */
+    private static final long TOUCH_INTERVAL_MILLIS = TimeUnit.HOURS.toMillis(1);
+
+    private static final MediaCacheManager instance;
+
+    static {
+        instance = new MediaCacheManager();
+    }
+
+    public static MediaCacheManager getInstance() {
+        return instance;
+    }
+
+    private final File directory;
+
+    /**
+     * Cached files by name in access order. Guarded by this.
+     */
+    private final LinkedHashMap<String, Entry> entries;
+
+    /**
+     * Guarded by this.
+     */
+    private long size;
+
+    /**
+     * Running downloads by file name.
+     */
+    private final ConcurrentHashMap<String, FutureTask<File>> downloads;
+
+    private final ExecutorService executor;
+
+    private MediaCacheManager() {
+        directory = new File(Application.getInstance().getCacheDir(), DIRECTORY);
+        entries = new LinkedHashMap<>(16, 0.75f, true);
+        downloads = new ConcurrentHashMap<>();
+        executor = Executors.newFixedThreadPool(THREADS, new ThreadFactory() {
+            @Override
+            public Thread newThread(@NonNull Runnable runnable) {
+                Thread thread = new Thread(runnable, "Media cache");
+                thread.setPriority(Thread.MIN_PRIORITY);
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    @Override
+    public void onLoad() {
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return;
+        }
+
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File lhs, File rhs) {
+                long lhsModified = lhs.lastModified();
+                long rhsModified = rhs.lastModified();
+                return lhsModified < rhsModified ? -1 : (lhsModified == rhsModified ? 0 : 1);
+            }
+        });
+
+        synchronized (this) {
+            for (File file : files) {
+                if (file.getName().endsWith(TEMP_SUFFIX)) {
+                    // left by interrupted download
+                    file.delete();
+                    continue;
+                }
+                entries.put(file.getName(), new Entry(file.length(), file.lastModified()));
+                size += file.length();
+            }
+        }
+        trim();
+    }
+
+    @Override
+    public void onClear() {
+        synchronized (this) {
+            entries.clear();
+            size = 0;
+        }
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+    }
+
+    /**
+     * @return cached file or <code>null</code> if URL was not downloaded.
+     * Doesn't access disk, so can be called while binding views.
+     */
+    @Nullable
+    public File getCachedFile(String url) {
+        final String name = getName(url);
+        final long now = System.currentTimeMillis();
+        synchronized (this) {
+            Entry entry = entries.get(name);
+            if (entry == null) {
+                return null;
+            }
+            if (now - entry.accessed > TOUCH_INTERVAL_MILLIS) {
+                entry.accessed = now;
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        new File(directory, name).setLastModified(now);
+                    }
+                });
+            }
+        }
+        return new File(directory, name);
+    }
+
+    /**
+     * Downloads URL if it is not cached. Blocks until download is finished,
+     * must be called from background thread.
+     *
+     * @return cached file or <code>null</code> if it could not be downloaded
+     * or is too large.
+     */
+    @Nullable
+    public File download(final String url) {
+        final String name = getName(url);
+        File file = getCachedFile(url);
+        if (file != null) {
+            if (file.isFile()) {
+                return file;
+            }
+            remove(name);
+        }
+
+        FutureTask<File> task = new FutureTask<>(new Callable<File>() {
+            @Override
+            public File call() throws Exception {
+                return load(url, name);
+            }
+        });
+        FutureTask<File> running = downloads.putIfAbsent(name, task);
+        if (running == null) {
+            running = task;
+            try {
+                task.run();
+            } finally {
+                downloads.remove(name);
+            }
+        }
+
+        try {
+            return running.get();
+        } catch (InterruptedException | ExecutionException e) {
+            LogManager.i(LOG_TAG, "Could not download " + url + ": " + e);
+            return null;
+        }
+    }
+
+    /**
+     * Removes cached file of URL which could not be loaded, e.g. was deleted
+     * from disk, and downloads it again in background.
+     */
+    public void invalidate(final String url) {
+        final String name = getName(url);
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                remove(name);
+                download(url);
+            }
+        });
+    }
+
+    /**
+     * Downloads images from last messages of the chat in background, if
+     * network is not metered.
+     */
+    public void prefetch(final AccountJid account, final UserJid user) {
+        if (!SettingsManager.connectionLoadImages() || NetworkManager.getInstance().isNetworkMetered()) {
+            return;
+        }
+
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                for (String url : getRecentImageUrls(account, user)) {
+                    download(url);
+                }
+            }
+        });
+    }
+
+    private static List<String> getRecentImageUrls(AccountJid account, UserJid user) {
+        List<String> urls = new ArrayList<>();
+        Realm realm = MessageDatabaseManager.getInstance().getNewBackgroundRealm();
+        RealmResults<MessageItem> messageItems = realm.where(MessageItem.class)
+                .equalTo(MessageItem.Fields.ACCOUNT, account.toString())
+                .equalTo(MessageItem.Fields.USER, user.toString())
+                .equalTo(MessageItem.Fields.IS_IMAGE, true)
+                .isNull(MessageItem.Fields.FILE_PATH)
+                .findAllSorted(MessageItem.Fields.TIMESTAMP, Sort.DESCENDING);
+        for (int index = 0; index < messageItems.size() && index < PREFETCH_MESSAGES; index++) {
+            urls.add(messageItems.get(index).getText());
+        }
+        realm.close();
+        return urls;
+    }
+
+    @Nullable
+    private File load(String url, String name) throws IOException {
+        OkHttpClient client = CertificateManager.getInstance().getHttpClient();
+        if (client == null) {
+            return null;
+        }
+
+        Response response = client.newCall(new Request.Builder().url(url).build()).execute();
+        ResponseBody body = response.body();
+        File temp = new File(directory, name + TEMP_SUFFIX);
+        try {
+            if (!response.isSuccessful()) {
+                LogManager.i(LOG_TAG, "Could not download " + url + ": " + response.code());
+                return null;
+            }
+            if (body.contentLength() > MAX_FILE_SIZE) {
+                LogManager.i(LOG_TAG, "Skip " + url + " of size " + body.contentLength());
+                return null;
+            }
+
+            if (!directory.isDirectory() && !directory.mkdirs()) {
+                return null;
+            }
+            if (!copy(body.source(), temp)) {
+                LogManager.i(LOG_TAG, "Skip " + url + " larger than " + MAX_FILE_SIZE);
+                return null;
+            }
+
+            File file = new File(directory, name);
+            if (!temp.renameTo(file)) {
+                return null;
+            }
+            synchronized (this) {
+                Entry previous = entries.put(name, new Entry(file.length(), System.currentTimeMillis()));
+                if (previous != null) {
+                    size -= previous.size;
+                }
+                size += file.length();
+            }
+            trim();
+            return file;
+        } finally {
+            body.close();
+            temp.delete();
+        }
+    }
+
+    /**
+     * @return <code>false</code> if source is larger than {@link #MAX_FILE_SIZE}.
+     */
+    private static boolean copy(BufferedSource source, File file) throws IOException {
+        BufferedSink sink = Okio.buffer(Okio.sink(file));
+        try {
+            Buffer buffer = sink.buffer();
+            long total = 0;
+            long read;
+            while ((read = source.read(buffer, 8192)) != -1) {
+                total += read;
+                if (total > MAX_FILE_SIZE) {
+                    return false;
+                }
+                sink.emitCompleteSegments();
+            }
+            return true;
+        } finally {
+            sink.close();
+        }
+    }
+
+    /**
+     * Removes least recently used files while cache exceeds its budget.
+     */
+    private void trim() {
+        List<String> removed = new ArrayList<>();
+        synchronized (this) {
+            Iterator<Map.Entry<String, Entry>> iterator = entries.entrySet().iterator();
+            while (size > MAX_CACHE_SIZE && iterator.hasNext()) {
+                Map.Entry<String, Entry> entry = iterator.next();
+                size -= entry.getValue().size;
+                removed.add(entry.getKey());
+                iterator.remove();
+            }
+        }
+        for (String name : removed) {
+            new File(directory, name).delete();
+        }
+    }
+
+    private void remove(String name) {
+        synchronized (this) {
+            Entry entry = entries.remove(name);
+            if (entry == null) {
+                return;
+            }
+            size -= entry.size;
+        }
+        new File(directory, name).delete();
+    }
+
+    private static String getName(String url) {
+        return SHA1.hex(url);
+    }
+
+    private static class Entry {
+        final long size;
+        long accessed;
+
+        Entry(long size, long accessed) {
+            this.size = size;
+            this.accessed = accessed;
+        }
+    }
+
+}
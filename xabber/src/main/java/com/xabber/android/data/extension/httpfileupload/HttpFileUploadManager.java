@@ -1,21 +1,28 @@
 package com.xabber.android.data.extension.httpfileupload;
 
 
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
 import com.xabber.android.R;
 import com.xabber.android.data.Application;
+import com.xabber.android.data.OnClearListener;
+import com.xabber.android.data.OnLoadListener;
 import com.xabber.android.data.account.AccountItem;
 import com.xabber.android.data.account.AccountManager;
 import com.xabber.android.data.connection.CertificateManager;
 import com.xabber.android.data.connection.ConnectionItem;
+import com.xabber.android.data.database.MessageDatabaseManager;
+import com.xabber.android.data.database.messagerealm.MessageItem;
 import com.xabber.android.data.entity.AccountJid;
 import com.xabber.android.data.entity.UserJid;
+import com.xabber.android.data.extension.file.FileManager;
 import com.xabber.android.data.log.LogManager;
 import com.xabber.android.data.message.MessageManager;
 import com.xabber.xmpp.httpfileupload.Slot;
 
-import org.jivesoftware.smack.ExceptionCallback;
+import org.greenrobot.eventbus.EventBus;
 import org.jivesoftware.smack.SmackException;
-import org.jivesoftware.smack.StanzaListener;
 import org.jivesoftware.smack.XMPPConnection;
 import org.jivesoftware.smack.XMPPException;
 import org.jivesoftware.smack.packet.Stanza;
@@ -25,36 +32,71 @@ import org.jxmpp.jid.Jid;
 
 import java.io.File;
 import java.io.IOException;
-import java.security.KeyManagementException;
-import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
 
-import javax.net.ssl.SSLContext;
-import javax.net.ssl.SSLSocketFactory;
-import javax.net.ssl.X509TrustManager;
-
-import de.duenndns.ssl.MemorizingTrustManager;
-import okhttp3.Call;
-import okhttp3.Callback;
+import io.realm.Realm;
+import io.realm.RealmResults;
 import okhttp3.MediaType;
 import okhttp3.OkHttpClient;
 import okhttp3.Request;
-import okhttp3.RequestBody;
 import okhttp3.Response;
 
 
-public class HttpFileUploadManager {
+/**
+ * Uploads files to XEP-0363 service.
+ * <p/>
+ * File message is created in progress state before upload is started, so
+ * uploads interrupted by disconnection or process death are resumed on next
+ * authorization. Limited number of uploads runs in parallel, transient
+ * failures are retried with exponential backoff.
+ * <p/>
+ * Images prepared for upload are removed on load if their messages were
+ * deleted, or if they are older than {@link #PREPARED_FILE_MAX_AGE_MILLIS} or
+ * exceed {@link #PREPARED_FILES_MAX_SIZE} and their messages are not in progress.
+ * Such messages are shown from uploaded URL.
+ */
+public class HttpFileUploadManager implements OnLoadListener, OnClearListener {
 
     private static HttpFileUploadManager instance;
 
     private static final MediaType CONTENT_TYPE = MediaType.parse("application/octet-stream");
 
+    private static final int MAX_PARALLEL_UPLOADS = 2;
+
+    private static final int MAX_ATTEMPTS = 5;
+
+    private static final long INITIAL_RETRY_DELAY_MILLIS = TimeUnit.SECONDS.toMillis(5);
+
+    private static final long MAX_RETRY_DELAY_MILLIS = TimeUnit.MINUTES.toMillis(5);
+
+    private static final long PREPARED_FILE_MAX_AGE_MILLIS = TimeUnit.DAYS.toMillis(7);
+
+    private static final long PREPARED_FILES_MAX_SIZE = 50 * 1024 * 1024;
+
     private Map<AccountJid, Jid> uploadServers = new ConcurrentHashMap<>();
 
+    /**
+     * Waiting, running and scheduled for retry uploads by message id.
+     */
+    private final ConcurrentHashMap<String, Upload> uploads = new ConcurrentHashMap<>();
+
+    /**
+     * Uploaded part in percents by message id.
+     */
+    private final Map<String, Integer> progresses = new ConcurrentHashMap<>();
+
+    private final ScheduledExecutorService executor;
+
     public static HttpFileUploadManager getInstance() {
         if (instance == null) {
             instance = new HttpFileUploadManager();
@@ -64,103 +106,295 @@ public class HttpFileUploadManager {
     }
 
     private HttpFileUploadManager() {
+        executor = new ScheduledThreadPoolExecutor(MAX_PARALLEL_UPLOADS, new ThreadFactory() {
+            @Override
+            public Thread newThread(@NonNull Runnable runnable) {
+                Thread thread = new Thread(runnable, "HTTP file upload");
+                thread.setPriority(Thread.MIN_PRIORITY);
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    @Override
+    public void onLoad() {
+        File[] files = FileManager.getUploadDirectory().listFiles();
+        if (files == null) {
+            return;
+        }
+
+        // newest first
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File lhs, File rhs) {
+                long lhsModified = lhs.lastModified();
+                long rhsModified = rhs.lastModified();
+                return lhsModified > rhsModified ? -1 : (lhsModified == rhsModified ? 0 : 1);
+            }
+        });
+
+        long expired = System.currentTimeMillis() - PREPARED_FILE_MAX_AGE_MILLIS;
+        long size = 0;
+        final List<String> removedPaths = new ArrayList<>();
+        Realm realm = MessageDatabaseManager.getInstance().getNewBackgroundRealm();
+        for (File file : files) {
+            RealmResults<MessageItem> messageItems = realm.where(MessageItem.class)
+                    .equalTo(MessageItem.Fields.FILE_PATH, file.getPath())
+                    .findAll();
+            boolean inProgress = messageItems.where()
+                    .equalTo(MessageItem.Fields.IS_IN_PROGRESS, true)
+                    .count() > 0;
+            if (messageItems.isEmpty()
+                    || (!inProgress && (file.lastModified() < expired || size + file.length() > PREPARED_FILES_MAX_SIZE))) {
+                removedPaths.add(file.getPath());
+            } else {
+                size += file.length();
+            }
+        }
+
+        if (!removedPaths.isEmpty()) {
+            realm.executeTransaction(new Realm.Transaction() {
+                @Override
+                public void execute(Realm realm) {
+                    for (String path : removedPaths) {
+                        RealmResults<MessageItem> messageItems = realm.where(MessageItem.class)
+                                .equalTo(MessageItem.Fields.FILE_PATH, path)
+                                .findAll();
+                        for (int index = messageItems.size() - 1; index >= 0; index--) {
+                            messageItems.get(index).setFilePath(null);
+                        }
+                    }
+                }
+            });
+        }
+        realm.close();
+
+        for (String path : removedPaths) {
+            new File(path).delete();
+        }
+        if (!removedPaths.isEmpty()) {
+            LogManager.i(this, "Removed " + removedPaths.size() + " images prepared for upload");
+        }
+    }
+
+    @Override
+    public void onClear() {
+        File[] files = FileManager.getUploadDirectory().listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
     }
 
     public boolean isFileUploadSupported(AccountJid account) {
         return uploadServers.containsKey(account);
     }
 
+    /**
+     * @return uploaded part in percents or <code>null</code> if upload of
+     * the message is not running.
+     */
+    @Nullable
+    public Integer getProgress(String messageId) {
+        return progresses.get(messageId);
+    }
+
     public void uploadFile(final AccountJid account, final UserJid user, final String filePath) {
-        final Jid uploadServerUrl = uploadServers.get(account);
-        if (uploadServerUrl == null) {
+        if (!isFileUploadSupported(account)) {
             return;
         }
 
-        AccountItem accountItem = AccountManager.getInstance().getAccount(account);
-        if (accountItem == null) {
+        Application.getInstance().runInBackgroundUserRequest(new Runnable() {
+            @Override
+            public void run() {
+                File file = FileManager.prepareImageForUpload(new File(filePath));
+                String messageId = MessageManager.getInstance().createFileMessage(account, user, file);
+                enqueue(new Upload(account, user, messageId, file));
+            }
+        });
+    }
+
+    /**
+     * Queues uploads of file messages left in progress, e.g. by previous
+     * process.
+     */
+    private void resumeUploads(AccountJid account) {
+        List<Upload> pending = new ArrayList<>();
+
+        Realm realm = MessageDatabaseManager.getInstance().getNewBackgroundRealm();
+        RealmResults<MessageItem> messageItems = realm.where(MessageItem.class)
+                .equalTo(MessageItem.Fields.ACCOUNT, account.toString())
+                .equalTo(MessageItem.Fields.INCOMING, false)
+                .equalTo(MessageItem.Fields.IS_IN_PROGRESS, true)
+                .isNotNull(MessageItem.Fields.FILE_PATH)
+                .findAll();
+        for (MessageItem messageItem : messageItems) {
+            pending.add(new Upload(account, messageItem.getUser(),
+                    messageItem.getUniqueId(), new File(messageItem.getFilePath())));
+        }
+        realm.close();
+
+        for (Upload upload : pending) {
+            enqueue(upload);
+        }
+    }
+
+    private void enqueue(Upload upload) {
+        if (uploads.putIfAbsent(upload.messageId, upload) == null) {
+            schedule(upload, 0);
+        }
+    }
+
+    private void schedule(final Upload upload, long delayMillis) {
+        executor.schedule(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    upload(upload);
+                } catch (RuntimeException e) {
+                    LogManager.exception(HttpFileUploadManager.this, e);
+                    fail(upload, e.toString());
+                }
+            }
+        }, delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private void upload(final Upload upload) {
+        upload.attempts++;
+
+        Jid uploadServer = uploadServers.get(upload.account);
+        AccountItem accountItem = AccountManager.getInstance().getAccount(upload.account);
+        if (uploadServer == null || accountItem == null || !accountItem.getConnection().isAuthenticated()) {
+            postpone(upload);
             return;
         }
 
-        final File file = new File(filePath);
+        if (!upload.file.isFile()) {
+            fail(upload, "File not found: " + upload.file.getPath());
+            return;
+        }
 
-        final com.xabber.xmpp.httpfileupload.Request httpFileUpload = new com.xabber.xmpp.httpfileupload.Request();
-        httpFileUpload.setFilename(file.getName());
-        httpFileUpload.setSize(String.valueOf(file.length()));
-        httpFileUpload.setTo(uploadServerUrl);
+        com.xabber.xmpp.httpfileupload.Request slotRequest = new com.xabber.xmpp.httpfileupload.Request();
+        slotRequest.setFilename(upload.file.getName());
+        slotRequest.setSize(String.valueOf(upload.file.length()));
+        slotRequest.setTo(uploadServer);
 
+        Stanza result;
         try {
-            accountItem.getConnection().sendIqWithResponseCallback(httpFileUpload, new StanzaListener() {
-                @Override
-                public void processStanza(Stanza packet) throws SmackException.NotConnectedException, InterruptedException {
-                    if (!(packet instanceof Slot)) {
-                        return;
-                    }
+            result = accountItem.getConnection().createStanzaCollectorAndSend(slotRequest).nextResultOrThrow();
+        } catch (SmackException.NotConnectedException | InterruptedException e) {
+            postpone(upload);
+            return;
+        } catch (SmackException.NoResponseException e) {
+            retry(upload, e.toString());
+            return;
+        } catch (XMPPException.XMPPErrorException e) {
+            LogManager.i(this, "On HTTP file upload slot error");
+            LogManager.exception(this, e);
+            Application.getInstance().onError(R.string.http_file_upload_slot_error);
+            fail(upload, e.toString());
+            return;
+        }
 
-                    uploadFileToSlot(account, (Slot) packet);
-                }
+        if (!(result instanceof Slot)) {
+            fail(upload, Application.getInstance().getString(R.string.http_file_upload_slot_error));
+            return;
+        }
+        Slot slot = (Slot) result;
 
-                private void uploadFileToSlot(final AccountJid account, final Slot slot) {
-                    SSLSocketFactory sslSocketFactory = null;
-                    MemorizingTrustManager mtm = CertificateManager.getInstance().getNewFileUploadManager(account);
-
-                    final SSLContext sslContext;
-                    try {
-                        sslContext = SSLContext.getInstance("SSL");
-                        sslContext.init(null, new X509TrustManager[]{mtm}, new java.security.SecureRandom());
-                        sslSocketFactory = sslContext.getSocketFactory();
-                    } catch (NoSuchAlgorithmException | KeyManagementException e) {
-                        return;
+        OkHttpClient client = CertificateManager.getInstance().getHttpClient();
+        if (client == null) {
+            postpone(upload);
+            return;
+        }
+
+        Request request = new Request.Builder()
+                .url(slot.getPutUrl())
+                .put(new ProgressRequestBody(CONTENT_TYPE, upload.file, new ProgressRequestBody.Listener() {
+                    @Override
+                    public void onProgress(long written, long total) {
+                        onUploadProgress(upload, written, total);
                     }
+                }))
+                .build();
 
-                    OkHttpClient client = new OkHttpClient().newBuilder()
-                            .sslSocketFactory(sslSocketFactory)
-                            .hostnameVerifier(mtm.wrapHostnameVerifier(new org.apache.http.conn.ssl.StrictHostnameVerifier()))
-                            .writeTimeout(5, TimeUnit.MINUTES)
-                            .connectTimeout(5, TimeUnit.MINUTES)
-                            .readTimeout(5, TimeUnit.MINUTES)
-                            .build();
-
-
-                    Request request = new Request.Builder()
-                            .url(slot.getPutUrl())
-                            .put(RequestBody.create(CONTENT_TYPE, file))
-                            .build();
-
-                    final String fileMessageId;
-                    fileMessageId = MessageManager.getInstance().createFileMessage(account, user, file);
-
-                    LogManager.i(HttpFileUploadManager.this, "starting upload file to " + slot.getPutUrl() + " size " + file.length());
-                    client.newCall(request).enqueue(new Callback() {
-                        @Override
-                        public void onFailure(Call call, IOException e) {
-                            LogManager.i(HttpFileUploadManager.this, "onFailure " + e.getMessage());
-                            MessageManager.getInstance().updateMessageWithError(fileMessageId, e.toString());
-                        }
+        LogManager.i(this, "starting upload file to " + slot.getPutUrl() + " size " + upload.file.length()
+                + " attempt " + upload.attempts);
+        Response response;
+        try {
+            response = client.newCall(request).execute();
+        } catch (IOException e) {
+            LogManager.i(this, "onFailure " + e.getMessage());
+            retry(upload, e.toString());
+            return;
+        }
 
-                        @Override
-                        public void onResponse(Call call, Response response) throws IOException {
-                            LogManager.i(HttpFileUploadManager.this, "onResponse " + response.isSuccessful() + " " + response.body().string());
-                            if (response.isSuccessful()) {
-                                MessageManager.getInstance().updateFileMessage(account, user, fileMessageId, slot.getGetUrl());
-                            } else {
-                                MessageManager.getInstance().updateMessageWithError(fileMessageId, response.message());
-                            }
-                        }
-                    });
+        try {
+            LogManager.i(this, "onResponse " + response.code() + " " + response.message());
+            if (response.isSuccessful()) {
+                MessageManager.getInstance().updateFileMessage(upload.account, upload.user,
+                        upload.messageId, slot.getGetUrl());
+                remove(upload);
+            } else if (isTransient(response.code())) {
+                retry(upload, response.message());
+            } else {
+                fail(upload, response.message());
+            }
+        } finally {
+            response.body().close();
+        }
+    }
 
-                }
+    /**
+     * @return whether request with such response code could succeed later.
+     */
+    private static boolean isTransient(int code) {
+        return code >= 500 || code == 408 || code == 429;
+    }
 
-            }, new ExceptionCallback() {
-                @Override
-                public void processException(Exception exception) {
-                    LogManager.i(this, "On HTTP file upload slot error");
-                    LogManager.exception(this, exception);
-                    Application.getInstance().onError(R.string.http_file_upload_slot_error);
-                }
-            });
-        } catch (SmackException.NotConnectedException | InterruptedException e) {
-            LogManager.exception(this, e);
+    private void onUploadProgress(Upload upload, long written, long total) {
+        int progress = total > 0 ? (int) (written * 100 / total) : 0;
+        Integer previous = progresses.put(upload.messageId, progress);
+        if (previous == null || previous != progress) {
+            EventBus.getDefault().post(new HttpUploadProgressEvent(upload.account, upload.user,
+                    upload.messageId, progress));
+        }
+    }
+
+    private void retry(Upload upload, String errorDescription) {
+        if (upload.attempts >= MAX_ATTEMPTS) {
+            fail(upload, errorDescription);
+            return;
         }
+
+        long delay = Math.min(INITIAL_RETRY_DELAY_MILLIS << (upload.attempts - 1), MAX_RETRY_DELAY_MILLIS);
+        LogManager.i(this, "retry upload " + upload.messageId + " in " + delay + " ms: " + errorDescription);
+        progresses.remove(upload.messageId);
+        schedule(upload, delay);
+    }
+
+    /**
+     * Leaves message in progress state to be resumed on next authorization.
+     */
+    private void postpone(Upload upload) {
+        LogManager.i(this, "postpone upload " + upload.messageId);
+        remove(upload);
+    }
+
+    private void fail(Upload upload, String errorDescription) {
+        MessageManager.getInstance().updateMessageWithError(upload.messageId, errorDescription);
+        remove(upload);
+    }
+
+    /**
+     * Must be called after message was updated, so that {@link #resumeUploads(AccountJid)}
+     * will not queue it again.
+     */
+    private void remove(Upload upload) {
+        progresses.remove(upload.messageId);
+        uploads.remove(upload.messageId);
     }
 
     private void discoverSupport(AccountJid account, XMPPConnection xmppConnection) throws SmackException.NotConnectedException,
@@ -192,5 +426,28 @@ public class HttpFileUploadManager {
                 | SmackException.NoResponseException | InterruptedException e) {
             LogManager.exception(this, e);
         }
+
+        if (isFileUploadSupported(connectionItem.getAccount())) {
+            resumeUploads(connectionItem.getAccount());
+        }
+    }
+
+    private static class Upload {
+        final AccountJid account;
+        final UserJid user;
+        final String messageId;
+        final File file;
+
+        /**
+         * Accessed from executor's threads only.
+         */
+        int attempts;
+
+        Upload(AccountJid account, UserJid user, String messageId, File file) {
+            this.account = account;
+            this.user = user;
+            this.messageId = messageId;
+            this.file = file;
+        }
     }
 }
@@ -0,0 +1,41 @@
+package com.xabber.android.data.extension.httpfileupload;
+
+import com.xabber.android.data.entity.AccountJid;
+import com.xabber.android.data.entity.UserJid;
+
+/**
+ * Posted when uploaded part of the file message has changed.
+ */
+public class HttpUploadProgressEvent {
+
+    private final AccountJid account;
+    private final UserJid user;
+    private final String uniqueId;
+    private final int progress;
+
+    HttpUploadProgressEvent(AccountJid account, UserJid user, String uniqueId, int progress) {
+        this.account = account;
+        this.user = user;
+        this.uniqueId = uniqueId;
+        this.progress = progress;
+    }
+
+    public AccountJid getAccount() {
+        return account;
+    }
+
+    public UserJid getUser() {
+        return user;
+    }
+
+    public String getUniqueId() {
+        return uniqueId;
+    }
+
+    /**
+     * @return uploaded part in percents.
+     */
+    public int getProgress() {
+        return progress;
+    }
+}
@@ -0,0 +1,62 @@
+package com.xabber.android.data.extension.httpfileupload;
+
+import java.io.File;
+import java.io.IOException;
+
+import okhttp3.MediaType;
+import okhttp3.RequestBody;
+import okio.BufferedSink;
+import okio.Okio;
+import okio.Source;
+
+/**
+ * File request body reporting number of bytes written to the connection.
+ */
+class ProgressRequestBody extends RequestBody {
+
+    interface Listener {
+        /**
+         * Called from the thread executing request.
+         */
+        void onProgress(long written, long total);
+    }
+
+    private static final long SEGMENT_SIZE = 8192;
+
+    private final MediaType contentType;
+    private final File file;
+    private final Listener listener;
+
+    ProgressRequestBody(MediaType contentType, File file, Listener listener) {
+        this.contentType = contentType;
+        this.file = file;
+        this.listener = listener;
+    }
+
+    @Override
+    public MediaType contentType() {
+        return contentType;
+    }
+
+    @Override
+    public long contentLength() {
+        return file.length();
+    }
+
+    @Override
+    public void writeTo(BufferedSink sink) throws IOException {
+        long total = contentLength();
+        long written = 0;
+        Source source = Okio.source(file);
+        try {
+            long read;
+            while ((read = source.read(sink.buffer(), SEGMENT_SIZE)) != -1) {
+                sink.flush();
+                written += read;
+                listener.onProgress(written, total);
+            }
+        } finally {
+            source.close();
+        }
+    }
+}
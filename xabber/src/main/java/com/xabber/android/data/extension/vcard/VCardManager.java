@@ -15,6 +15,9 @@
 package com.xabber.android.data.extension.vcard;
 
 import android.database.Cursor;
+import android.os.Handler;
+import android.os.Looper;
+import android.support.annotation.NonNull;
 
 import com.xabber.android.data.Application;
 import com.xabber.android.data.log.LogManager;
@@ -33,6 +36,8 @@ import com.xabber.android.data.entity.UserJid;
 import com.xabber.android.data.extension.avatar.AvatarManager;
 import com.xabber.android.data.extension.blocking.BlockingManager;
 import com.xabber.android.data.extension.muc.MUCManager;
+import com.xabber.android.data.message.AbstractChat;
+import com.xabber.android.data.message.MessageManager;
 import com.xabber.android.data.roster.OnRosterChangedListener;
 import com.xabber.android.data.roster.OnRosterReceivedListener;
 import com.xabber.android.data.roster.PresenceManager;
@@ -58,6 +63,7 @@ import org.jxmpp.stringprep.XmppStringprepException;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentSkipListSet;
@@ -73,6 +79,12 @@ public class VCardManager implements OnLoadListener, OnPacketListener,
     private static final StructuredName EMPTY_STRUCTURED_NAME = new StructuredName(
             null, null, null, null, null);
 
+    /**
+     * Time during which received names are collected to be written in one
+     * transaction.
+     */
+    private static final long WRITE_DELAY_MILLIS = 1000;
+
     /**
      * Nick and formatted names for the users.
      */
@@ -84,6 +96,22 @@ public class VCardManager implements OnLoadListener, OnPacketListener,
      */
     private final ArrayList<AccountJid> accountRequested;
 
+    private final VCardRequestScheduler scheduler;
+
+    /**
+     * Names to be written to {@link VCardTable}. Guarded by itself.
+     */
+    private final Map<String, StructuredName> pendingWrites;
+
+    private final Handler handler;
+
+    private final Runnable writer = new Runnable() {
+        @Override
+        public void run() {
+            writePendingNames();
+        }
+    };
+
     private static VCardManager instance;
 
     @SuppressWarnings("WeakerAccess")
@@ -102,6 +130,15 @@ public class VCardManager implements OnLoadListener, OnPacketListener,
     private VCardManager() {
         names = new HashMap<>();
         accountRequested = new ArrayList<>();
+        pendingWrites = new LinkedHashMap<>();
+        handler = new Handler(Looper.getMainLooper());
+        scheduler = new VCardRequestScheduler(new VCardRequestScheduler.Loader() {
+            @NonNull
+            @Override
+            public VCardRequestScheduler.Result load(AccountJid account, Jid jid) {
+                return getVCard(account, jid);
+            }
+        });
     }
 
     @Override
@@ -151,14 +188,12 @@ public class VCardManager implements OnLoadListener, OnPacketListener,
             }
         }
 
-        Collection<UserJid> blockedContacts = BlockingManager.getInstance().getBlockedContacts(account);
-
         Collection<RosterContact> accountRosterContacts = RosterManager.getInstance().getAccountRosterContacts(account);
 
         // Request vCards for new contacts.
         for (RosterContact contact : accountRosterContacts) {
             if (!names.containsKey(contact.getUser().getJid())) {
-                if (!blockedContacts.contains(contact.getUser())) {
+                if (!BlockingManager.getInstance().isBlocked(account, contact.getUser())) {
                     request(account, contact.getUser().getJid());
                 }
             }
@@ -168,6 +203,7 @@ public class VCardManager implements OnLoadListener, OnPacketListener,
     @Override
     public void onAccountRemoved(AccountItem accountItem) {
         accountRequested.remove(accountItem.getAccount());
+        scheduler.remove(accountItem.getAccount());
     }
 
     public void requestByUser(final AccountJid account, final Jid jid) {
@@ -180,15 +216,27 @@ public class VCardManager implements OnLoadListener, OnPacketListener,
     }
 
     /**
-     * Requests vCard.
+     * Queues vCard request. Contacts with active chats are requested first.
      */
     public void request(final AccountJid account, final Jid jid) {
-        Application.getInstance().runInBackground(new Runnable() {
-            @Override
-            public void run() {
-                getVCard(account, jid);
+        VCardRequestScheduler.Priority priority = VCardRequestScheduler.Priority.background;
+        try {
+            AbstractChat chat = MessageManager.getInstance().getChat(account, UserJid.from(jid));
+            if (chat != null && chat.isActive()) {
+                priority = VCardRequestScheduler.Priority.recent;
             }
-        });
+        } catch (UserJid.UserJidCreateException e) {
+            LogManager.exception(this, e);
+        }
+        scheduler.request(account, jid, priority);
+    }
+
+    /**
+     * Requests queued vCard of the contact before others. Should be called
+     * when contact is shown to the user.
+     */
+    public void onContactShown(AccountJid account, Jid jid) {
+        scheduler.prioritize(account, jid, VCardRequestScheduler.Priority.visible);
     }
 
     /**
@@ -257,12 +305,7 @@ public class VCardManager implements OnLoadListener, OnPacketListener,
                 .getManagers(OnRosterChangedListener.class)) {
             listener.onContactStructuredInfoChanged(rosterContact, name);
         }
-        Application.getInstance().runInBackground(new Runnable() {
-            @Override
-            public void run() {
-                VCardTable.getInstance().write(bareAddress.toString(), name);
-            }
-        });
+        scheduleWrite(bareAddress.toString(), name);
         if (vCard.getFrom() == null) { // account it self
             AccountManager.getInstance().onAccountChanged(account);
         } else {
@@ -278,6 +321,34 @@ public class VCardManager implements OnLoadListener, OnPacketListener,
         }
     }
 
+    private void scheduleWrite(String bareAddress, StructuredName name) {
+        synchronized (pendingWrites) {
+            boolean scheduled = !pendingWrites.isEmpty();
+            pendingWrites.put(bareAddress, name);
+            if (!scheduled) {
+                handler.postDelayed(writer, WRITE_DELAY_MILLIS);
+            }
+        }
+    }
+
+    @SuppressWarnings("WeakerAccess")
+    void writePendingNames() {
+        final Map<String, StructuredName> names;
+        synchronized (pendingWrites) {
+            names = new LinkedHashMap<>(pendingWrites);
+            pendingWrites.clear();
+        }
+        if (names.isEmpty()) {
+            return;
+        }
+        Application.getInstance().runInBackground(new Runnable() {
+            @Override
+            public void run() {
+                VCardTable.getInstance().write(names);
+            }
+        });
+    }
+
     @SuppressWarnings("WeakerAccess")
     void onVCardFailed(final AccountJid account, final Jid bareAddress) {
         for (OnVCardListener listener : Application.getInstance().getUIListeners(OnVCardListener.class)) {
@@ -327,12 +398,16 @@ public class VCardManager implements OnLoadListener, OnPacketListener,
         }
     }
 
+    /**
+     * Loads vCard in current thread and passes result to UI thread.
+     */
+    @NonNull
     @SuppressWarnings("WeakerAccess")
-    void getVCard(final AccountJid account, final Jid srcUser) {
+    VCardRequestScheduler.Result getVCard(final AccountJid account, final Jid srcUser) {
         final AccountItem accountItem = AccountManager.getInstance().getAccount(account);
         if (accountItem == null) {
             onVCardFailed(account, srcUser);
-            return;
+            return VCardRequestScheduler.Result.skipped;
         }
 
         final org.jivesoftware.smackx.vcardtemp.VCardManager vCardManager
@@ -340,15 +415,16 @@ public class VCardManager implements OnLoadListener, OnPacketListener,
 
         if (!accountItem.getConnection().isAuthenticated()) {
             onVCardFailed(account, srcUser);
-            return;
+            return VCardRequestScheduler.Result.skipped;
         }
 
         VCard vCard = null;
+        boolean sent = false;
 
         Collection<UserJid> blockedContacts = BlockingManager.getInstance().getBlockedContacts(account);
         for (UserJid blockedContact : blockedContacts) {
             if (blockedContact.getBareJid().equals(srcUser.asBareJid())) {
-                return;
+                return VCardRequestScheduler.Result.skipped;
             }
         }
 
@@ -356,11 +432,18 @@ public class VCardManager implements OnLoadListener, OnPacketListener,
 
         if (entityBareJid != null) {
             vCardRequests.add(srcUser);
+            sent = true;
             try {
                 vCard = vCardManager.loadVCard(entityBareJid);
-            } catch (SmackException.NoResponseException | SmackException.NotConnectedException e) {
+            } catch (SmackException.NoResponseException e) {
+                LogManager.exception(this, e);
+                LogManager.w(this, "Error getting vCard: " + e.getMessage());
+                // timeout on slow connection is not an answer of server
+                sent = false;
+            } catch (SmackException.NotConnectedException e) {
                 LogManager.exception(this, e);
                 LogManager.w(this, "Error getting vCard: " + e.getMessage());
+                sent = false;
             } catch (XMPPException.XMPPErrorException e ) {
                 LogManager.exception(this, e);
                 LogManager.w(this, "XMPP error getting vCard: " + e.getMessage() + e.getXMPPError());
@@ -376,6 +459,7 @@ public class VCardManager implements OnLoadListener, OnPacketListener,
                 //vCard = new VCard();
             } catch (InterruptedException e) {
                 LogManager.exception(this, e);
+                sent = false;
             }
             vCardRequests.remove(srcUser);
         }
@@ -391,6 +475,14 @@ public class VCardManager implements OnLoadListener, OnPacketListener,
                 }
             }
         });
+
+        if (vCard != null) {
+            return VCardRequestScheduler.Result.loaded;
+        } else if (sent) {
+            return VCardRequestScheduler.Result.failed;
+        } else {
+            return VCardRequestScheduler.Result.skipped;
+        }
     }
 
     public void saveVCard(final AccountJid account, final VCard vCard) {
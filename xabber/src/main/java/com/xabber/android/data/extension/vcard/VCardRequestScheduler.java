@@ -0,0 +1,261 @@
+package com.xabber.android.data.extension.vcard;
+
+import android.support.annotation.NonNull;
+
+import com.xabber.android.data.entity.AccountJid;
+
+import org.jxmpp.jid.Jid;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Queues vCard requests and runs them on its own threads.
+ * <p/>
+ * Each jid is requested once at a time. Number of simultaneous requests is
+ * bounded for each account, waiting requests with higher {@link Priority}
+ * are sent first. Jids for which server has failed to return vCard are not
+ * requested again for {@link #FAILURE_EXPIRATION_MILLIS}.
+ */
+class VCardRequestScheduler {
+
+    enum Priority {
+        /**
+         * Roster contacts and other users seen in presences.
+         */
+        background,
+
+        /**
+         * Contacts with active chats.
+         */
+        recent,
+
+        /**
+         * Contacts shown to the user.
+         */
+        visible
+    }
+
+    enum Result {
+        loaded,
+
+        /**
+         * Server has not returned vCard.
+         */
+        failed,
+
+        /**
+         * Request was not sent or was not answered in time, e.g. account
+         * was not connected.
+         */
+        skipped
+    }
+
+    interface Loader {
+        /**
+         * Loads vCard. Called from scheduler's thread.
+         */
+        @NonNull
+        Result load(AccountJid account, Jid jid);
+    }
+
+    private static final int THREADS = 4;
+
+    private static final int MAX_REQUESTS_PER_ACCOUNT = 2;
+
+    private static final long FAILURE_EXPIRATION_MILLIS = TimeUnit.MINUTES.toMillis(10);
+
+    private final Loader loader;
+
+    private final ExecutorService executor;
+
+    /**
+     * Guarded by this.
+     */
+    private final Map<AccountJid, AccountRequests> accountRequests;
+
+    /**
+     * Time of last failure for each jid. Guarded by this.
+     */
+    private final Map<AccountJid, Map<Jid, Long>> failures;
+
+    /**
+     * Used to keep order of requests with the same priority.
+     */
+    private long sequence;
+
+    VCardRequestScheduler(Loader loader) {
+        this.loader = loader;
+        executor = Executors.newFixedThreadPool(THREADS, new ThreadFactory() {
+            @Override
+            public Thread newThread(@NonNull Runnable runnable) {
+                Thread thread = new Thread(runnable, "vCard loader");
+                thread.setPriority(Thread.MIN_PRIORITY);
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        accountRequests = new HashMap<>();
+        failures = new HashMap<>();
+    }
+
+    /**
+     * Queues request if jid is neither requested nor failed recently. Raises
+     * priority of queued request if necessary.
+     */
+    synchronized void request(AccountJid account, Jid jid, Priority priority) {
+        if (isFailedRecently(account, jid)) {
+            return;
+        }
+
+        AccountRequests requests = accountRequests.get(account);
+        if (requests == null) {
+            requests = new AccountRequests();
+            accountRequests.put(account, requests);
+        }
+
+        Request request = requests.all.get(jid);
+        if (request != null) {
+            raisePriority(requests, request, priority);
+            return;
+        }
+
+        request = new Request(account, jid, priority, sequence++);
+        requests.all.put(jid, request);
+        requests.waiting.add(request);
+        startRequests(requests);
+    }
+
+    /**
+     * Raises priority of queued request, if any.
+     */
+    synchronized void prioritize(AccountJid account, Jid jid, Priority priority) {
+        AccountRequests requests = accountRequests.get(account);
+        if (requests == null) {
+            return;
+        }
+        Request request = requests.all.get(jid);
+        if (request != null) {
+            raisePriority(requests, request, priority);
+        }
+    }
+
+    /**
+     * Drops waiting requests and failures of the account. Running requests
+     * will be finished.
+     */
+    synchronized void remove(AccountJid account) {
+        accountRequests.remove(account);
+        failures.remove(account);
+    }
+
+    private void raisePriority(AccountRequests requests, Request request, Priority priority) {
+        if (request.running || request.priority.compareTo(priority) >= 0) {
+            return;
+        }
+        requests.waiting.remove(request);
+        request.priority = priority;
+        requests.waiting.add(request);
+    }
+
+    private boolean isFailedRecently(AccountJid account, Jid jid) {
+        Map<Jid, Long> accountFailures = failures.get(account);
+        if (accountFailures == null) {
+            return false;
+        }
+        Long failed = accountFailures.get(jid);
+        if (failed == null) {
+            return false;
+        }
+        if (System.currentTimeMillis() - failed < FAILURE_EXPIRATION_MILLIS) {
+            return true;
+        }
+        accountFailures.remove(jid);
+        return false;
+    }
+
+    private void startRequests(AccountRequests requests) {
+        while (requests.running < MAX_REQUESTS_PER_ACCOUNT && !requests.waiting.isEmpty()) {
+            final Request request = requests.waiting.poll();
+            request.running = true;
+            requests.running++;
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    Result result = Result.failed;
+                    try {
+                        result = loader.load(request.account, request.jid);
+                    } finally {
+                        onFinished(request, result);
+                    }
+                }
+            });
+        }
+    }
+
+    private synchronized void onFinished(Request request, Result result) {
+        Map<Jid, Long> accountFailures = failures.get(request.account);
+        if (result == Result.failed) {
+            if (accountFailures == null) {
+                accountFailures = new HashMap<>();
+                failures.put(request.account, accountFailures);
+            }
+            accountFailures.put(request.jid, System.currentTimeMillis());
+        } else if (result == Result.loaded && accountFailures != null) {
+            accountFailures.remove(request.jid);
+        }
+
+        AccountRequests requests = accountRequests.get(request.account);
+        if (requests == null || requests.all.get(request.jid) != request) {
+            // account was removed
+            return;
+        }
+        requests.all.remove(request.jid);
+        requests.running--;
+        startRequests(requests);
+        if (requests.all.isEmpty()) {
+            accountRequests.remove(request.account);
+        }
+    }
+
+    private static class AccountRequests {
+        /**
+         * Waiting and running requests.
+         */
+        final Map<Jid, Request> all = new HashMap<>();
+
+        final PriorityQueue<Request> waiting = new PriorityQueue<>();
+
+        int running;
+    }
+
+    private static class Request implements Comparable<Request> {
+        final AccountJid account;
+        final Jid jid;
+        final long sequence;
+        Priority priority;
+        boolean running;
+
+        Request(AccountJid account, Jid jid, Priority priority, long sequence) {
+            this.account = account;
+            this.jid = jid;
+            this.priority = priority;
+            this.sequence = sequence;
+        }
+
+        @Override
+        public int compareTo(@NonNull Request another) {
+            int result = another.priority.compareTo(priority);
+            if (result != 0) {
+                return result;
+            }
+            return sequence < another.sequence ? -1 : (sequence == another.sequence ? 0 : 1);
+        }
+    }
+
+}
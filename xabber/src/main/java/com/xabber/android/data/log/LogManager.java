@@ -66,6 +66,13 @@ public class LogManager {
         }
     }
 
+    /**
+     * @return whether messages are written anywhere.
+     */
+    public static boolean isEnabled() {
+        return debuggable || fileLog;
+    }
+
     private static void dString(String tag, String msg) {
         if (debuggable) {
             Log.d(tag, msg);
@@ -184,16 +191,28 @@ public class LogManager {
 
     public static void clearLogs() {
         FileLog.cleanupLogs();
+        TrafficCapture.deleteDumpFiles();
     }
 
+    /**
+     * @return log files and traffic dumps.
+     */
     public static File[] getLogFiles() {
+        File[] dumpFiles = TrafficCapture.getDumpFiles();
         File sdCard = Application.getInstance().getApplicationContext().getExternalFilesDir(null);
         if (sdCard == null) {
-            return new File[0];
+            return dumpFiles;
         }
         File dir = new File(sdCard.getAbsolutePath() + "/logs");
-        return dir.listFiles();
+        File[] logFiles = dir.listFiles();
+        if (logFiles == null) {
+            return dumpFiles;
+        }
 
+        File[] files = new File[logFiles.length + dumpFiles.length];
+        System.arraycopy(logFiles, 0, files, 0, logFiles.length);
+        System.arraycopy(dumpFiles, 0, files, logFiles.length, dumpFiles.length);
+        return files;
     }
 }
 
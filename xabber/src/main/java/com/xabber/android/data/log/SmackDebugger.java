@@ -5,16 +5,32 @@ import org.jivesoftware.smack.debugger.AbstractDebugger;
 
 import java.io.Reader;
 import java.io.Writer;
+import java.util.regex.Pattern;
 
 public class SmackDebugger extends AbstractDebugger {
     private static final String LOG_TAG = "Smack";
 
+    private static final String SASL_NAMESPACE = "urn:ietf:params:xml:ns:xmpp-sasl";
+
+    /**
+     * SASL elements with payload: credentials, tokens or data derived from them.
+     */
+    private static final Pattern SASL_PAYLOAD
+            = Pattern.compile("(<(auth|response|challenge|success)\\b[^>]*>)[^<]+(</\\2>)");
+
     public SmackDebugger(XMPPConnection connection, Writer writer, Reader reader) {
         super(connection, writer, reader);
     }
 
     @Override
     protected void log(String logMessage) {
+        TrafficCapture.getInstance().record(logMessage);
+
+        if (!LogManager.isEnabled()) {
+            return;
+        }
+
+        logMessage = replaceSaslPayload(logMessage);
         LogManager.i(LOG_TAG, logMessage, replaceMessageBody(logMessage));
     }
 
@@ -23,10 +39,19 @@ public class SmackDebugger extends AbstractDebugger {
         LogManager.exception(LOG_TAG, throwable);
     }
 
+    /**
+     * Replace payload of SASL elements with ***.
+     */
+    static String replaceSaslPayload(String sourceMsg) {
+        if (sourceMsg.contains(SASL_NAMESPACE)) {
+            return SASL_PAYLOAD.matcher(sourceMsg).replaceAll("$1***$3");
+        } else return sourceMsg;
+    }
+
     /**
      * Replace body of message with ***.
      */
-    private static String replaceMessageBody(String sourceMsg) {
+    static String replaceMessageBody(String sourceMsg) {
         if (sourceMsg.contains("</message>")) {
             try {
                 int s = sourceMsg.indexOf("<body>");
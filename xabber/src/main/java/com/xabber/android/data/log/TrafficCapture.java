@@ -0,0 +1,225 @@
+package com.xabber.android.data.log;
+
+import android.support.annotation.Nullable;
+
+import com.xabber.android.data.Application;
+import com.xabber.android.data.time.FastDateFormat;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps last raw stanzas in memory.
+ * <p/>
+ * Traffic is captured regardless of logging settings, so it is recorded
+ * as is and censored only when written to internal storage on user request
+ * or on connection error.
+ */
+public class TrafficCapture {
+
+    private static final String LOG_TAG = TrafficCapture.class.getSimpleName();
+
+    private static final String DIRECTORY = "traffic";
+
+    private static final String FILE_SUFFIX = "_traffic.txt";
+
+    /**
+     * Max number of dump files to keep.
+     */
+    private static final int MAX_DUMPS = 5;
+
+    /**
+     * Max number of captured chunks.
+     */
+    private static final int CAPACITY = 512;
+
+    /**
+     * Max total length of captured chunks.
+     */
+    private static final int MAX_CHARS = 256 * 1024;
+
+    /**
+     * Min interval between dumps caused by errors.
+     */
+    private static final long ERROR_DUMP_INTERVAL_MILLIS = TimeUnit.MINUTES.toMillis(10);
+
+    private final String[] messages;
+    private final long[] timestamps;
+
+    /**
+     * Index of the oldest entry.
+     */
+    private int head;
+    private int size;
+    private int chars;
+
+    private long lastErrorDumpMillis;
+
+    private final FastDateFormat dateFormat;
+
+    private static TrafficCapture instance;
+
+    public static synchronized TrafficCapture getInstance() {
+        if (instance == null) {
+            instance = new TrafficCapture();
+        }
+        return instance;
+    }
+
+    private TrafficCapture() {
+        messages = new String[CAPACITY];
+        timestamps = new long[CAPACITY];
+        dateFormat = FastDateFormat.getInstance("yyyy-MM-dd_HH-mm-ss", Locale.US);
+    }
+
+    /**
+     * Stores chunk of traffic. Oldest chunks are dropped if capacity is
+     * exceeded.
+     */
+    public void record(String message) {
+        if (message.length() > MAX_CHARS) {
+            message = message.substring(0, MAX_CHARS);
+        }
+        long timestamp = System.currentTimeMillis();
+
+        synchronized (this) {
+            while (size > 0 && (size == CAPACITY || chars + message.length() > MAX_CHARS)) {
+                removeOldest();
+            }
+
+            int index = (head + size) % CAPACITY;
+            messages[index] = message;
+            timestamps[index] = timestamp;
+            chars += message.length();
+            size++;
+        }
+    }
+
+    private void removeOldest() {
+        chars -= messages[head].length();
+        messages[head] = null;
+        head = (head + 1) % CAPACITY;
+        size--;
+    }
+
+    /**
+     * Requests dump because of error. Dumps are written not more often
+     * than once in {@link #ERROR_DUMP_INTERVAL_MILLIS}.
+     */
+    public void requestDumpOnError(final String reason) {
+        synchronized (this) {
+            long now = System.currentTimeMillis();
+            if (now - lastErrorDumpMillis < ERROR_DUMP_INTERVAL_MILLIS) {
+                return;
+            }
+            lastErrorDumpMillis = now;
+        }
+
+        Application.getInstance().runInBackground(new Runnable() {
+            @Override
+            public void run() {
+                dump(reason);
+            }
+        });
+    }
+
+    /**
+     * Writes captured traffic to internal storage, keeping last
+     * {@link #MAX_DUMPS} files.
+     * <p/>
+     * Should be called from background thread.
+     *
+     * @return written file or <code>null</code> if there is nothing to write
+     * or writing failed.
+     */
+    @Nullable
+    public File dump(String reason) {
+        String[] capturedMessages;
+        long[] capturedTimestamps;
+        synchronized (this) {
+            if (size == 0) {
+                return null;
+            }
+            capturedMessages = new String[size];
+            capturedTimestamps = new long[size];
+            for (int i = 0; i < size; i++) {
+                int index = (head + i) % CAPACITY;
+                capturedMessages[i] = messages[index];
+                capturedTimestamps[i] = timestamps[index];
+            }
+        }
+
+        File dir = getDirectory();
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            return null;
+        }
+        File file = new File(dir, dateFormat.format(System.currentTimeMillis()) + FILE_SUFFIX);
+
+        Writer writer = null;
+        try {
+            writer = new OutputStreamWriter(new FileOutputStream(file));
+            writer.write("-----traffic capture: " + reason + "-----\n");
+            for (int i = 0; i < capturedMessages.length; i++) {
+                writer.write(dateFormat.format(capturedTimestamps[i]));
+                writer.write(' ');
+                writer.write(SmackDebugger.replaceMessageBody(
+                        SmackDebugger.replaceSaslPayload(capturedMessages[i])));
+                writer.write('\n');
+            }
+            writer.flush();
+        } catch (IOException e) {
+            LogManager.exception(LOG_TAG, e);
+            return null;
+        } finally {
+            if (writer != null) {
+                try {
+                    writer.close();
+                } catch (IOException e) {
+                    LogManager.exception(LOG_TAG, e);
+                }
+            }
+        }
+
+        LogManager.i(LOG_TAG, "Traffic dumped to " + file.getName());
+        deleteOldDumps();
+        return file;
+    }
+
+    private static File getDirectory() {
+        return new File(Application.getInstance().getFilesDir(), DIRECTORY);
+    }
+
+    /**
+     * @return written dump files.
+     */
+    static File[] getDumpFiles() {
+        File[] files = getDirectory().listFiles();
+        return files == null ? new File[0] : files;
+    }
+
+    static void deleteDumpFiles() {
+        for (File file : getDumpFiles()) {
+            file.delete();
+        }
+    }
+
+    private static void deleteOldDumps() {
+        File[] files = getDumpFiles();
+        if (files.length <= MAX_DUMPS) {
+            return;
+        }
+
+        // names start with dump time
+        Arrays.sort(files);
+        for (int i = 0; i < files.length - MAX_DUMPS; i++) {
+            files[i].delete();
+        }
+    }
+
+}
@@ -30,6 +30,7 @@ import com.xabber.android.data.entity.UserJid;
 import com.xabber.android.data.extension.carbons.CarbonManager;
 import com.xabber.android.data.extension.cs.ChatStateManager;
 import com.xabber.android.data.extension.file.FileManager;
+import com.xabber.android.data.extension.file.ImageInfoManager;
 import com.xabber.android.data.extension.otr.OTRManager;
 import com.xabber.android.data.message.chat.ChatManager;
 import com.xabber.android.data.notification.NotificationManager;
@@ -246,6 +247,7 @@ public abstract class AbstractChat extends BaseEntity implements RealmChangeList
         final MessageItem messageItem = createMessageItem(resource, text, action, delayTimestamp,
                 incoming, notify, encrypted, offline, stanzaId);
         saveMessageItem(messageItem);
+        ImageInfoManager.getInstance().onNewMessage(messageItem);
         EventBus.getDefault().post(new NewMessageEvent());
     }
 
@@ -334,21 +336,25 @@ public abstract class AbstractChat extends BaseEntity implements RealmChangeList
 
         final String messageId = UUID.randomUUID().toString();
 
+        final MessageItem messageItem = new MessageItem(messageId);
+        messageItem.setAccount(account);
+        messageItem.setUser(user);
+        messageItem.setText(file.getName());
+        messageItem.setFilePath(file.getPath());
+        messageItem.setIsImage(FileManager.fileIsImage(file));
+        if (messageItem.isImage()) {
+            ImageInfoManager.setImageInfo(messageItem, file);
+        }
+        messageItem.setTimestamp(System.currentTimeMillis());
+        messageItem.setRead(true);
+        messageItem.setSent(true);
+        messageItem.setError(false);
+        messageItem.setIncoming(false);
+        messageItem.setInProgress(true);
+
         realm.executeTransaction(new Realm.Transaction() {
             @Override
             public void execute(Realm realm) {
-                MessageItem messageItem = new MessageItem(messageId);
-                messageItem.setAccount(account);
-                messageItem.setUser(user);
-                messageItem.setText(file.getName());
-                messageItem.setFilePath(file.getPath());
-                messageItem.setIsImage(FileManager.fileIsImage(file));
-                messageItem.setTimestamp(System.currentTimeMillis());
-                messageItem.setRead(true);
-                messageItem.setSent(true);
-                messageItem.setError(false);
-                messageItem.setIncoming(false);
-                messageItem.setInProgress(true);
                 realm.copyToRealm(messageItem);
             }
         });
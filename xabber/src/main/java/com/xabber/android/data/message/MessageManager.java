@@ -35,8 +35,8 @@ import com.xabber.android.data.connection.listeners.OnPacketListener;
 import com.xabber.android.data.database.MessageDatabaseManager;
 import com.xabber.android.data.database.messagerealm.MessageItem;
 import com.xabber.android.data.entity.AccountJid;
+import com.xabber.android.data.entity.AccountNestedMap;
 import com.xabber.android.data.entity.BaseEntity;
-import com.xabber.android.data.entity.NestedMap;
 import com.xabber.android.data.entity.UserJid;
 import com.xabber.android.data.extension.captcha.Captcha;
 import com.xabber.android.data.extension.captcha.CaptchaManager;
@@ -93,7 +93,7 @@ public class MessageManager implements OnLoadListener, OnPacketListener, OnDisco
     /**
      * Registered chats for bareAddresses in accounts.
      */
-    private final NestedMap<AbstractChat> chats;
+    private final AccountNestedMap<UserJid, AbstractChat> chats;
     /**
      * Visible chat.
      * <p/>
@@ -110,7 +110,7 @@ public class MessageManager implements OnLoadListener, OnPacketListener, OnDisco
     }
 
     private MessageManager() {
-        chats = new NestedMap<>();
+        chats = new AccountNestedMap<>();
 
         mucPrivateChatRequestProvider = new EntityNotificationProvider<>
                 (R.drawable.ic_stat_muc_private_chat_request_white_24dp);
@@ -152,7 +152,7 @@ public class MessageManager implements OnLoadListener, OnPacketListener, OnDisco
     @Nullable
     public AbstractChat getChat(AccountJid account, UserJid user) {
         if (account != null && user != null) {
-            return chats.get(account.toString(), user.getBareJid().toString());
+            return chats.get(account, user.getBareUserJid());
         } else {
             return null;
         }
@@ -161,14 +161,14 @@ public class MessageManager implements OnLoadListener, OnPacketListener, OnDisco
     public Collection<AbstractChat> getChats() {
         List<AbstractChat> chats = new ArrayList<>();
         for (AccountJid accountJid : AccountManager.getInstance().getAllAccounts()) {
-            chats.addAll(this.chats.getNested(accountJid.toString()).values());
+            chats.addAll(this.chats.getNested(accountJid).values());
         }
         return chats;
     }
 
     public Collection<AbstractChat> getChats(AccountJid account) {
         List<AbstractChat> chats = new ArrayList<>();
-        chats.addAll(this.chats.getNested(account.toString()).values());
+        chats.addAll(this.chats.getNested(account).values());
         return chats;
     }
 
@@ -200,7 +200,7 @@ public class MessageManager implements OnLoadListener, OnPacketListener, OnDisco
         if (getChat(chat.getAccount(), chat.getUser()) != null) {
             throw new IllegalStateException();
         }
-        chats.put(chat.getAccount().toString(), chat.getUser().toString(), chat);
+        chats.put(chat.getAccount(), chat.getUser(), chat);
     }
 
     /**
@@ -211,7 +211,7 @@ public class MessageManager implements OnLoadListener, OnPacketListener, OnDisco
     public void removeChat(AbstractChat chat) {
         chat.closeChat();
         LogManager.i(this, "removeChat " + chat.getUser());
-        chats.remove(chat.getAccount().toString(), chat.getUser().toString());
+        chats.remove(chat.getAccount(), chat.getUser());
     }
 
     /**
@@ -247,10 +247,8 @@ public class MessageManager implements OnLoadListener, OnPacketListener, OnDisco
     }
 
     public void updateFileMessage(AccountJid account, UserJid user, final String messageId, final String url) {
-        final AbstractChat chat = getChat(account, user);
-        if (chat == null) {
-            return;
-        }
+        // upload could be resumed after restart, when chat was not created yet
+        final AbstractChat chat = getOrCreateChat(account, user);
 
         Realm realm = MessageDatabaseManager.getInstance().getNewBackgroundRealm();
 
@@ -486,7 +484,7 @@ public class MessageManager implements OnLoadListener, OnPacketListener, OnDisco
             return;
         }
         boolean processed = false;
-        for (AbstractChat chat : chats.getNested(account.toString()).values()) {
+        for (AbstractChat chat : chats.getNested(account).values()) {
             if (chat.onPacket(user, stanza, false)) {
                 processed = true;
                 break;
@@ -657,7 +655,7 @@ public class MessageManager implements OnLoadListener, OnPacketListener, OnDisco
         }
 
         boolean processed = false;
-        for (AbstractChat chat : chats.getNested(account.toString()).values()) {
+        for (AbstractChat chat : chats.getNested(account).values()) {
             if (chat.onPacket(companion, message, true)) {
                 processed = true;
                 break;
@@ -678,7 +676,7 @@ public class MessageManager implements OnLoadListener, OnPacketListener, OnDisco
     }
     @Override
     public void onRosterReceived(AccountItem accountItem) {
-        for (AbstractChat chat : chats.getNested(accountItem.getAccount().toString()).values()) {
+        for (AbstractChat chat : chats.getNested(accountItem.getAccount()).values()) {
             chat.onComplete();
         }
     }
@@ -689,19 +687,19 @@ public class MessageManager implements OnLoadListener, OnPacketListener, OnDisco
             return;
         }
         AccountJid account = connection.getAccount();
-        for (AbstractChat chat : chats.getNested(account.toString()).values()) {
+        for (AbstractChat chat : chats.getNested(account).values()) {
             chat.onDisconnect();
         }
     }
 
     @Override
     public void onAccountRemoved(AccountItem accountItem) {
-        chats.clear(accountItem.getAccount().toString());
+        chats.clear(accountItem.getAccount());
     }
 
     @Override
     public void onAccountDisabled(AccountItem accountItem) {
-        chats.clear(accountItem.getAccount().toString());
+        chats.clear(accountItem.getAccount());
     }
 
     /**
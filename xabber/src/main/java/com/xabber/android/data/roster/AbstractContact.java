@@ -80,7 +80,7 @@ public class AbstractContact extends BaseEntity {
     }
 
     public StatusMode getStatusMode() {
-        return StatusMode.createStatusMode(RosterManager.getInstance().getPresence(account, user));
+        return RosterManager.getInstance().getStatusMode(account, user);
     }
 
     public boolean isSubscribed() {
@@ -4,6 +4,7 @@ import com.xabber.android.data.Application;
 import com.xabber.android.data.account.AccountItem;
 import com.xabber.android.data.account.AccountManager;
 import com.xabber.android.data.entity.AccountJid;
+import com.xabber.android.data.extension.csi.DeferredStanzaManager;
 import com.xabber.android.data.log.LogManager;
 
 import org.jivesoftware.smack.packet.Presence;
@@ -57,12 +58,18 @@ public class AccountRosterListener implements RosterListener, RosterLoadedListen
 
     @Override
     public void presenceChanged(Presence presence) {
+        // roster already has this presence even if processing will be deferred
+        RosterManager.getInstance().invalidatePresence(account, presence.getFrom().asBareJid());
+        if (DeferredStanzaManager.getInstance().deferPresenceChange(account, presence)) {
+            return;
+        }
         PresenceManager.getInstance().onPresenceChanged(account, presence);
     }
 
     @Override
     public void onRosterLoaded(Roster roster) {
         LogManager.i(getLogTag(), "onRosterLoaded");
+        RosterManager.getInstance().onRosterLoaded(account);
         final AccountItem accountItem = AccountManager.getInstance().getAccount(AccountRosterListener.this.account);
 
         if (accountItem != null) {
@@ -0,0 +1,193 @@
+package com.xabber.android.data.roster;
+
+import android.support.annotation.NonNull;
+
+import com.xabber.android.data.entity.AccountJid;
+import com.xabber.android.data.entity.AccountNestedMap;
+import com.xabber.android.data.entity.UserJid;
+import com.xabber.android.data.extension.vcard.VCardManager;
+
+import org.jxmpp.jid.BareJid;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Search index over names and jids of roster contacts.
+ * <p/>
+ * Searchable terms of each contact are normalized once and kept until
+ * contact is changed. Normalization lowercases text using default locale,
+ * removes diacritics and transliterates cyrillic letters, so query in one
+ * script finds names written in another one.
+ * <p/>
+ * Terms should be taken from UI thread, where contacts are changed, while
+ * matching them against query can be performed from any thread.
+ */
+public class ContactSearchIndex {
+
+    public enum Match {
+        none,
+
+        /**
+         * Query is a substring of some term.
+         */
+        substring,
+
+        /**
+         * Some word of some term starts with query.
+         */
+        prefix
+    }
+
+    private static final Map<Character, String> TRANSLITERATION = createTransliteration();
+
+    private static ContactSearchIndex instance;
+
+    public static ContactSearchIndex getInstance() {
+        if (instance == null) {
+            instance = new ContactSearchIndex();
+        }
+
+        return instance;
+    }
+
+    /**
+     * Normalized terms for roster contacts.
+     */
+    private final AccountNestedMap<BareJid, String[]> entries;
+
+    /**
+     * Incremented on each invalidation, so terms created concurrently with
+     * invalidation are not stored.
+     */
+    private int version;
+
+    private ContactSearchIndex() {
+        entries = new AccountNestedMap<>();
+    }
+
+    private static Map<Character, String> createTransliteration() {
+        String[][] table = {
+                {"\u0430", "a"}, {"\u0431", "b"}, {"\u0432", "v"}, {"\u0433", "g"}, {"\u0434", "d"}, {"\u0435", "e"},
+                {"\u0436", "zh"}, {"\u0437", "z"}, {"\u0438", "i"}, {"\u043a", "k"}, {"\u043b", "l"}, {"\u043c", "m"},
+                {"\u043d", "n"}, {"\u043e", "o"}, {"\u043f", "p"}, {"\u0440", "r"}, {"\u0441", "s"}, {"\u0442", "t"},
+                {"\u0443", "u"}, {"\u0444", "f"}, {"\u0445", "kh"}, {"\u0446", "ts"}, {"\u0447", "ch"}, {"\u0448", "sh"},
+                {"\u0449", "shch"}, {"\u044a", ""}, {"\u044b", "y"}, {"\u044c", ""}, {"\u044d", "e"}, {"\u044e", "yu"},
+                {"\u044f", "ya"}, {"\u0456", "i"}, {"\u0454", "ye"}, {"\u0491", "g"}, {"\u045e", "u"},
+        };
+        Map<Character, String> transliteration = new HashMap<>();
+        for (String[] pair : table) {
+            transliteration.put(pair[0].charAt(0), pair[1]);
+        }
+        return transliteration;
+    }
+
+    /**
+     * @return text in form used for comparison.
+     */
+    @NonNull
+    public static String normalize(String text) {
+        String decomposed = Normalizer.normalize(text.toLowerCase(Locale.getDefault()),
+                Normalizer.Form.NFD);
+        StringBuilder normalized = new StringBuilder(decomposed.length());
+        for (int index = 0; index < decomposed.length(); index++) {
+            char c = decomposed.charAt(index);
+            if (Character.getType(c) == Character.NON_SPACING_MARK) {
+                continue;
+            }
+            String replacement = TRANSLITERATION.get(c);
+            if (replacement == null) {
+                normalized.append(c);
+            } else {
+                normalized.append(replacement);
+            }
+        }
+        return normalized.toString().trim();
+    }
+
+    /**
+     * Drops terms of changed contact. They will be created on next query.
+     */
+    synchronized void invalidate(AccountJid account, UserJid user) {
+        entries.remove(account, user.getBareJid());
+        version++;
+    }
+
+    /**
+     * @return normalized searchable terms of contact.
+     */
+    @NonNull
+    public String[] getTerms(AbstractContact contact) {
+        String[] terms = null;
+        boolean indexed = contact instanceof RosterContact;
+        int startVersion = 0;
+        if (indexed) {
+            synchronized (this) {
+                terms = entries.get(contact.getAccount(), contact.getUser().getBareJid());
+                startVersion = version;
+            }
+        }
+
+        if (terms == null) {
+            terms = createTerms(contact);
+            if (indexed) {
+                synchronized (this) {
+                    if (startVersion == version) {
+                        entries.put(contact.getAccount(), contact.getUser().getBareJid(), terms);
+                    }
+                }
+            }
+        }
+        return terms;
+    }
+
+    /**
+     * @param terms returned by {@link #getTerms(AbstractContact)}.
+     * @param query normalized with {@link #normalize(String)}.
+     */
+    @NonNull
+    public static Match match(String[] terms, String query) {
+        Match result = Match.none;
+        for (String term : terms) {
+            int index = term.indexOf(query);
+            while (index != -1) {
+                if (index == 0 || !Character.isLetterOrDigit(term.charAt(index - 1))) {
+                    return Match.prefix;
+                }
+                result = Match.substring;
+                index = term.indexOf(query, index + 1);
+            }
+        }
+        return result;
+    }
+
+    @NonNull
+    private static String[] createTerms(AbstractContact contact) {
+        List<String> terms = new ArrayList<>();
+        terms.add(normalize(contact.getName()));
+        terms.add(normalize(contact.getUser().toString()));
+
+        StructuredName structuredName = VCardManager.getInstance()
+                .getStructuredName(contact.getUser().getJid());
+        if (structuredName != null) {
+            addTerm(terms, structuredName.getNickName());
+            addTerm(terms, structuredName.getFormattedName());
+        }
+        return terms.toArray(new String[terms.size()]);
+    }
+
+    private static void addTerm(List<String> terms, String text) {
+        if (text == null) {
+            return;
+        }
+        String term = normalize(text);
+        if (!term.isEmpty() && !terms.contains(term)) {
+            terms.add(term);
+        }
+    }
+
+}
@@ -48,7 +48,6 @@ import org.jivesoftware.smack.util.StringUtils;
 import org.jxmpp.jid.EntityBareJid;
 import org.jxmpp.jid.parts.Resourcepart;
 
-import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
@@ -164,7 +163,7 @@ public class PresenceManager implements OnLoadListener, OnAccountDisabledListene
             return occupant.getStatusMode();
         }
 
-        return StatusMode.createStatusMode(RosterManager.getInstance().getPresence(account, user));
+        return RosterManager.getInstance().getStatusMode(account, user);
     }
 
     /**
@@ -226,16 +225,7 @@ public class PresenceManager implements OnLoadListener, OnAccountDisabledListene
                         StatusMode.createStatusMode(presence), presence.getStatus());
         }
 
-        RosterContact rosterContact = RosterManager.getInstance().getRosterContact(account, from.getBareJid());
-        if (rosterContact != null) {
-            ArrayList<RosterContact> rosterContacts = new ArrayList<>();
-            rosterContacts.add(rosterContact);
-            for (OnRosterChangedListener listener
-                    : Application.getInstance().getManagers(OnRosterChangedListener.class)) {
-                listener.onPresenceChanged(rosterContacts);
-            }
-        }
-        RosterManager.onContactChanged(account, from);
+        RosterManager.getInstance().onPresenceChanged(account, from);
     }
 
     @Override
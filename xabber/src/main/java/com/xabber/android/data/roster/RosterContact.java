@@ -18,7 +18,7 @@ import android.text.TextUtils;
 
 import com.xabber.android.data.account.StatusMode;
 import com.xabber.android.data.entity.AccountJid;
-import com.xabber.android.data.entity.NestedMap;
+import com.xabber.android.data.entity.AccountNestedMap;
 import com.xabber.android.data.entity.UserJid;
 
 import java.lang.ref.WeakReference;
@@ -56,17 +56,18 @@ public class RosterContact extends AbstractContact {
      */
     protected boolean enabled;
 
-    private static final  NestedMap<WeakReference<RosterContact>> instances = new NestedMap<>();
+    private static final AccountNestedMap<UserJid, WeakReference<RosterContact>> instances
+            = new AccountNestedMap<>();
 
     static RosterContact getRosterContact(AccountJid account, UserJid user, String name) {
-        WeakReference<RosterContact> contactWeakReference = instances.get(account.toString(), user.toString());
+        WeakReference<RosterContact> contactWeakReference = instances.get(account, user);
         if (contactWeakReference != null && contactWeakReference.get() != null) {
             contactWeakReference.get().setName(name);
             return contactWeakReference.get();
         }
 
         RosterContact rosterContact = new RosterContact(account, user, name);
-        instances.put(account.toString(), user.toString(), new WeakReference<>(rosterContact));
+        instances.put(account, user, new WeakReference<>(rosterContact));
         return rosterContact;
     }
 
@@ -14,6 +14,8 @@
  */
 package com.xabber.android.data.roster;
 
+import android.os.Handler;
+import android.os.Looper;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 import android.text.TextUtils;
@@ -23,13 +25,15 @@ import com.xabber.android.data.Application;
 import com.xabber.android.data.NetworkException;
 import com.xabber.android.data.account.AccountItem;
 import com.xabber.android.data.account.AccountManager;
+import com.xabber.android.data.account.StatusMode;
 import com.xabber.android.data.account.listeners.OnAccountDisabledListener;
 import com.xabber.android.data.account.listeners.OnAccountEnabledListener;
+import com.xabber.android.data.account.listeners.OnAccountRemovedListener;
 import com.xabber.android.data.connection.ConnectionItem;
 import com.xabber.android.data.connection.StanzaSender;
 import com.xabber.android.data.connection.listeners.OnDisconnectListener;
 import com.xabber.android.data.entity.AccountJid;
-import com.xabber.android.data.entity.NestedMap;
+import com.xabber.android.data.entity.AccountNestedMap;
 import com.xabber.android.data.entity.UserJid;
 import com.xabber.android.data.extension.muc.RoomChat;
 import com.xabber.android.data.extension.muc.RoomContact;
@@ -52,7 +56,10 @@ import java.lang.ref.WeakReference;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 /**
@@ -61,19 +68,70 @@ import java.util.Set;
  * @author alexander.ivanov
  */
 public class RosterManager implements OnDisconnectListener, OnAccountEnabledListener,
-        OnAccountDisabledListener {
+        OnAccountDisabledListener, OnAccountRemovedListener {
 
     private static final String LOG_TAG = RosterManager.class.getSimpleName();
 
+    /**
+     * Time during which contact changes are collected before listeners are
+     * notified.
+     */
+    private static final long CONTACT_CHANGES_DELAY_MILLIS = 250;
+
     private static RosterManager instance;
 
-    private NestedMap<RosterContact> rosterContacts;
+    private final AccountNestedMap<BareJid, RosterContact> rosterContacts;
 
-    private final NestedMap<WeakReference<AbstractContact>> contactsCache;
+    private final AccountNestedMap<UserJid, WeakReference<AbstractContact>> contactsCache;
+
+    /**
+     * Bare jids of roster contacts in each group for each account, used to
+     * list groups. Updated together with {@link #rosterContacts} while
+     * account is connected, dropped together with {@link #presences} and
+     * rebuilt when roster is loaded.
+     */
+    private final AccountNestedMap<String, Set<BareJid>> groupMembers;
+
+    /**
+     * Best presence and status mode of each contact resolved by roster.
+     * Modifications are synchronized on map itself.
+     */
+    private final AccountNestedMap<BareJid, CachedPresence> presences;
+
+    /**
+     * Incremented on each invalidation of {@link #presences}, so presence
+     * resolved concurrently with invalidation is not stored.
+     */
+    private volatile int presencesVersion;
+
+    /**
+     * Changed contacts to be passed to listeners, one entry per contact.
+     * Guarded by {@link #changedContacts}.
+     */
+    private final AccountNestedMap<BareJid, ChangedContact> changedContacts;
+
+    /**
+     * Whether notification about {@link #changedContacts} is scheduled.
+     * Guarded by {@link #changedContacts}.
+     */
+    private boolean contactChangesScheduled;
+
+    private final Handler handler;
+
+    private final Runnable contactChangesNotifier = new Runnable() {
+        @Override
+        public void run() {
+            notifyContactChanges();
+        }
+    };
 
     private RosterManager() {
-        rosterContacts = new NestedMap<>();
-        contactsCache = new NestedMap<>();
+        rosterContacts = new AccountNestedMap<>();
+        contactsCache = new AccountNestedMap<>();
+        groupMembers = new AccountNestedMap<>();
+        presences = new AccountNestedMap<>();
+        changedContacts = new AccountNestedMap<>();
+        handler = new Handler(Looper.getMainLooper());
     }
 
     public static RosterManager getInstance() {
@@ -97,11 +155,65 @@ public class RosterManager implements OnDisconnectListener, OnAccountEnabledList
 
     @Nullable
     public Presence getPresence(AccountJid account, UserJid user) {
+        CachedPresence cachedPresence = getCachedPresence(account, user.getBareJid());
+        return cachedPresence == null ? null : cachedPresence.presence;
+    }
+
+    @NonNull
+    public StatusMode getStatusMode(AccountJid account, UserJid user) {
+        CachedPresence cachedPresence = getCachedPresence(account, user.getBareJid());
+        return cachedPresence == null ? StatusMode.unavailable : cachedPresence.statusMode;
+    }
+
+    /**
+     * @return presence resolved by roster, cached until presence from the
+     * contact arrives, contact is removed from roster or account disconnects.
+     * Smack notifies about presences of roster entries only, so presences of
+     * other users are not cached. <code>null</code> if there is no roster for
+     * the account.
+     */
+    @Nullable
+    private CachedPresence getCachedPresence(AccountJid account, BareJid bareJid) {
+        CachedPresence cachedPresence = presences.get(account, bareJid);
+        if (cachedPresence != null) {
+            return cachedPresence;
+        }
+
         final Roster roster = getRoster(account);
         if (roster == null) {
             return null;
-        } else {
-            return roster.getPresence(user.getJid().asBareJid());
+        }
+
+        int version = presencesVersion;
+        boolean inRoster = roster.getEntry(bareJid) != null;
+        Presence presence = roster.getPresence(bareJid);
+        cachedPresence = new CachedPresence(presence, StatusMode.createStatusMode(presence));
+        if (!inRoster) {
+            return cachedPresence;
+        }
+        synchronized (presences) {
+            if (version == presencesVersion) {
+                presences.put(account, bareJid, cachedPresence);
+            }
+        }
+        return cachedPresence;
+    }
+
+    /**
+     * Drops cached presence of the contact. Must be called when presence from
+     * any of its resources arrives.
+     */
+    void invalidatePresence(AccountJid account, BareJid bareJid) {
+        synchronized (presences) {
+            presencesVersion++;
+            presences.remove(account, bareJid);
+        }
+    }
+
+    private void invalidatePresences(AccountJid account) {
+        synchronized (presences) {
+            presencesVersion++;
+            presences.clear(account);
         }
     }
 
@@ -115,7 +227,7 @@ public class RosterManager implements OnDisconnectListener, OnAccountEnabledList
     }
 
     public Collection<RosterContact> getAccountRosterContacts(final AccountJid accountJid) {
-        return Collections.unmodifiableCollection(rosterContacts.getNested(accountJid.toString()).values());
+        return Collections.unmodifiableCollection(rosterContacts.getNested(accountJid).values());
     }
 
     public Collection<RosterContact> getAllContacts() {
@@ -127,13 +239,20 @@ public class RosterManager implements OnDisconnectListener, OnAccountEnabledList
 
         Collection<RosterContact> newContacts = new ArrayList<>(addresses.size());
 
+        // groups of few pushed entries are looked up separately,
+        // roster is scanned once when it is loaded
+        Map<BareJid, Collection<String>> groupNames = null;
+        if (addresses.size() > roster.getGroupCount()) {
+            groupNames = getGroupNames(roster);
+        }
 
         for (Jid jid : addresses) {
             RosterEntry entry = roster.getEntry(jid.asBareJid());
             try {
-                RosterContact contact = convertRosterEntryToRosterContact(account, roster, entry);
-                rosterContacts.put(account.toString(),
-                        contact.getUser().getBareJid().toString(), contact);
+                RosterContact contact = convertRosterEntryToRosterContact(account, entry,
+                        groupNames == null ? getGroupNames(entry) : groupNames.get(entry.getJid()));
+                ContactSearchIndex.getInstance().invalidate(account, contact.getUser());
+                rosterContacts.put(account, contact.getUser().getBareJid(), contact);
                 newContacts.add(contact);
             } catch (UserJid.UserJidCreateException e) {
                 LogManager.exception(LOG_TAG, e);
@@ -151,8 +270,11 @@ public class RosterManager implements OnDisconnectListener, OnAccountEnabledList
         Collection<RosterContact> removedContacts = new ArrayList<>(addresses.size());
 
         for (Jid jid : addresses) {
-            RosterContact contact = rosterContacts.remove(account.toString(), jid.asBareJid().toString());
+            invalidatePresence(account, jid.asBareJid());
+            RosterContact contact = rosterContacts.remove(account, jid.asBareJid());
             if (contact != null) {
+                ContactSearchIndex.getInstance().invalidate(account, contact.getUser());
+                removeGroupMember(account, contact);
                 removedContacts.add(contact);
             }
         }
@@ -160,19 +282,58 @@ public class RosterManager implements OnDisconnectListener, OnAccountEnabledList
         onContactsChanged(removedContacts);
     }
 
+    /**
+     * @return names of groups for each bare jid in roster. Each group is
+     * visited once, so it takes time proportional to number of memberships.
+     */
+    @NonNull
+    private static Map<BareJid, Collection<String>> getGroupNames(Roster roster) {
+        Map<BareJid, Collection<String>> groupNames = new HashMap<>();
+        for (org.jivesoftware.smack.roster.RosterGroup group : roster.getGroups()) {
+            for (RosterEntry entry : group.getEntries()) {
+                Collection<String> names = groupNames.get(entry.getJid());
+                if (names == null) {
+                    names = new ArrayList<>(1);
+                    groupNames.put(entry.getJid(), names);
+                }
+                names.add(group.getName());
+            }
+        }
+        return groupNames;
+    }
+
+    /**
+     * @return names of groups of the entry. Takes time proportional to
+     * number of groups in roster.
+     */
+    @NonNull
+    private static Collection<String> getGroupNames(RosterEntry entry) {
+        Collection<String> names = new ArrayList<>(1);
+        for (org.jivesoftware.smack.roster.RosterGroup group : entry.getGroups()) {
+            names.add(group.getName());
+        }
+        return names;
+    }
+
+    /**
+     * @param groupNames can be <code>null</code> if contact has no groups.
+     */
     @NonNull
-    private RosterContact convertRosterEntryToRosterContact(AccountJid account, Roster roster, RosterEntry rosterEntry) throws UserJid.UserJidCreateException {
+    private RosterContact convertRosterEntryToRosterContact(AccountJid account, RosterEntry rosterEntry,
+                                                            @Nullable Collection<String> groupNames)
+            throws UserJid.UserJidCreateException {
         final RosterContact contact = RosterContact
                 .getRosterContact(account, UserJid.from(rosterEntry.getJid()), rosterEntry.getName());
 
-        final Collection<org.jivesoftware.smack.roster.RosterGroup> groups = roster.getGroups();
-
+        removeGroupMember(account, contact);
         contact.clearGroupReferences();
-        for (org.jivesoftware.smack.roster.RosterGroup group : groups) {
-            if (group.contains(rosterEntry)) {
-                contact.addGroupReference(new RosterGroupReference(new RosterGroup(account, group.getName())));
+        if (groupNames != null) {
+            for (String groupName : groupNames) {
+                contact.addGroupReference(new RosterGroupReference(new RosterGroup(account, groupName)));
             }
         }
+        addGroupMember(account, contact);
+
         contact.setEnabled(true);
         contact.setConnected(true);
 
@@ -180,20 +341,66 @@ public class RosterManager implements OnDisconnectListener, OnAccountEnabledList
         return contact;
     }
 
+    private void addGroupMember(AccountJid account, RosterContact contact) {
+        synchronized (groupMembers) {
+            for (String groupName : contact.getGroupNames()) {
+                Set<BareJid> members = groupMembers.get(account, groupName);
+                if (members == null) {
+                    members = new HashSet<>();
+                    groupMembers.put(account, groupName, members);
+                }
+                members.add(contact.getUser().getBareJid());
+            }
+        }
+    }
+
+    /**
+     * Rebuilds group members of account from its roster contacts.
+     */
+    void onRosterLoaded(AccountJid account) {
+        synchronized (groupMembers) {
+            groupMembers.clear(account);
+            for (RosterContact contact : rosterContacts.getNested(account).values()) {
+                addGroupMember(account, contact);
+            }
+        }
+    }
+
+    private void clearGroupMembers(AccountJid account) {
+        synchronized (groupMembers) {
+            groupMembers.clear(account);
+        }
+    }
+
+    private void removeGroupMember(AccountJid account, RosterContact contact) {
+        synchronized (groupMembers) {
+            for (String groupName : contact.getGroupNames()) {
+                Set<BareJid> members = groupMembers.get(account, groupName);
+                if (members == null) {
+                    continue;
+                }
+                members.remove(contact.getUser().getBareJid());
+                if (members.isEmpty()) {
+                    groupMembers.remove(account, groupName);
+                }
+            }
+        }
+    }
+
     public AbstractContact getAbstractContact(@NonNull AccountJid accountJid, @NonNull UserJid userJid) {
-        WeakReference<AbstractContact> contactWeakReference = contactsCache.get(accountJid.toString(), userJid.toString());
+        WeakReference<AbstractContact> contactWeakReference = contactsCache.get(accountJid, userJid);
         if (contactWeakReference != null && contactWeakReference.get() != null) {
             return contactWeakReference.get();
         }
 
         AbstractContact newContact = new AbstractContact(accountJid, userJid);
-        contactsCache.put(accountJid.toString(), userJid.toString(), new WeakReference<>(newContact));
+        contactsCache.put(accountJid, userJid, new WeakReference<>(newContact));
         return newContact;
     }
 
     @Nullable
     public RosterContact getRosterContact(AccountJid accountJid, BareJid bareJid) {
-        return rosterContacts.get(accountJid.toString(), bareJid.toString());
+        return rosterContacts.get(accountJid, bareJid);
     }
 
     @Nullable
@@ -229,21 +436,9 @@ public class RosterManager implements OnDisconnectListener, OnAccountEnabledList
      * @return List of groups in specified account.
      */
     public Collection<String> getGroups(AccountJid account) {
-        final Roster roster = getRoster(account);
-
-        Collection<String> returnGroups = new ArrayList<>();
-
-        if (roster == null) {
-            return returnGroups;
-        }
-
-        final Collection<org.jivesoftware.smack.roster.RosterGroup> groups = roster.getGroups();
-
-        for (org.jivesoftware.smack.roster.RosterGroup rosterGroup : groups) {
-            returnGroups.add(rosterGroup.getName());
+        synchronized (groupMembers) {
+            return new ArrayList<>(groupMembers.getNested(account).keySet());
         }
-
-        return returnGroups;
     }
 
     /**
@@ -521,8 +716,11 @@ public class RosterManager implements OnDisconnectListener, OnAccountEnabledList
             return;
         }
 
+        invalidatePresences(connection.getAccount());
+        clearGroupMembers(connection.getAccount());
+
         Collection<RosterContact> accountContacts
-                = rosterContacts.getNested(connection.getAccount().toString()).values();
+                = rosterContacts.getNested(connection.getAccount()).values();
 
         for (RosterContact contact : accountContacts) {
             contact.setConnected(false);
@@ -536,15 +734,23 @@ public class RosterManager implements OnDisconnectListener, OnAccountEnabledList
 
     @Override
     public void onAccountDisabled(AccountItem accountItem) {
+        invalidatePresences(accountItem.getAccount());
+        clearGroupMembers(accountItem.getAccount());
         setEnabled(accountItem.getAccount(), false);
     }
 
+    @Override
+    public void onAccountRemoved(AccountItem accountItem) {
+        invalidatePresences(accountItem.getAccount());
+        clearGroupMembers(accountItem.getAccount());
+    }
+
     /**
      * Sets whether contacts in accounts are enabled.
      */
     private void setEnabled(AccountJid account, boolean enabled) {
         Collection<RosterContact> accountContacts
-                = rosterContacts.getNested(account.toString()).values();
+                = rosterContacts.getNested(account).values();
 
         for (RosterContact contact : accountContacts) {
             contact.setEnabled(enabled);
@@ -570,13 +776,103 @@ public class RosterManager implements OnDisconnectListener, OnAccountEnabledList
 
     /**
      * Notifies registered {@link OnContactChangedListener}.
+     * <p/>
+     * Changes are collected for {@link #CONTACT_CHANGES_DELAY_MILLIS}, so
+     * listeners are notified once with all contacts changed during this time.
      */
     public static void onContactChanged(AccountJid account, UserJid bareAddress) {
-        final Collection<RosterContact> entities = new ArrayList<>();
-        RosterContact rosterContact = getInstance().getRosterContact(account, bareAddress);
-        if (rosterContact != null) {
+        getInstance().addChangedContact(account, bareAddress, false);
+    }
+
+    /**
+     * Notifies registered {@link OnContactChangedListener} and
+     * {@link OnRosterChangedListener} about presence change.
+     *
+     * @see #onContactChanged(AccountJid, UserJid)
+     */
+    void onPresenceChanged(AccountJid account, UserJid user) {
+        addChangedContact(account, user, true);
+    }
+
+    private void addChangedContact(AccountJid account, UserJid user, boolean presenceChanged) {
+        if (!presenceChanged) {
+            // name could be changed
+            ContactSearchIndex.getInstance().invalidate(account, user);
+        }
+
+        synchronized (changedContacts) {
+            ChangedContact changedContact = changedContacts.get(account, user.getBareJid());
+            if (changedContact == null) {
+                changedContact = new ChangedContact(account, user);
+                changedContacts.put(account, user.getBareJid(), changedContact);
+            }
+            changedContact.presenceChanged |= presenceChanged;
+
+            if (!contactChangesScheduled) {
+                contactChangesScheduled = true;
+                handler.postDelayed(contactChangesNotifier, CONTACT_CHANGES_DELAY_MILLIS);
+            }
+        }
+    }
+
+    @SuppressWarnings("WeakerAccess")
+    void notifyContactChanges() {
+        Collection<ChangedContact> changes;
+        synchronized (changedContacts) {
+            changes = new ArrayList<>(changedContacts.values());
+            changedContacts.clear();
+            contactChangesScheduled = false;
+        }
+
+        Collection<RosterContact> entities = new ArrayList<>();
+        Collection<RosterContact> presenceChangedContacts = new ArrayList<>();
+        for (ChangedContact changedContact : changes) {
+            RosterContact rosterContact = getRosterContact(changedContact.account, changedContact.user);
+            if (rosterContact == null) {
+                continue;
+            }
             entities.add(rosterContact);
+            if (changedContact.presenceChanged) {
+                presenceChangedContacts.add(rosterContact);
+            }
+        }
+
+        LogManager.d(LOG_TAG, "Contact changes: " + changes.size()
+                + ", roster contacts: " + entities.size());
+
+        if (!presenceChangedContacts.isEmpty()) {
+            for (OnRosterChangedListener listener
+                    : Application.getInstance().getManagers(OnRosterChangedListener.class)) {
+                listener.onPresenceChanged(presenceChangedContacts);
+            }
+        }
+
+        // listeners are notified even if there are no roster contacts,
+        // because changed contact can be room or chat
+        for (OnContactChangedListener onContactChangedListener : Application
+                .getInstance().getUIListeners(OnContactChangedListener.class)) {
+            onContactChangedListener.onContactsChanged(entities);
+        }
+    }
+
+    private static class CachedPresence {
+        final Presence presence;
+        final StatusMode statusMode;
+
+        CachedPresence(Presence presence, StatusMode statusMode) {
+            this.presence = presence;
+            this.statusMode = statusMode;
+        }
+    }
+
+    private static class ChangedContact {
+        final AccountJid account;
+        final UserJid user;
+        boolean presenceChanged;
+
+        ChangedContact(AccountJid account, UserJid user) {
+            this.account = account;
+            this.user = user;
         }
-        onContactsChanged(entities);
     }
 }
@@ -24,6 +24,7 @@ import com.xabber.android.data.account.AccountManager;
 import com.xabber.android.data.account.listeners.OnAccountChangedListener;
 import com.xabber.android.data.entity.AccountJid;
 import com.xabber.android.data.entity.UserJid;
+import com.xabber.android.data.extension.avatar.AvatarsDecodedEvent;
 import com.xabber.android.data.extension.blocking.BlockingManager;
 import com.xabber.android.data.extension.blocking.OnBlockedListChangedListener;
 import com.xabber.android.data.intent.AccountIntentBuilder;
@@ -40,6 +41,7 @@ import com.xabber.android.ui.fragment.ContactVcardViewerFragment;
 import com.xabber.android.ui.helper.ContactTitleInflater;
 
 import org.greenrobot.eventbus.Subscribe;
+import org.greenrobot.eventbus.ThreadMode;
 
 import java.util.Collection;
 
@@ -303,6 +305,11 @@ public class AccountActivity extends ManagedActivity implements AccountOptionsAd
         updateTitle();
     }
 
+    @Subscribe(threadMode = ThreadMode.MAIN)
+    public void onAvatarsDecodedEvent(AvatarsDecodedEvent event) {
+        updateTitle();
+    }
+
     @Subscribe(sticky = true)
     @Override
     public void onAuthErrorEvent(AccountErrorEvent accountErrorEvent) {
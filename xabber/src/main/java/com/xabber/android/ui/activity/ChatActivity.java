@@ -548,8 +548,7 @@ public class ChatActivity extends ManagedActivity implements OnContactChangedLis
     @Override
     public void onBlockedListChanged(AccountJid account) {
         // if chat of blocked contact is currently opened, it should be closed
-        final Collection<UserJid> blockedContacts = BlockingManager.getInstance().getBlockedContacts(account);
-        if (blockedContacts.contains(user)) {
+        if (BlockingManager.getInstance().isBlocked(account, user)) {
             close();
         }
     }
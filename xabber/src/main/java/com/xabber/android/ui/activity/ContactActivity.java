@@ -33,6 +33,7 @@ import com.xabber.android.data.account.listeners.OnAccountChangedListener;
 import com.xabber.android.data.entity.AccountJid;
 import com.xabber.android.data.entity.BaseEntity;
 import com.xabber.android.data.entity.UserJid;
+import com.xabber.android.data.extension.avatar.AvatarsDecodedEvent;
 import com.xabber.android.data.extension.muc.MUCManager;
 import com.xabber.android.data.extension.vcard.VCardManager;
 import com.xabber.android.data.intent.AccountIntentBuilder;
@@ -47,6 +48,9 @@ import com.xabber.android.ui.fragment.ConferenceInfoFragment;
 import com.xabber.android.ui.fragment.ContactVcardViewerFragment;
 import com.xabber.android.ui.helper.ContactTitleInflater;
 
+import org.greenrobot.eventbus.Subscribe;
+import org.greenrobot.eventbus.ThreadMode;
+
 import java.util.Collection;
 
 public class ContactActivity extends ManagedActivity implements
@@ -211,4 +215,9 @@ public class ContactActivity extends ManagedActivity implements
     public void onVCardReceived() {
         ContactTitleInflater.updateTitle(contactTitleView, this, bestContact);
     }
+
+    @Subscribe(threadMode = ThreadMode.MAIN)
+    public void onAvatarsDecodedEvent(AvatarsDecodedEvent event) {
+        ContactTitleInflater.updateTitle(contactTitleView, this, bestContact);
+    }
 }
@@ -13,7 +13,9 @@ import android.view.MenuInflater;
 import android.view.MenuItem;
 
 import com.xabber.android.R;
+import com.xabber.android.data.Application;
 import com.xabber.android.data.log.LogManager;
+import com.xabber.android.data.log.TrafficCapture;
 import com.xabber.android.ui.adapter.LogFilesAdapter;
 import com.xabber.android.ui.color.BarPainter;
 import com.xabber.android.ui.helper.ToolbarHelper;
@@ -68,6 +70,10 @@ public class LogActivity extends ManagedActivity implements Toolbar.OnMenuItemCl
     @Override
     public boolean onOptionsItemSelected(MenuItem item) {
         switch (item.getItemId()) {
+            case R.id.action_dump_traffic:
+                dumpTraffic();
+                return true;
+
             case R.id.action_clear_log:
                 new AlertDialog.Builder(this)
                         .setTitle("Clear old logs")
@@ -87,6 +93,21 @@ public class LogActivity extends ManagedActivity implements Toolbar.OnMenuItemCl
         }
     }
 
+    private void dumpTraffic() {
+        Application.getInstance().runInBackground(new Runnable() {
+            @Override
+            public void run() {
+                TrafficCapture.getInstance().dump("requested by user");
+                Application.getInstance().runOnUiThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        updateFileList(logFilesAdapter);
+                    }
+                });
+            }
+        });
+    }
+
     private void clearLog() {
         LogManager.clearLogs();
     }
@@ -16,7 +16,6 @@ package com.xabber.android.ui.adapter;
 
 import android.content.Context;
 import android.content.res.ColorStateList;
-import android.graphics.Bitmap;
 import android.graphics.drawable.Drawable;
 import android.os.Build;
 import android.support.annotation.Nullable;
@@ -30,22 +29,23 @@ import android.widget.ImageView;
 import android.widget.ProgressBar;
 import android.widget.TextView;
 
+import com.bumptech.glide.DrawableRequestBuilder;
 import com.bumptech.glide.Glide;
 import com.bumptech.glide.load.resource.drawable.GlideDrawable;
 import com.bumptech.glide.request.RequestListener;
-import com.bumptech.glide.request.animation.GlideAnimation;
-import com.bumptech.glide.request.target.SimpleTarget;
 import com.bumptech.glide.request.target.Target;
 import com.xabber.android.R;
 import com.xabber.android.data.SettingsManager;
 import com.xabber.android.data.account.AccountItem;
 import com.xabber.android.data.account.AccountManager;
-import com.xabber.android.data.database.MessageDatabaseManager;
 import com.xabber.android.data.database.messagerealm.MessageItem;
 import com.xabber.android.data.entity.AccountJid;
 import com.xabber.android.data.entity.UserJid;
 import com.xabber.android.data.extension.avatar.AvatarManager;
 import com.xabber.android.data.extension.file.FileManager;
+import com.xabber.android.data.extension.file.ImageInfoManager;
+import com.xabber.android.data.extension.file.MediaCacheManager;
+import com.xabber.android.data.extension.httpfileupload.HttpFileUploadManager;
 import com.xabber.android.data.extension.muc.MUCManager;
 import com.xabber.android.data.extension.muc.RoomContact;
 import com.xabber.android.data.extension.otr.OTRManager;
@@ -61,11 +61,13 @@ import com.xabber.android.utils.StringUtils;
 import org.jxmpp.jid.impl.JidCreate;
 import org.jxmpp.jid.parts.Resourcepart;
 
+import java.io.File;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
 
-import io.realm.Realm;
+import github.ankushsachdeva.emojicon.EmojiconTextView;
+import io.realm.OrderedCollectionChangeSet;
 import io.realm.RealmRecyclerViewAdapter;
 import io.realm.RealmResults;
 
@@ -96,6 +98,7 @@ public class ChatMessageAdapter extends RealmRecyclerViewAdapter<MessageItem, Ch
     private UserJid user;
     private int prevItemCount;
     private List<String> itemsNeedOriginalText;
+    private final MessageRenderCache renderCache;
 
     public ChatMessageAdapter(Context context, RealmResults<MessageItem> messageItems, AbstractChat chat, ChatFragment chatFragment) {
         super(context, messageItems, true);
@@ -117,6 +120,8 @@ public class ChatMessageAdapter extends RealmRecyclerViewAdapter<MessageItem, Ch
         prevItemCount = getItemCount();
 
         itemsNeedOriginalText = new ArrayList<>();
+
+        renderCache = new MessageRenderCache(context);
     }
 
     public interface Listener {
@@ -128,6 +133,7 @@ public class ChatMessageAdapter extends RealmRecyclerViewAdapter<MessageItem, Ch
         if (itemsNeedOriginalText.contains(messageId))
             itemsNeedOriginalText.remove(messageId);
         else itemsNeedOriginalText.add(messageId);
+        notifyMessageChanged(messageId);
     }
 
     private void setUpOutgoingMessage(Message holder, final MessageItem messageItem) {
@@ -142,110 +148,75 @@ public class ChatMessageAdapter extends RealmRecyclerViewAdapter<MessageItem, Ch
             outgoingMessage.progressBar.setVisibility(View.GONE);
         }
 
+        Integer progress = null;
+        if (messageItem.isInProgress()) {
+            progress = HttpFileUploadManager.getInstance().getProgress(messageItem.getUniqueId());
+        }
+        outgoingMessage.messageFileInfo.setText(progress == null ? null : progress + "%");
+
         setUpImage(messageItem, outgoingMessage);
 
         setUpMessageBalloonBackground(holder.messageBalloon,
                 context.getResources().getColorStateList(R.color.outgoing_message_color_state_dark), R.drawable.message_outgoing_states);
     }
 
-    private void setUpImage(MessageItem messageItem, final Message messageHolder) {
+    private void setUpImage(final MessageItem messageItem, final Message messageHolder) {
         messageHolder.messageImage.setVisibility(View.GONE);
 
         if (!messageItem.isImage() || !SettingsManager.connectionLoadImages()) {
             return;
         }
 
-        if (messageItem.getFilePath() != null) {
-            boolean result = FileManager.loadImageFromFile(context, messageItem.getFilePath(), messageHolder.messageImage);
+        Integer imageWidth = messageItem.getImageWidth();
+        Integer imageHeight = messageItem.getImageHeight();
 
-            if (result) {
-                messageHolder.messageImage.setVisibility(View.VISIBLE);
-                messageHolder.messageText.setVisibility(View.GONE);
-            } else {
-                final String uniqueId = messageItem.getUniqueId();
-                final Realm realm = MessageDatabaseManager.getInstance().getRealmUiThread();
-                realm.executeTransactionAsync(new Realm.Transaction() {
+        if (imageWidth == null || imageHeight == null) {
+            // message will be updated when dimensions are stored
+            ImageInfoManager.getInstance().request(messageItem);
+            return;
+        }
+
+        final ViewGroup.LayoutParams layoutParams = messageHolder.messageImage.getLayoutParams();
+        FileManager.scaleImage(layoutParams, imageHeight, imageWidth);
+        messageHolder.messageImage.setLayoutParams(layoutParams);
+
+        String model = messageItem.getFilePath();
+        final boolean cached;
+        if (model == null) {
+            File cachedFile = MediaCacheManager.getInstance().getCachedFile(messageItem.getText());
+            cached = cachedFile != null;
+            model = cached ? cachedFile.getPath() : messageItem.getText();
+        } else {
+            cached = false;
+        }
+        DrawableRequestBuilder<String> request = Glide.with(context).load(model);
+        byte[] thumbnail = messageItem.getImageThumbnail();
+        if (thumbnail != null) {
+            request = request.thumbnail(Glide.with(context).load(thumbnail));
+        }
+        request.listener(new RequestListener<String, GlideDrawable>() {
                     @Override
-                    public void execute(Realm realm) {
-                        MessageItem first = realm.where(MessageItem.class)
-                                .equalTo(MessageItem.Fields.UNIQUE_ID, uniqueId)
-                                .findFirst();
-                        if (first != null) {
-                            first.setFilePath(null);
+                    public boolean onException(Exception e, String model, Target<GlideDrawable> target, boolean isFirstResource) {
+                        if (cached && messageItem.isValid()) {
+                            // cached file was removed, load from URL while it is downloaded again
+                            MediaCacheManager.getInstance().invalidate(messageItem.getText());
+                            Glide.with(context).load(messageItem.getText()).into(messageHolder.messageImage);
+                            return true;
                         }
+                        messageHolder.messageImage.setVisibility(View.GONE);
+                        messageHolder.messageText.setVisibility(View.VISIBLE);
+                        return true;
                     }
-                });
-            }
-        } else {
-            final ViewGroup.LayoutParams layoutParams = messageHolder.messageImage.getLayoutParams();
-
-            Integer imageWidth = messageItem.getImageWidth();
-            Integer imageHeight = messageItem.getImageHeight();
-
-            if (imageWidth != null && imageHeight != null) {
-                FileManager.scaleImage(layoutParams, imageHeight, imageWidth);
-                Glide.with(context)
-                        .load(messageItem.getText())
-                        .listener(new RequestListener<String, GlideDrawable>() {
-                            @Override
-                            public boolean onException(Exception e, String model, Target<GlideDrawable> target, boolean isFirstResource) {
-                                messageHolder.messageImage.setVisibility(View.GONE);
-                                messageHolder.messageText.setVisibility(View.VISIBLE);
-                                return true;
-                            }
-
-                            @Override
-                            public boolean onResourceReady(GlideDrawable resource, String model, Target<GlideDrawable> target, boolean isFromMemoryCache, boolean isFirstResource) {
-                                return false;
-                            }
-                        })
-                        .into(messageHolder.messageImage);
-
-                messageHolder.messageImage.setVisibility(View.VISIBLE);
-                messageHolder.messageText.setVisibility(View.GONE);
-            } else {
-                final String uniqueId = messageItem.getUniqueId();
-
-                Glide.with(context)
-                        .load(messageItem.getText())
-                        .asBitmap()
-                        .into(new SimpleTarget<Bitmap>() {
-                            @Override
-                            public void onResourceReady(final Bitmap resource, GlideAnimation<? super Bitmap> glideAnimation) {
-                                final int width = resource.getWidth();
-                                final int height = resource.getHeight();
-
-                                if (width <= 0 || height <= 0) {
-                                    messageHolder.messageImage.setVisibility(View.GONE);
-                                    messageHolder.messageText.setVisibility(View.VISIBLE);
-                                    return;
-                                }
-
-                                final Realm realm = MessageDatabaseManager.getInstance().getRealmUiThread();
-                                realm.executeTransactionAsync(new Realm.Transaction() {
-                                    @Override
-                                    public void execute(Realm realm) {
-                                        MessageItem first = realm.where(MessageItem.class)
-                                                .equalTo(MessageItem.Fields.UNIQUE_ID, uniqueId)
-                                                .findFirst();
-                                        if (first != null) {
-                                            first.setImageWidth(width);
-                                            first.setImageHeight(height);
-                                        }
-                                    }
-                                });
-
-
-                                FileManager.scaleImage(layoutParams, height, width);
-
-                                messageHolder.messageImage.setImageBitmap(resource);
-
-                                messageHolder.messageImage.setVisibility(View.VISIBLE);
-                                messageHolder.messageText.setVisibility(View.GONE);
-                            }
-                        });
-            }
-        }
+
+                    @Override
+                    public boolean onResourceReady(GlideDrawable resource, String model, Target<GlideDrawable> target, boolean isFromMemoryCache, boolean isFirstResource) {
+                        return false;
+                    }
+                })
+                .into(messageHolder.messageImage);
+
+        messageHolder.messageImage.setVisibility(View.VISIBLE);
+        messageHolder.messageText.setVisibility(View.GONE);
     }
 
     private void setUpIncomingMessage(final IncomingMessage incomingMessage, final MessageItem messageItem) {
@@ -417,9 +388,11 @@ public class ChatMessageAdapter extends RealmRecyclerViewAdapter<MessageItem, Ch
 
             case VIEW_TYPE_INCOMING_MESSAGE:
                 setUpIncomingMessage((IncomingMessage) holder, messageItem);
+                renderCache.prefetch(realmResults, position);
                 break;
             case VIEW_TYPE_OUTGOING_MESSAGE:
                 setUpOutgoingMessage((Message) holder, messageItem);
+                renderCache.prefetch(realmResults, position);
                 break;
         }
     }
@@ -449,9 +422,27 @@ public class ChatMessageAdapter extends RealmRecyclerViewAdapter<MessageItem, Ch
         }
     }
 
+    /**
+     * Rebinds file message with changed upload progress.
+     */
+    public void onUploadProgress(String uniqueId) {
+        notifyMessageChanged(uniqueId);
+    }
+
+    private void notifyMessageChanged(String uniqueId) {
+        // changed messages are usually the last ones
+        for (int position = getItemCount() - 1; position >= 0; position--) {
+            MessageItem messageItem = getMessageItem(position);
+            if (messageItem != null && uniqueId.equals(messageItem.getUniqueId())) {
+                notifyItemChanged(position);
+                return;
+            }
+        }
+    }
+
     @Override
-    public void onChange() {
-        notifyDataSetChanged();
+    public void onChange(@Nullable OrderedCollectionChangeSet changeSet) {
+        super.onChange(changeSet);
         listener.onMessagesUpdated();
         int itemCount = getItemCount();
         if (prevItemCount != itemCount) {
@@ -474,7 +465,11 @@ public class ChatMessageAdapter extends RealmRecyclerViewAdapter<MessageItem, Ch
             message.ivEncrypted.setVisibility(View.GONE);
         }
 
-        message.messageText.setText(messageItem.getText());
+        EmojiconTextView messageText = (EmojiconTextView) message.messageText;
+        renderCache.setEmojiconSize(messageText.getEmojiconSize());
+        MessageRenderCache.RenderedMessage renderedMessage = renderCache.get(messageItem);
+
+        messageText.setPreparedText(renderedMessage.getText());
         if (OTRManager.getInstance().isEncrypted(messageItem.getText())) {
             if (itemsNeedOriginalText.contains(messageItem.getUniqueId()))
                 message.messageText.setVisibility(View.VISIBLE);
@@ -485,16 +480,7 @@ public class ChatMessageAdapter extends RealmRecyclerViewAdapter<MessageItem, Ch
             message.messageNotDecrypted.setVisibility(View.GONE);
         }
 
-        String time = StringUtils.getSmartTimeText(context, new Date(messageItem.getTimestamp()));
-
-        Long delayTimestamp = messageItem.getDelayTimestamp();
-        if (delayTimestamp != null) {
-            String delay = context.getString(messageItem.isIncoming() ? R.string.chat_delay : R.string.chat_typed,
-                    StringUtils.getSmartTimeText(context, new Date(delayTimestamp)));
-            time += " (" + delay + ")";
-        }
-
-        message.messageTime.setText(time);
+        message.messageTime.setText(renderedMessage.getTime());
     }
 
     private void setStatusIcon(MessageItem messageItem, OutgoingMessage message) {
@@ -14,22 +14,14 @@
  */
 package com.xabber.android.ui.adapter;
 
-import com.xabber.android.data.message.AbstractChat;
-import com.xabber.android.data.message.MessageManager;
-import com.xabber.android.data.roster.AbstractContact;
-
 public class ComparatorByChat extends ComparatorByName {
 
     public static final ComparatorByChat COMPARATOR_BY_CHAT = new ComparatorByChat();
 
     @Override
-    public int compare(AbstractContact contact1, AbstractContact contact2) {
-        final MessageManager messageManager = MessageManager.getInstance();
-        final AbstractChat abstractChat1 = messageManager.getChat(contact1.getAccount(), contact1.getUser());
-        final AbstractChat abstractChat2 = messageManager.getChat(contact2.getAccount(), contact2.getUser());
-
-        final boolean hasActiveChat1 = abstractChat1 != null && abstractChat1.isActive();
-        final boolean hasActiveChat2 = abstractChat2 != null && abstractChat2.isActive();
+    public int compare(ContactSortKey contact1, ContactSortKey contact2) {
+        final boolean hasActiveChat1 = contact1.hasActiveChat();
+        final boolean hasActiveChat2 = contact2.hasActiveChat();
 
         if (hasActiveChat1 && !hasActiveChat2) {
             return -1;
@@ -40,10 +32,11 @@ public class ComparatorByChat extends ComparatorByName {
         }
 
         if (hasActiveChat1) {
-            int result;
-            result = ChatComparator.CHAT_COMPARATOR.compare(abstractChat1, abstractChat2);
-            if (result != 0) {
-                return result;
+            // the most recent first, chats without messages last
+            long lastActivity1 = contact1.getLastActivity();
+            long lastActivity2 = contact2.getLastActivity();
+            if (lastActivity1 != lastActivity2) {
+                return lastActivity1 > lastActivity2 ? -1 : 1;
             }
         }
 
@@ -14,18 +14,16 @@
  */
 package com.xabber.android.ui.adapter;
 
-import com.xabber.android.data.roster.AbstractContact;
-
 import java.util.Comparator;
 
-public class ComparatorByName implements Comparator<AbstractContact> {
+public class ComparatorByName implements Comparator<ContactSortKey> {
 
     public static final ComparatorByName COMPARATOR_BY_NAME = new ComparatorByName();
 
     @Override
-    public int compare(AbstractContact object1, AbstractContact object2) {
+    public int compare(ContactSortKey object1, ContactSortKey object2) {
         int result;
-        result = object1.getName().compareToIgnoreCase(object2.getName());
+        result = object1.getNameKey().compareTo(object2.getNameKey());
         if (result != 0)
             return result;
         return object1.getAccount().compareTo(object2.getAccount());
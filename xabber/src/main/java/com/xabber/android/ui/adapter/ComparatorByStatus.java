@@ -14,14 +14,12 @@
  */
 package com.xabber.android.ui.adapter;
 
-import com.xabber.android.data.roster.AbstractContact;
-
 public class ComparatorByStatus extends ComparatorByName {
 
     public static final ComparatorByStatus COMPARATOR_BY_STATUS = new ComparatorByStatus();
 
     @Override
-    public int compare(AbstractContact object1, AbstractContact object2) {
+    public int compare(ContactSortKey object1, ContactSortKey object2) {
         int result;
         result = object1.getStatusMode().compareTo(object2.getStatusMode());
         if (result != 0)
@@ -0,0 +1,194 @@
+package com.xabber.android.ui.adapter;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import com.xabber.android.data.account.StatusMode;
+import com.xabber.android.data.entity.AccountJid;
+import com.xabber.android.data.message.AbstractChat;
+import com.xabber.android.data.message.MessageManager;
+import com.xabber.android.data.roster.AbstractContact;
+import com.xabber.android.data.roster.ContactSearchIndex;
+import com.xabber.android.data.roster.Group;
+
+import java.text.CollationKey;
+import java.text.Collator;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Immutable snapshot of contact's properties used for sorting and grouping.
+ * <p/>
+ * Name, status, groups and chat of contact are expensive to get and are
+ * changed on UI thread, so they are collected there once per contact list
+ * build. Comparators and contact list builder operate on this snapshot only.
+ */
+public class ContactSortKey {
+
+    private static final Collator COLLATOR = createCollator();
+
+    @NonNull
+    private final AbstractContact contact;
+
+    @NonNull
+    private final AccountJid account;
+
+    @NonNull
+    private final String name;
+
+    /**
+     * Collation key for name. Created on first comparison, so that it is
+     * created on the thread where keys are sorted.
+     */
+    private CollationKey nameKey;
+
+    @NonNull
+    private final StatusMode statusMode;
+
+    /**
+     * Names of groups to display contact in.
+     */
+    @NonNull
+    private final Collection<String> groups;
+
+    private final boolean activeChat;
+
+    /**
+     * Time of last message in chat or <code>0</code> if there is no one.
+     */
+    private final long lastActivity;
+
+    /**
+     * Normalized search terms or <code>null</code> if they were not requested.
+     */
+    @Nullable
+    private final String[] searchTerms;
+
+    private ContactSortKey(@NonNull AbstractContact contact, @NonNull String name,
+                           @NonNull StatusMode statusMode, @NonNull Collection<String> groups,
+                           boolean activeChat, long lastActivity, @Nullable String[] searchTerms) {
+        this.contact = contact;
+        this.account = contact.getAccount();
+        this.name = name;
+        this.statusMode = statusMode;
+        this.groups = groups;
+        this.activeChat = activeChat;
+        this.lastActivity = lastActivity;
+        this.searchTerms = searchTerms;
+    }
+
+    private static Collator createCollator() {
+        Collator collator = Collator.getInstance();
+        // ignore case like String.compareToIgnoreCase()
+        collator.setStrength(Collator.SECONDARY);
+        return collator;
+    }
+
+    /**
+     * Should be called on UI thread.
+     *
+     * @param groups names of groups to display contact in.
+     * @param search whether search terms should be collected.
+     */
+    @NonNull
+    public static ContactSortKey create(@NonNull AbstractContact contact,
+                                        @NonNull Collection<String> groups, boolean search) {
+        AbstractChat chat = MessageManager.getInstance().getChat(contact.getAccount(), contact.getUser());
+        boolean activeChat = chat != null && chat.isActive();
+        Date lastTime = chat == null ? null : chat.getLastTime();
+
+        return new ContactSortKey(contact, contact.getName(), contact.getStatusMode(),
+                Collections.unmodifiableCollection(groups), activeChat,
+                lastTime == null ? 0 : lastTime.getTime(),
+                search ? ContactSearchIndex.getInstance().getTerms(contact) : null);
+    }
+
+    /**
+     * Should be called on UI thread.
+     *
+     * @param search whether search terms should be collected.
+     * @return snapshot with names of contact's roster groups.
+     */
+    @NonNull
+    public static ContactSortKey create(@NonNull AbstractContact contact, boolean search) {
+        Collection<? extends Group> contactGroups = contact.getGroups();
+        List<String> groups = new ArrayList<>(contactGroups.size());
+        for (Group group : contactGroups) {
+            groups.add(group.getName());
+        }
+        return create(contact, groups, search);
+    }
+
+    /**
+     * Sorts snapshots.
+     *
+     * @return contacts in sorted order.
+     */
+    @NonNull
+    public static List<AbstractContact> sortKeys(List<ContactSortKey> keys,
+                                                 Comparator<ContactSortKey> comparator) {
+        Collections.sort(keys, comparator);
+        List<AbstractContact> contacts = new ArrayList<>(keys.size());
+        for (ContactSortKey key : keys) {
+            contacts.add(key.contact);
+        }
+        return contacts;
+    }
+
+    @NonNull
+    public AbstractContact getContact() {
+        return contact;
+    }
+
+    @NonNull
+    public AccountJid getAccount() {
+        return account;
+    }
+
+    @NonNull
+    public String getName() {
+        return name;
+    }
+
+    @NonNull
+    CollationKey getNameKey() {
+        if (nameKey == null) {
+            synchronized (COLLATOR) {
+                nameKey = COLLATOR.getCollationKey(name);
+            }
+        }
+        return nameKey;
+    }
+
+    @NonNull
+    public StatusMode getStatusMode() {
+        return statusMode;
+    }
+
+    @NonNull
+    public Collection<String> getGroups() {
+        return groups;
+    }
+
+    public boolean hasActiveChat() {
+        return activeChat;
+    }
+
+    long getLastActivity() {
+        return lastActivity;
+    }
+
+    /**
+     * @return normalized search terms or <code>null</code> if they were not
+     * requested.
+     */
+    @Nullable
+    public String[] getSearchTerms() {
+        return searchTerms;
+    }
+
+}
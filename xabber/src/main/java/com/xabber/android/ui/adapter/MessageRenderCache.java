@@ -0,0 +1,235 @@
+package com.xabber.android.ui.adapter;
+
+import android.content.Context;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.text.SpannableStringBuilder;
+import android.text.SpannedString;
+import android.text.util.Linkify;
+import android.util.LruCache;
+
+import com.xabber.android.R;
+import com.xabber.android.data.database.messagerealm.MessageItem;
+import com.xabber.android.utils.StringUtils;
+
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.Date;
+import java.util.GregorianCalendar;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import github.ankushsachdeva.emojicon.EmojiconHandler;
+import io.realm.RealmResults;
+
+/**
+ * Bounded cache of message texts with emojicon and link spans and of
+ * formatted message times, keyed by message id.
+ * <p/>
+ * Each entry keeps version of content it was rendered from: text,
+ * timestamps, emojicon size and current day, as time of today's messages
+ * is shown without date. Messages around bound position are rendered in
+ * background in advance.
+ */
+class MessageRenderCache {
+
+    private static final int MAX_SIZE = 256;
+
+    /**
+     * Number of messages before and after bound one to be rendered in advance.
+     */
+    private static final int PREFETCH_DISTANCE = 20;
+
+    /**
+     * Same as "all" auto link mask of message view except map addresses,
+     * which can't be detected outside of UI thread.
+     */
+    private static final int LINKIFY_MASK = Linkify.WEB_URLS | Linkify.EMAIL_ADDRESSES | Linkify.PHONE_NUMBERS;
+
+    private static final ExecutorService executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(@NonNull Runnable runnable) {
+            Thread thread = new Thread(runnable, "Message renderer");
+            thread.setPriority(Thread.MIN_PRIORITY);
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    static class RenderedMessage {
+        private final long version;
+        private final CharSequence text;
+        private final String time;
+
+        private RenderedMessage(long version, CharSequence text, String time) {
+            this.version = version;
+            this.text = text;
+            this.time = time;
+        }
+
+        /**
+         * @return immutable text to be set with
+         * {@link github.ankushsachdeva.emojicon.EmojiconTextView#setPreparedText(CharSequence)}.
+         */
+        CharSequence getText() {
+            return text;
+        }
+
+        String getTime() {
+            return time;
+        }
+    }
+
+    private final Context context;
+
+    private final LruCache<String, RenderedMessage> cache;
+
+    /**
+     * Ids of messages queued for rendering in background.
+     */
+    private final Set<String> queued;
+
+    /**
+     * Unknown until first message view is bound.
+     */
+    private volatile int emojiconSize;
+
+    /**
+     * Start of current and next days. Guarded by this.
+     */
+    private long today;
+    private long tomorrow;
+
+    MessageRenderCache(Context context) {
+        this.context = context.getApplicationContext();
+        cache = new LruCache<>(MAX_SIZE);
+        queued = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    }
+
+    void setEmojiconSize(int emojiconSize) {
+        this.emojiconSize = emojiconSize;
+    }
+
+    /**
+     * @return cached entry or entry rendered in calling thread if content
+     * was changed or was not rendered yet.
+     */
+    @NonNull
+    RenderedMessage get(MessageItem messageItem) {
+        Content content = new Content(messageItem);
+        int emojiconSize = this.emojiconSize;
+        long today = getToday();
+
+        RenderedMessage rendered = cache.get(content.uniqueId);
+        if (rendered == null || rendered.version != content.getVersion(emojiconSize, today)) {
+            rendered = render(content, emojiconSize, today);
+            cache.put(content.uniqueId, rendered);
+        }
+        return rendered;
+    }
+
+    /**
+     * Renders messages around position in background, if they are not
+     * cached yet.
+     */
+    void prefetch(RealmResults<MessageItem> messageItems, int position) {
+        final int emojiconSize = this.emojiconSize;
+        if (emojiconSize == 0) {
+            return;
+        }
+
+        final List<Content> contents = new ArrayList<>();
+        int end = Math.min(messageItems.size(), position + PREFETCH_DISTANCE + 1);
+        for (int index = Math.max(0, position - PREFETCH_DISTANCE); index < end; index++) {
+            MessageItem messageItem = messageItems.get(index);
+            if (messageItem.getAction() != null) {
+                continue;
+            }
+            String uniqueId = messageItem.getUniqueId();
+            if (cache.get(uniqueId) == null && queued.add(uniqueId)) {
+                contents.add(new Content(messageItem));
+            }
+        }
+        if (contents.isEmpty()) {
+            return;
+        }
+
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                long today = getToday();
+                for (Content content : contents) {
+                    cache.put(content.uniqueId, render(content, emojiconSize, today));
+                    queued.remove(content.uniqueId);
+                }
+            }
+        });
+    }
+
+    private RenderedMessage render(Content content, int emojiconSize, long today) {
+        SpannableStringBuilder builder = new SpannableStringBuilder(content.text);
+        EmojiconHandler.addEmojis(context, builder, emojiconSize);
+        Linkify.addLinks(builder, LINKIFY_MASK);
+
+        String time = StringUtils.getSmartTimeText(context, new Date(content.timestamp));
+        if (content.delayTimestamp != null) {
+            String delay = context.getString(content.incoming ? R.string.chat_delay : R.string.chat_typed,
+                    StringUtils.getSmartTimeText(context, new Date(content.delayTimestamp)));
+            time += " (" + delay + ")";
+        }
+
+        // not spannable, so that text views will not attach own spans to shared instance
+        return new RenderedMessage(content.getVersion(emojiconSize, today), new SpannedString(builder), time);
+    }
+
+    private synchronized long getToday() {
+        long now = System.currentTimeMillis();
+        if (now < today || now >= tomorrow) {
+            Calendar calendar = new GregorianCalendar();
+            calendar.set(Calendar.HOUR_OF_DAY, 0);
+            calendar.set(Calendar.MINUTE, 0);
+            calendar.set(Calendar.SECOND, 0);
+            calendar.set(Calendar.MILLISECOND, 0);
+            today = calendar.getTimeInMillis();
+            calendar.add(Calendar.DAY_OF_MONTH, 1);
+            tomorrow = calendar.getTimeInMillis();
+        }
+        return today;
+    }
+
+    /**
+     * Fields of message used for rendering, can be passed to other thread.
+     */
+    private static class Content {
+        final String uniqueId;
+        final String text;
+        final long timestamp;
+        @Nullable
+        final Long delayTimestamp;
+        final boolean incoming;
+
+        Content(MessageItem messageItem) {
+            uniqueId = messageItem.getUniqueId();
+            text = messageItem.getText() == null ? "" : messageItem.getText();
+            timestamp = messageItem.getTimestamp();
+            delayTimestamp = messageItem.getDelayTimestamp();
+            incoming = messageItem.isIncoming();
+        }
+
+        long getVersion(int emojiconSize, long today) {
+            long result = text.hashCode();
+            result = 31 * result + timestamp;
+            result = 31 * result + (delayTimestamp == null ? 0 : delayTimestamp);
+            result = 31 * result + (incoming ? 1 : 0);
+            result = 31 * result + emojiconSize;
+            result = 31 * result + today;
+            return result;
+        }
+    }
+
+}
@@ -15,6 +15,7 @@ import com.xabber.android.data.entity.BaseEntity;
 import com.xabber.android.data.extension.capability.ClientSoftware;
 import com.xabber.android.data.extension.muc.MUCManager;
 import com.xabber.android.data.extension.otr.OTRManager;
+import com.xabber.android.data.extension.vcard.VCardManager;
 import com.xabber.android.data.message.MessageManager;
 import com.xabber.android.data.roster.AbstractContact;
 import com.xabber.android.ui.activity.ContactActivity;
@@ -54,6 +55,7 @@ class ContactItemInflater {
         }
 
         viewHolder.name.setText(contact.getName());
+        VCardManager.getInstance().onContactShown(contact.getAccount(), contact.getUser().getJid());
 
         MessageManager messageManager = MessageManager.getInstance();
         if (MUCManager.getInstance().isMucPrivateChat(contact.getAccount(), contact.getUser())) {
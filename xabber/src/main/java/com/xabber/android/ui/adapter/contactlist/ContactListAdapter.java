@@ -20,6 +20,9 @@ import android.content.res.TypedArray;
 import android.graphics.drawable.ColorDrawable;
 import android.os.Build;
 import android.os.Handler;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.v7.util.DiffUtil;
 import android.support.v7.widget.RecyclerView;
 import android.util.TypedValue;
 import android.view.ContextMenu;
@@ -48,6 +51,7 @@ import com.xabber.android.data.message.AbstractChat;
 import com.xabber.android.data.message.ChatContact;
 import com.xabber.android.data.message.MessageManager;
 import com.xabber.android.data.roster.AbstractContact;
+import com.xabber.android.data.roster.ContactSearchIndex;
 import com.xabber.android.data.roster.GroupManager;
 import com.xabber.android.data.roster.RosterContact;
 import com.xabber.android.data.roster.RosterManager;
@@ -57,6 +61,7 @@ import com.xabber.android.data.xaccount.XabberAccountManager;
 import com.xabber.android.ui.activity.AccountActivity;
 import com.xabber.android.ui.activity.ManagedActivity;
 import com.xabber.android.ui.adapter.ComparatorByChat;
+import com.xabber.android.ui.adapter.ContactSortKey;
 import com.xabber.android.ui.adapter.UpdatableAdapter;
 import com.xabber.android.ui.helper.ContextMenuHelper;
 
@@ -65,11 +70,16 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.List;
-import java.util.Locale;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 
 /**
  * Adapter for contact list in the main activity.
@@ -97,8 +107,34 @@ public class ContactListAdapter extends RecyclerView.Adapter<RecyclerView.ViewHo
     private static final int TYPE_ACCOUNT = 2;
     private static final int TYPE_ACCOUNT_TOP_SEPARATOR = 3;
     private static final int TYPE_ACCOUNT_BOTTOM_SEPARATOR = 4;
+
+    /**
+     * Executor for contact list builds. Shared by all adapters, because only
+     * one contact list is displayed at a time.
+     */
+    private static final ExecutorService REBUILD_EXECUTOR
+            = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(@NonNull Runnable runnable) {
+            Thread thread = new Thread(runnable, "Contact list builder");
+            thread.setPriority(Thread.MIN_PRIORITY);
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
     private final ArrayList<Object> baseEntities = new ArrayList<>();
 
+    /**
+     * States of {@link #baseEntities} at the moment they were built.
+     */
+    private List<ContactListItemState> itemStates = new ArrayList<>();
+
+    /**
+     * Build in progress. Can be <code>null</code>.
+     */
+    private RebuildTask rebuildTask;
+
     /**
      * Handler for deferred refresh.
      */
@@ -117,7 +153,6 @@ public class ContactListAdapter extends RecyclerView.Adapter<RecyclerView.ViewHo
     private final int activeChatsColor;
     private final ContactItemInflater contactItemInflater;
     private final int accountElevation;
-    protected Locale locale = Locale.getDefault();
     private AccountGroupViewHolder.AccountGroupClickListener accountGroupClickListener;
 
     /**
@@ -205,6 +240,10 @@ public class ContactListAdapter extends RecyclerView.Adapter<RecyclerView.ViewHo
             refreshInProgress = false;
             handler.removeCallbacks(this);
         }
+        if (rebuildTask != null) {
+            rebuildTask.cancel();
+            rebuildTask = null;
+        }
     }
 
     @Override
@@ -215,47 +254,144 @@ public class ContactListAdapter extends RecyclerView.Adapter<RecyclerView.ViewHo
             handler.removeCallbacks(this);
         }
 
-        final Collection<RosterContact> allRosterContacts = RosterManager.getInstance().getAllContacts();
+        // newer build makes the running one useless
+        if (rebuildTask != null) {
+            rebuildTask.cancel();
+        }
+        rebuildTask = createRebuildTask();
+        rebuildTask.future = REBUILD_EXECUTOR.submit(rebuildTask);
+    }
 
-        Map<AccountJid, Collection<UserJid>> blockedContacts = new TreeMap<>();
-        for (AccountJid account : AccountManager.getInstance().getEnabledAccounts()) {
-            blockedContacts.put(account, BlockingManager.getInstance().getBlockedContacts(account));
+    /**
+     * Collects everything needed to build contact list. Contacts, chats,
+     * accounts and groups are changed on UI thread, so they are read here and
+     * build operates on immutable snapshots only.
+     */
+    private RebuildTask createRebuildTask() {
+        final boolean search = filterString != null;
+        final Collection<AccountJid> enabledAccounts = AccountManager.getInstance().getEnabledAccounts();
+
+        final Map<AccountJid, String> accountStates = new HashMap<>();
+        final GroupStateSnapshot groupStates = new GroupStateSnapshot(GroupManager.getInstance());
+        groupStates.add(GroupManager.NO_ACCOUNT, GroupManager.ACTIVE_CHATS);
+        for (AccountJid account : enabledAccounts) {
+            accountStates.put(account, ContactListItemState.getAccountState(account));
+            groupStates.add(account, GroupManager.IS_ACCOUNT);
         }
 
-        final Collection<RosterContact> rosterContacts = new ArrayList<>();
-        for (RosterContact contact : allRosterContacts) {
-            if (blockedContacts.containsKey(contact.getAccount())) {
-                if (!blockedContacts.get(contact.getAccount()).contains(contact.getUser())) {
-                    rosterContacts.add(contact);
+        /**
+         * List of rooms and active chats grouped by users inside accounts.
+         */
+        final Map<AccountJid, Map<UserJid, AbstractChat>> abstractChats = new TreeMap<>();
+
+        for (AbstractChat abstractChat : MessageManager.getInstance().getChats()) {
+            if ((abstractChat instanceof RoomChat || abstractChat.isActive())
+                    && enabledAccounts.contains(abstractChat.getAccount())) {
+                final AccountJid account = abstractChat.getAccount();
+                Map<UserJid, AbstractChat> users = abstractChats.get(account);
+                if (users == null) {
+                    users = new TreeMap<>();
+                    abstractChats.put(account, users);
                 }
+                users.put(abstractChat.getUser(), abstractChat);
             }
         }
 
-        final boolean showOffline = SettingsManager.contactsShowOffline();
-        final boolean showGroups = SettingsManager.contactsShowGroups();
-        final boolean showEmptyGroups = SettingsManager.contactsShowEmptyGroups();
-        final boolean showActiveChats = SettingsManager.contactsShowActiveChats();
-        final boolean stayActiveChats = SettingsManager.contactsStayActiveChats();
-        final boolean showAccounts = SettingsManager.contactsShowAccounts();
-        final Comparator<AbstractContact> comparator = SettingsManager.contactsOrder();
-        final CommonState commonState = AccountManager.getInstance().getCommonState();
-        final AccountJid selectedAccount = AccountManager.getInstance().getSelectedAccount();
+        final Map<AbstractContact, ContactListItemState> contactStates = new IdentityHashMap<>();
 
+        final List<ContactSortKey> rosterContacts = new ArrayList<>();
+        for (RosterContact rosterContact : RosterManager.getInstance().getAllContacts()) {
+            final AccountJid account = rosterContact.getAccount();
+            if (!enabledAccounts.contains(account) || !rosterContact.isEnabled()
+                    || BlockingManager.getInstance().isBlocked(account, rosterContact.getUser())) {
+                continue;
+            }
+            final Map<UserJid, AbstractChat> users = abstractChats.get(account);
+            if (users != null) {
+                users.remove(rosterContact.getUser());
+            }
+            final ContactSortKey sortKey = ContactSortKey.create(rosterContact, search);
+            rosterContacts.add(sortKey);
+            contactStates.put(rosterContact,
+                    ContactListItemState.createForContact(sortKey, accountStates.get(account)));
+            groupStates.addContactGroups(account, sortKey.getGroups());
+        }
 
-        /**
-         * Groups.
-         */
-        final Map<String, GroupConfiguration> groups;
+        final List<ContactSortKey> chatContacts = new ArrayList<>();
+        for (Map<UserJid, AbstractChat> users : abstractChats.values()) {
+            for (AbstractChat abstractChat : users.values()) {
+                final AbstractContact abstractContact;
+                final String group;
+                if (abstractChat instanceof RoomChat) {
+                    abstractContact = new RoomContact((RoomChat) abstractChat);
+                    group = GroupManager.IS_ROOM;
+                } else {
+                    abstractContact = new ChatContact(abstractChat);
+                    if (MUCManager.getInstance().isMucPrivateChat(abstractChat.getAccount(),
+                            abstractChat.getUser())) {
+                        group = GroupManager.IS_ROOM;
+                    } else {
+                        group = GroupManager.NO_GROUP;
+                    }
+                }
+                final ContactSortKey sortKey = ContactSortKey.create(abstractContact,
+                        Collections.singletonList(group), search);
+                chatContacts.add(sortKey);
+                contactStates.put(abstractContact, ContactListItemState.createForContact(
+                        sortKey, accountStates.get(abstractChat.getAccount())));
+                groupStates.addContactGroups(abstractChat.getAccount(), sortKey.getGroups());
+            }
+        }
 
-        /**
-         * Contacts.
-         */
-        final List<AbstractContact> contacts;
+        return new RebuildTask(filterString, itemStates, rosterContacts, chatContacts,
+                contactStates, accountStates, groupStates, enabledAccounts,
+                AccountManager.getInstance().getSelectedAccount(),
+                AccountManager.getInstance().getCommonState());
+    }
 
-        /**
-         * List of active chats.
-         */
-        final GroupConfiguration activeChats;
+    /**
+     * Rebinds displayed items, so that decoded avatars are shown.
+     */
+    public void onAvatarsDecoded() {
+        notifyItemRangeChanged(0, getItemCount());
+    }
+
+    /**
+     * Applies built list. Called on UI thread.
+     */
+    @SuppressWarnings("WeakerAccess")
+    void onRebuilt(RebuildTask task, RebuildResult result, DiffUtil.DiffResult diffResult) {
+        if (task != rebuildTask) {
+            return;
+        }
+        rebuildTask = null;
+
+        baseEntities.clear();
+        baseEntities.addAll(result.entities);
+        itemStates = result.states;
+        hasActiveChats = result.hasActiveChats;
+        diffResult.dispatchUpdatesTo(this);
+
+        listener.onContactListChanged(result.commonState, result.hasContacts,
+                result.hasVisibleContacts, task.filterString != null);
+
+        synchronized (refreshLock) {
+            nextRefresh = new Date(new Date().getTime() + REFRESH_INTERVAL);
+            refreshInProgress = false;
+            handler.removeCallbacks(this); // Just to be sure.
+            if (refreshRequested) {
+                handler.postDelayed(this, REFRESH_INTERVAL);
+            }
+        }
+    }
+
+    /**
+     * Result of contact list build.
+     */
+    private static class RebuildResult {
+        final ArrayList<Object> entities = new ArrayList<>();
+        final List<ContactListItemState> states = new ArrayList<>();
+        CommonState commonState;
 
         /**
          * Whether there is at least one contact.
@@ -267,243 +403,313 @@ public class ContactListAdapter extends RecyclerView.Adapter<RecyclerView.ViewHo
          */
         boolean hasVisibleContacts = false;
 
-        final Map<AccountJid, AccountConfiguration> accounts = new TreeMap<>();
+        boolean hasActiveChats = false;
+    }
 
-        for (AccountJid account : AccountManager.getInstance().getEnabledAccounts()) {
-            accounts.put(account, null);
-        }
+    /**
+     * Builds contact list and finds its difference with displayed one in
+     * background.
+     */
+    private class RebuildTask implements Runnable {
 
         /**
-         * List of rooms and active chats grouped by users inside accounts.
+         * Filter string. Can be <code>null</code> if filter is disabled.
          */
-        final Map<AccountJid, Map<UserJid, AbstractChat>> abstractChats = new TreeMap<>();
+        final String filterString;
 
-        for (AbstractChat abstractChat : MessageManager.getInstance().getChats()) {
-            if ((abstractChat instanceof RoomChat || abstractChat.isActive())
-                    && accounts.containsKey(abstractChat.getAccount())) {
-                final AccountJid account = abstractChat.getAccount();
-                Map<UserJid, AbstractChat> users = abstractChats.get(account);
-                if (users == null) {
-                    users = new TreeMap<>();
-                    abstractChats.put(account, users);
-                }
-                users.put(abstractChat.getUser(), abstractChat);
+        /**
+         * States of displayed items.
+         */
+        final List<ContactListItemState> oldStates;
+
+        /**
+         * Snapshots of enabled roster contacts and of chats without roster
+         * contacts taken on UI thread.
+         */
+        final List<ContactSortKey> rosterContacts;
+        final List<ContactSortKey> chatContacts;
+
+        /**
+         * States of contacts from {@link #rosterContacts} and
+         * {@link #chatContacts}.
+         */
+        final Map<AbstractContact, ContactListItemState> contactStates;
+        final Map<AccountJid, String> accountStates;
+        final GroupStateSnapshot groupStates;
+        final Collection<AccountJid> enabledAccounts;
+        @Nullable
+        final AccountJid selectedAccount;
+        final CommonState commonState;
+
+        Future<?> future;
+
+        private volatile boolean cancelled;
+
+        RebuildTask(String filterString, List<ContactListItemState> oldStates,
+                    List<ContactSortKey> rosterContacts, List<ContactSortKey> chatContacts,
+                    Map<AbstractContact, ContactListItemState> contactStates,
+                    Map<AccountJid, String> accountStates, GroupStateSnapshot groupStates,
+                    Collection<AccountJid> enabledAccounts, @Nullable AccountJid selectedAccount,
+                    CommonState commonState) {
+            this.filterString = filterString;
+            this.oldStates = oldStates;
+            this.rosterContacts = rosterContacts;
+            this.chatContacts = chatContacts;
+            this.contactStates = contactStates;
+            this.accountStates = accountStates;
+            this.groupStates = groupStates;
+            this.enabledAccounts = enabledAccounts;
+            this.selectedAccount = selectedAccount;
+            this.commonState = commonState;
+        }
+
+        void cancel() {
+            cancelled = true;
+            if (future != null) {
+                future.cancel(false);
             }
         }
 
-        if (filterString == null) {
-            // Create arrays.
-            if (showAccounts) {
-                groups = null;
-                contacts = null;
-                for (Entry<AccountJid, AccountConfiguration> entry : accounts.entrySet()) {
-                    entry.setValue(new AccountConfiguration(entry.getKey(),
-                            GroupManager.IS_ACCOUNT, GroupManager.getInstance()));
-                }
-            } else {
-                if (showGroups) {
-                    groups = new TreeMap<>();
-                    contacts = null;
+        @Override
+        public void run() {
+            if (cancelled) {
+                return;
+            }
+            long startTime = System.currentTimeMillis();
+
+            final RebuildResult result = build();
+            if (cancelled) {
+                return;
+            }
+            for (Object entity : result.entities) {
+                if (entity instanceof AbstractContact) {
+                    result.states.add(contactStates.get(entity));
                 } else {
-                    groups = null;
-                    contacts = new ArrayList<>();
+                    result.states.add(ContactListItemState.create(entity, accountStates));
                 }
             }
-            if (showActiveChats) {
-                activeChats = new GroupConfiguration(GroupManager.NO_ACCOUNT,
-                        GroupManager.ACTIVE_CHATS, GroupManager.getInstance());
-            } else {
-                activeChats = null;
+            if (cancelled) {
+                return;
             }
+            final DiffUtil.DiffResult diffResult = DiffUtil.calculateDiff(
+                    new ContactListItemState.DiffCallback(oldStates, result.states));
 
-            // Build structure.
-            for (RosterContact rosterContact : rosterContacts) {
-                if (!rosterContact.isEnabled()) {
-                    continue;
+            LogManager.d(LOG_TAG, "Rebuilt " + result.entities.size() + " items in "
+                    + (System.currentTimeMillis() - startTime) + " ms");
+
+            handler.post(new Runnable() {
+                @Override
+                public void run() {
+                    onRebuilt(RebuildTask.this, result, diffResult);
                 }
-                hasContacts = true;
-                final boolean online = rosterContact.getStatusMode().isOnline();
-                final AccountJid account = rosterContact.getAccount();
-                final Map<UserJid, AbstractChat> users = abstractChats.get(account);
-                final AbstractChat abstractChat;
-                if (users == null) {
-                    abstractChat = null;
+            });
+        }
+
+        private RebuildResult build() {
+            final RebuildResult result = new RebuildResult();
+
+            final boolean showOffline = SettingsManager.contactsShowOffline();
+            final boolean showGroups = SettingsManager.contactsShowGroups();
+            final boolean showEmptyGroups = SettingsManager.contactsShowEmptyGroups();
+            final boolean showActiveChats = SettingsManager.contactsShowActiveChats();
+            final boolean stayActiveChats = SettingsManager.contactsStayActiveChats();
+            final boolean showAccounts = SettingsManager.contactsShowAccounts();
+            final Comparator<ContactSortKey> comparator = SettingsManager.contactsOrder();
+            result.commonState = commonState;
+
+
+            /**
+             * Groups.
+             */
+            final Map<String, GroupConfiguration> groups;
+
+            /**
+             * Contacts.
+             */
+            final List<ContactSortKey> contacts;
+
+            /**
+             * List of active chats.
+             */
+            final GroupConfiguration activeChats;
+
+            final Map<AccountJid, AccountConfiguration> accounts = new TreeMap<>();
+
+            for (AccountJid account : enabledAccounts) {
+                accounts.put(account, null);
+            }
+
+            if (filterString == null) {
+                // Create arrays.
+                if (showAccounts) {
+                    groups = null;
+                    contacts = null;
+                    for (Entry<AccountJid, AccountConfiguration> entry : accounts.entrySet()) {
+                        entry.setValue(new AccountConfiguration(entry.getKey(),
+                                GroupManager.IS_ACCOUNT, groupStates));
+                    }
                 } else {
-                    abstractChat = users.remove(rosterContact.getUser());
+                    if (showGroups) {
+                        groups = new TreeMap<>();
+                        contacts = null;
+                    } else {
+                        groups = null;
+                        contacts = new ArrayList<>();
+                    }
+                }
+                if (showActiveChats) {
+                    activeChats = new GroupConfiguration(GroupManager.NO_ACCOUNT,
+                            GroupManager.ACTIVE_CHATS, groupStates);
+                } else {
+                    activeChats = null;
                 }
-                if (showActiveChats && abstractChat != null && abstractChat.isActive()) {
-                    activeChats.setNotEmpty();
-                    hasVisibleContacts = true;
-                    if (activeChats.isExpanded()) {
-                        activeChats.addAbstractContact(rosterContact);
+
+                // Build structure.
+                for (ContactSortKey sortKey : rosterContacts) {
+                    result.hasContacts = true;
+                    final boolean online = sortKey.getStatusMode().isOnline();
+                    final AccountJid account = sortKey.getAccount();
+                    if (showActiveChats && sortKey.hasActiveChat()) {
+                        activeChats.setNotEmpty();
+                        result.hasVisibleContacts = true;
+                        if (activeChats.isExpanded()) {
+                            activeChats.addAbstractContact(sortKey);
+                        }
+                        activeChats.increment(online);
+                        if (!stayActiveChats || (!showAccounts && !showGroups)) {
+                            continue;
+                        }
                     }
-                    activeChats.increment(online);
-                    if (!stayActiveChats || (!showAccounts && !showGroups)) {
+                    if (selectedAccount != null && !selectedAccount.equals(account)) {
                         continue;
                     }
-                }
-                if (selectedAccount != null && !selectedAccount.equals(account)) {
-                    continue;
-                }
-                if (ContactListGroupUtils.addContact(rosterContact, online, accounts, groups,
-                        contacts, showAccounts, showGroups, showOffline)) {
-                    hasVisibleContacts = true;
-                }
-            }
-            for (Map<UserJid, AbstractChat> users : abstractChats.values())
-                for (AbstractChat abstractChat : users.values()) {
-                    final AbstractContact abstractContact;
-                    if (abstractChat instanceof RoomChat) {
-                        abstractContact = new RoomContact((RoomChat) abstractChat);
-                    } else {
-                        abstractContact = new ChatContact(abstractChat);
+                    if (ContactListGroupUtils.addContact(sortKey, online, accounts, groups,
+                            contacts, showAccounts, showGroups, showOffline, groupStates)) {
+                        result.hasVisibleContacts = true;
                     }
-                    if (showActiveChats && abstractChat.isActive()) {
+                }
+                for (ContactSortKey sortKey : chatContacts) {
+                    if (showActiveChats && sortKey.hasActiveChat()) {
                         activeChats.setNotEmpty();
-                        hasVisibleContacts = true;
+                        result.hasVisibleContacts = true;
                         if (activeChats.isExpanded()) {
-                            activeChats.addAbstractContact(abstractContact);
+                            activeChats.addAbstractContact(sortKey);
                         }
                         activeChats.increment(false);
                         if (!stayActiveChats || (!showAccounts && !showGroups)) {
                             continue;
                         }
                     }
-                    if (selectedAccount != null && !selectedAccount.equals(abstractChat.getAccount())) {
+                    if (selectedAccount != null && !selectedAccount.equals(sortKey.getAccount())) {
                         continue;
                     }
-                    final String group;
-                    final boolean online;
-                    if (abstractChat instanceof RoomChat) {
-                        group = GroupManager.IS_ROOM;
-                        online = abstractContact.getStatusMode().isOnline();
-                    } else if (MUCManager.getInstance().isMucPrivateChat(abstractChat.getAccount(), abstractChat.getUser())) {
-                        group = GroupManager.IS_ROOM;
-                        online = abstractContact.getStatusMode().isOnline();
-                    } else {
-                        group = GroupManager.NO_GROUP;
-                        online = false;
-                    }
-                    hasVisibleContacts = true;
-                    ContactListGroupUtils.addContact(abstractContact, group, online, accounts, groups, contacts,
-                            showAccounts, showGroups);
+                    final String group = sortKey.getGroups().iterator().next();
+                    final boolean online = GroupManager.IS_ROOM.equals(group)
+                            && sortKey.getStatusMode().isOnline();
+                    result.hasVisibleContacts = true;
+                    ContactListGroupUtils.addContact(sortKey, group, online, accounts, groups, contacts,
+                            showAccounts, showGroups, groupStates);
                 }
 
-            hasActiveChats = activeChats != null && activeChats.getTotal() > 0;
+                result.hasActiveChats = activeChats != null && activeChats.getTotal() > 0;
 
-            // Remove empty groups, sort and apply structure.
-            baseEntities.clear();
-            if (hasVisibleContacts) {
-                if (showActiveChats) {
-                    if (!activeChats.isEmpty()) {
-                        if (showAccounts || showGroups) {
-                            baseEntities.add(activeChats);
+                // Remove empty groups, sort and apply structure.
+                if (result.hasVisibleContacts) {
+                    if (showActiveChats) {
+                        if (!activeChats.isEmpty()) {
+                            if (showAccounts || showGroups) {
+                                result.entities.add(activeChats);
+                            }
+                            result.entities.addAll(activeChats
+                                    .getSortedAbstractContacts(ComparatorByChat.COMPARATOR_BY_CHAT));
                         }
-                        activeChats.sortAbstractContacts(ComparatorByChat.COMPARATOR_BY_CHAT);
-                        baseEntities.addAll(activeChats.getAbstractContacts());
                     }
-                }
-                if (showAccounts) {
-                    boolean isFirst = baseEntities.isEmpty();
-                    for (AccountConfiguration rosterAccount : accounts.values()) {
-                        if (isFirst) {
-                            isFirst = false;
-                        } else {
-                            baseEntities.add(new AccountTopSeparator(null, null));
-                        }
-
-                        baseEntities.add(rosterAccount);
+                    if (showAccounts) {
+                        boolean isFirst = result.entities.isEmpty();
+                        for (AccountConfiguration rosterAccount : accounts.values()) {
+                            if (isFirst) {
+                                isFirst = false;
+                            } else {
+                                result.entities.add(new AccountTopSeparator(null, null));
+                            }
 
-                        if (showGroups) {
-                            if (rosterAccount.isExpanded()) {
-                                for (GroupConfiguration rosterConfiguration : rosterAccount
-                                        .getSortedGroupConfigurations()) {
-                                    if (showEmptyGroups || !rosterConfiguration.isEmpty()) {
-                                        baseEntities.add(rosterConfiguration);
-                                        rosterConfiguration.sortAbstractContacts(comparator);
-                                        baseEntities.addAll(rosterConfiguration.getAbstractContacts());
+                            result.entities.add(rosterAccount);
+
+                            if (showGroups) {
+                                if (rosterAccount.isExpanded()) {
+                                    for (GroupConfiguration rosterConfiguration : rosterAccount
+                                            .getSortedGroupConfigurations()) {
+                                        if (showEmptyGroups || !rosterConfiguration.isEmpty()) {
+                                            result.entities.add(rosterConfiguration);
+                                            result.entities.addAll(rosterConfiguration
+                                                    .getSortedAbstractContacts(comparator));
+                                        }
                                     }
                                 }
+                            } else {
+                                result.entities.addAll(rosterAccount.getSortedAbstractContacts(comparator));
                             }
-                        } else {
-                            rosterAccount.sortAbstractContacts(comparator);
-                            baseEntities.addAll(rosterAccount.getAbstractContacts());
-                        }
 
-                        if (rosterAccount.getTotal() > 0 && !rosterAccount.isExpanded()) {
-                            baseEntities.add(new AccountBottomSeparator(rosterAccount.getAccount(), null));
-                        }
-                    }
-                } else {
-                    if (showGroups) {
-                        for (GroupConfiguration rosterConfiguration : groups.values()) {
-                            if (showEmptyGroups || !rosterConfiguration.isEmpty()) {
-                                baseEntities.add(rosterConfiguration);
-                                rosterConfiguration.sortAbstractContacts(comparator);
-                                baseEntities.addAll(rosterConfiguration.getAbstractContacts());
+                            if (rosterAccount.getTotal() > 0 && !rosterAccount.isExpanded()) {
+                                result.entities.add(new AccountBottomSeparator(rosterAccount.getAccount(), null));
                             }
                         }
                     } else {
-                        Collections.sort(contacts, comparator);
-                        baseEntities.addAll(contacts);
+                        if (showGroups) {
+                            for (GroupConfiguration rosterConfiguration : groups.values()) {
+                                if (showEmptyGroups || !rosterConfiguration.isEmpty()) {
+                                    result.entities.add(rosterConfiguration);
+                                    result.entities.addAll(rosterConfiguration
+                                            .getSortedAbstractContacts(comparator));
+                                }
+                            }
+                        } else {
+                            result.entities.addAll(ContactSortKey.sortKeys(contacts, comparator));
+                        }
                     }
                 }
+            } else { // Search
+                result.entities.addAll(getSearchResults(rosterContacts, chatContacts, comparator,
+                        filterString));
+                result.hasVisibleContacts = !result.entities.isEmpty();
             }
-        } else { // Search
-            final ArrayList<AbstractContact> baseEntities = getSearchResults(rosterContacts, comparator, abstractChats);
-            this.baseEntities.clear();
-            this.baseEntities.addAll(baseEntities);
-            hasVisibleContacts = baseEntities.size() > 0;
-        }
-
-        notifyDataSetChanged();
-
-        listener.onContactListChanged(commonState, hasContacts, hasVisibleContacts, filterString != null);
 
-        synchronized (refreshLock) {
-            nextRefresh = new Date(new Date().getTime() + REFRESH_INTERVAL);
-            refreshInProgress = false;
-            handler.removeCallbacks(this); // Just to be sure.
-            if (refreshRequested) {
-                handler.postDelayed(this, REFRESH_INTERVAL);
-            }
+            return result;
         }
     }
 
-    private ArrayList<AbstractContact> getSearchResults(Collection<RosterContact> rosterContacts,
-                                                        Comparator<AbstractContact> comparator,
-                                                        Map<AccountJid, Map<UserJid, AbstractChat>> abstractChats) {
-        final ArrayList<AbstractContact> baseEntities = new ArrayList<>();
-
-        // Build structure.
-        for (RosterContact rosterContact : rosterContacts) {
-            if (!rosterContact.isEnabled()) {
-                continue;
-            }
-            final AccountJid account = rosterContact.getAccount();
-            final Map<UserJid, AbstractChat> users = abstractChats.get(account);
-            if (users != null) {
-                users.remove(rosterContact.getUser());
-            }
-            if (rosterContact.getName().toLowerCase(locale).contains(filterString)) {
-                baseEntities.add(rosterContact);
-            }
+    /**
+     * @param filterString normalized query.
+     * @return contacts which word starts with query followed by contacts
+     * containing query.
+     */
+    private static List<AbstractContact> getSearchResults(List<ContactSortKey> rosterContacts,
+                                                          List<ContactSortKey> chatContacts,
+                                                          Comparator<ContactSortKey> comparator,
+                                                          String filterString) {
+        final ArrayList<ContactSortKey> prefixMatches = new ArrayList<>();
+        final ArrayList<ContactSortKey> substringMatches = new ArrayList<>();
+
+        for (ContactSortKey sortKey : rosterContacts) {
+            addSearchResult(sortKey, filterString, prefixMatches, substringMatches);
         }
-        for (Map<UserJid, AbstractChat> users : abstractChats.values()) {
-            for (AbstractChat abstractChat : users.values()) {
-                final AbstractContact abstractContact;
-                if (abstractChat instanceof RoomChat) {
-                    abstractContact = new RoomContact((RoomChat) abstractChat);
-                } else {
-                    abstractContact = new ChatContact(abstractChat);
-                }
-                if (abstractContact.getName().toLowerCase(locale).contains(filterString)) {
-                    baseEntities.add(abstractContact);
-                }
-            }
+        for (ContactSortKey sortKey : chatContacts) {
+            addSearchResult(sortKey, filterString, prefixMatches, substringMatches);
+        }
+        final List<AbstractContact> result = ContactSortKey.sortKeys(prefixMatches, comparator);
+        result.addAll(ContactSortKey.sortKeys(substringMatches, comparator));
+        return result;
+    }
+
+    private static void addSearchResult(ContactSortKey sortKey, String filterString,
+                                        List<ContactSortKey> prefixMatches,
+                                        List<ContactSortKey> substringMatches) {
+        ContactSearchIndex.Match match = ContactSearchIndex.match(sortKey.getSearchTerms(), filterString);
+        if (match == ContactSearchIndex.Match.prefix) {
+            prefixMatches.add(sortKey);
+        } else if (match == ContactSearchIndex.Match.substring) {
+            substringMatches.add(sortKey);
         }
-        Collections.sort(baseEntities, comparator);
-        return baseEntities;
     }
 
     @Override
@@ -802,19 +1008,26 @@ public class ContactListAdapter extends RecyclerView.Adapter<RecyclerView.ViewHo
 
     private class ContactFilter extends Filter {
 
+        /**
+         * Normalizes query in background.
+         */
         @Override
         protected FilterResults performFiltering(CharSequence constraint) {
-            return null;
+            FilterResults results = new FilterResults();
+            if (constraint != null) {
+                String query = ContactSearchIndex.normalize(constraint.toString());
+                if (!query.isEmpty()) {
+                    results.values = query;
+                    results.count = 1;
+                }
+            }
+            return results;
         }
 
         @Override
         protected void publishResults(CharSequence constraint,
                                       FilterResults results) {
-            if (constraint == null || constraint.length() == 0) {
-                filterString = null;
-            } else {
-                filterString = constraint.toString().toLowerCase(locale);
-            }
+            filterString = results == null ? null : (String) results.values;
             onChange();
         }
 
@@ -1,12 +1,11 @@
 package com.xabber.android.ui.adapter.contactlist;
 
 import com.xabber.android.data.entity.AccountJid;
-import com.xabber.android.data.roster.AbstractContact;
-import com.xabber.android.data.roster.Group;
 import com.xabber.android.data.roster.GroupManager;
+import com.xabber.android.data.roster.GroupStateProvider;
 import com.xabber.android.data.roster.ShowOfflineMode;
+import com.xabber.android.ui.adapter.ContactSortKey;
 
-import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
@@ -17,29 +16,20 @@ class ContactListGroupUtils {
     /**
      * List of groups used if contact has no groups.
      */
-    private static final Collection<Group> NO_GROUP_LIST;
-
-    static {
-        Collection<Group> groups = new ArrayList<>(1);
-        groups.add(new Group() {
-            @Override
-            public String getName() {
-                return GroupManager.NO_GROUP;
-            }
-        });
-        NO_GROUP_LIST = Collections.unmodifiableCollection(groups);
-    }
+    private static final Collection<String> NO_GROUP_LIST
+            = Collections.singletonList(GroupManager.NO_GROUP);
 
     /**
      * Gets or creates roster group in roster account.
      */
-    private static GroupConfiguration getGroupConfiguration(AccountConfiguration accountConfiguration, String name) {
+    private static GroupConfiguration getGroupConfiguration(AccountConfiguration accountConfiguration, String name,
+                                                            GroupStateProvider groupStates) {
         GroupConfiguration groupConfiguration = accountConfiguration.getGroupConfiguration(name);
         if (groupConfiguration != null) {
             return groupConfiguration;
         }
         groupConfiguration = new GroupConfiguration(
-                accountConfiguration.getAccount(), name, GroupManager.getInstance());
+                accountConfiguration.getAccount(), name, groupStates);
         accountConfiguration.addGroupConfiguration(groupConfiguration);
         return groupConfiguration;
     }
@@ -47,12 +37,13 @@ class ContactListGroupUtils {
     /**
      * Gets or creates roster group in tree map.
      */
-    private static GroupConfiguration getGroupConfiguration(Map<String, GroupConfiguration> groups, String name) {
+    private static GroupConfiguration getGroupConfiguration(Map<String, GroupConfiguration> groups, String name,
+                                                            GroupStateProvider groupStates) {
         GroupConfiguration groupConfiguration = groups.get(name);
         if (groupConfiguration != null) {
             return groupConfiguration;
         }
-        groupConfiguration = new GroupConfiguration(GroupManager.NO_ACCOUNT, name, GroupManager.getInstance());
+        groupConfiguration = new GroupConfiguration(GroupManager.NO_ACCOUNT, name, groupStates);
         groups.put(name, groupConfiguration);
         return groupConfiguration;
     }
@@ -60,9 +51,10 @@ class ContactListGroupUtils {
     /**
      * Adds contact to specified group.
      */
-    static void addContact(AbstractContact abstractContact, String group, boolean online,
+    static void addContact(ContactSortKey abstractContact, String group, boolean online,
                            Map<AccountJid, AccountConfiguration> accounts, Map<String, GroupConfiguration> groups,
-                           List<AbstractContact> contacts, boolean showAccounts, boolean showGroups) {
+                           List<ContactSortKey> contacts, boolean showAccounts, boolean showGroups,
+                           GroupStateProvider groupStates) {
         if (showAccounts) {
             final AccountJid account = abstractContact.getAccount();
             final AccountConfiguration accountConfiguration;
@@ -72,7 +64,7 @@ class ContactListGroupUtils {
             }
             if (showGroups) {
                 GroupConfiguration groupConfiguration
-                        = getGroupConfiguration(accountConfiguration, group);
+                        = getGroupConfiguration(accountConfiguration, group, groupStates);
                 if (accountConfiguration.isExpanded()) {
                     groupConfiguration.setNotEmpty();
                     if (groupConfiguration.isExpanded()) {
@@ -88,7 +80,7 @@ class ContactListGroupUtils {
             accountConfiguration.increment(online);
         } else {
             if (showGroups) {
-                GroupConfiguration groupConfiguration = getGroupConfiguration(groups, group);
+                GroupConfiguration groupConfiguration = getGroupConfiguration(groups, group, groupStates);
                 groupConfiguration.setNotEmpty();
                 if (groupConfiguration.isExpanded()) {
                     groupConfiguration.addAbstractContact(abstractContact);
@@ -104,11 +96,12 @@ class ContactListGroupUtils {
      * Adds contact to there groups.
      * @return whether contact is visible.
      */
-    static boolean addContact(AbstractContact abstractContact,
+    static boolean addContact(ContactSortKey abstractContact,
                               boolean online, Map<AccountJid, AccountConfiguration> accounts,
                               Map<String, GroupConfiguration> groups,
-                              List<AbstractContact> contacts, boolean showAccounts,
-                              boolean showGroups, boolean showOffline) {
+                              List<ContactSortKey> contacts, boolean showAccounts,
+                              boolean showGroups, boolean showOffline,
+                              GroupStateProvider groupStates) {
         boolean hasVisible = false;
         if (showAccounts) {
             final AccountConfiguration accountConfiguration;
@@ -117,13 +110,13 @@ class ContactListGroupUtils {
                 return false;
             }
             if (showGroups) {
-                Collection<? extends Group> abstractGroups = abstractContact.getGroups();
-                if (abstractGroups.size() == 0) {
+                Collection<String> abstractGroups = abstractContact.getGroups();
+                if (abstractGroups.isEmpty()) {
                     abstractGroups = NO_GROUP_LIST;
                 }
-                for (Group abstractGroup : abstractGroups) {
+                for (String abstractGroup : abstractGroups) {
                     GroupConfiguration groupConfiguration = getGroupConfiguration(
-                            accountConfiguration, abstractGroup.getName());
+                            accountConfiguration, abstractGroup, groupStates);
                     if (online
                             || (groupConfiguration.getShowOfflineMode() == ShowOfflineMode.always)
                             || (accountConfiguration.getShowOfflineMode() == ShowOfflineMode.always && groupConfiguration
@@ -157,13 +150,13 @@ class ContactListGroupUtils {
             accountConfiguration.increment(online);
         } else {
             if (showGroups) {
-                Collection<? extends Group> abstractGroups = abstractContact.getGroups();
-                if (abstractGroups.size() == 0) {
+                Collection<String> abstractGroups = abstractContact.getGroups();
+                if (abstractGroups.isEmpty()) {
                     abstractGroups = NO_GROUP_LIST;
                 }
-                for (Group abstractGroup : abstractGroups) {
+                for (String abstractGroup : abstractGroups) {
                     GroupConfiguration groupConfiguration
-                            = getGroupConfiguration(groups, abstractGroup.getName());
+                            = getGroupConfiguration(groups, abstractGroup, groupStates);
                     if (online || (groupConfiguration.getShowOfflineMode() == ShowOfflineMode.always)
                             || (groupConfiguration.getShowOfflineMode() == ShowOfflineMode.normal && showOffline)) {
                         groupConfiguration.setNotEmpty();
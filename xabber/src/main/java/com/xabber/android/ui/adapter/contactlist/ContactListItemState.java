@@ -0,0 +1,181 @@
+package com.xabber.android.ui.adapter.contactlist;
+
+import android.support.annotation.Nullable;
+import android.support.v7.util.DiffUtil;
+
+import com.xabber.android.data.SettingsManager;
+import com.xabber.android.data.account.AccountItem;
+import com.xabber.android.data.account.AccountManager;
+import com.xabber.android.data.database.messagerealm.MessageItem;
+import com.xabber.android.data.entity.AccountJid;
+import com.xabber.android.data.entity.BaseEntity;
+import com.xabber.android.data.extension.avatar.AvatarManager;
+import com.xabber.android.data.extension.muc.MUCManager;
+import com.xabber.android.data.message.AbstractChat;
+import com.xabber.android.data.message.MessageManager;
+import com.xabber.android.data.roster.AbstractContact;
+import com.xabber.android.ui.adapter.ContactSortKey;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * State of contact list item at the moment list was built.
+ * <p/>
+ * Items itself are mutable and shared between builds, so states are
+ * used to find out which items were moved or should be rebound. States of
+ * contacts and accounts are taken on UI thread together with other inputs
+ * of the build.
+ */
+class ContactListItemState {
+
+    /**
+     * Identity of item.
+     */
+    private final String key;
+
+    /**
+     * Everything displayed by item.
+     */
+    private final String content;
+
+    private ContactListItemState(String key, String content) {
+        this.key = key;
+        this.content = content;
+    }
+
+    /**
+     * Creates state of account, group or separator. Can be called on any
+     * thread.
+     *
+     * @param accountStates states of accounts returned by
+     *                      {@link #getAccountState(AccountJid)}.
+     */
+    static ContactListItemState create(Object item, Map<AccountJid, String> accountStates) {
+        if (item instanceof GroupConfiguration) {
+            return createForGroup((GroupConfiguration) item, accountStates);
+        } else if (item instanceof BaseEntity) {
+            BaseEntity entity = (BaseEntity) item;
+            StringBuilder content = new StringBuilder();
+            appendAccount(content, accountStates, entity.getAccount());
+            return new ContactListItemState(item.getClass().getSimpleName() + "/"
+                    + entity.getAccount(), content.toString());
+        } else {
+            throw new IllegalStateException();
+        }
+    }
+
+    /**
+     * Should be called on UI thread.
+     *
+     * @param accountState state of contact's account returned by
+     *                     {@link #getAccountState(AccountJid)}.
+     */
+    static ContactListItemState createForContact(ContactSortKey sortKey, @Nullable String accountState) {
+        AbstractContact contact = sortKey.getContact();
+        StringBuilder content = new StringBuilder();
+        if (accountState != null) {
+            content.append(accountState);
+        }
+        content.append(sortKey.getName()).append('|')
+                .append(sortKey.getStatusMode()).append('|')
+                .append(contact.getStatusText()).append('|')
+                .append(contact.getClientSoftware()).append('|')
+                .append(MUCManager.getInstance().hasRoom(contact.getAccount(), contact.getUser())).append('|')
+                .append(MUCManager.getInstance().isMucPrivateChat(contact.getAccount(), contact.getUser())).append('|')
+                .append(sortKey.hasActiveChat()).append('|');
+        if (SettingsManager.contactsShowAvatars()) {
+            content.append(AvatarManager.getInstance().getHash(contact.getUser().getBareJid()));
+        }
+        content.append('|');
+
+        AbstractChat chat = MessageManager.getInstance().getChat(contact.getAccount(), contact.getUser());
+        MessageItem lastMessage = chat == null ? null : chat.getLastMessage();
+        if (lastMessage != null) {
+            content.append(lastMessage.getUniqueId()).append('|')
+                    .append(lastMessage.getTimestamp());
+        }
+
+        return new ContactListItemState(contact.getClass().getSimpleName() + "/"
+                + contact.getAccount() + "/" + contact.getUser(), content.toString());
+    }
+
+    private static ContactListItemState createForGroup(GroupConfiguration configuration,
+                                                       Map<AccountJid, String> accountStates) {
+        StringBuilder content = new StringBuilder();
+        appendAccount(content, accountStates, configuration.getAccount());
+        content.append(configuration.isExpanded()).append('|')
+                .append(configuration.getShowOfflineMode()).append('|')
+                .append(configuration.getOnline()).append('|')
+                .append(configuration.getTotal());
+        return new ContactListItemState(configuration.getClass().getSimpleName() + "/"
+                + configuration.getAccount() + "/" + configuration.getGroup(), content.toString());
+    }
+
+    private static void appendAccount(StringBuilder content, Map<AccountJid, String> accountStates,
+                                      AccountJid account) {
+        if (account == null) {
+            return;
+        }
+
+        String accountState = accountStates.get(account);
+        if (accountState != null) {
+            content.append(accountState);
+        }
+    }
+
+    /**
+     * Should be called on UI thread.
+     *
+     * @return everything displayed about account by its items.
+     */
+    @Nullable
+    static String getAccountState(AccountJid account) {
+        AccountItem accountItem = AccountManager.getInstance().getAccount(account);
+        if (accountItem == null) {
+            return null;
+        }
+
+        return String.valueOf(accountItem.getState()) + '|'
+                + accountItem.getDisplayStatusMode() + '|'
+                + accountItem.getStatusText() + '|'
+                + AccountManager.getInstance().getColorLevel(account) + '|'
+                + SettingsManager.contactsShowAvatars() + '|'
+                + SettingsManager.contactsShowOffline() + '|';
+    }
+
+    /**
+     * Compares states of two builds.
+     */
+    static class DiffCallback extends DiffUtil.Callback {
+
+        private final List<ContactListItemState> oldStates;
+        private final List<ContactListItemState> newStates;
+
+        DiffCallback(List<ContactListItemState> oldStates, List<ContactListItemState> newStates) {
+            this.oldStates = oldStates;
+            this.newStates = newStates;
+        }
+
+        @Override
+        public int getOldListSize() {
+            return oldStates.size();
+        }
+
+        @Override
+        public int getNewListSize() {
+            return newStates.size();
+        }
+
+        @Override
+        public boolean areItemsTheSame(int oldItemPosition, int newItemPosition) {
+            return oldStates.get(oldItemPosition).key.equals(newStates.get(newItemPosition).key);
+        }
+
+        @Override
+        public boolean areContentsTheSame(int oldItemPosition, int newItemPosition) {
+            return oldStates.get(oldItemPosition).content.equals(newStates.get(newItemPosition).content);
+        }
+    }
+
+}
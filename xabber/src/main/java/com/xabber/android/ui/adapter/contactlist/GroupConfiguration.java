@@ -21,11 +21,11 @@ import com.xabber.android.data.roster.AbstractContact;
 import com.xabber.android.data.roster.GroupManager;
 import com.xabber.android.data.roster.GroupStateProvider;
 import com.xabber.android.data.roster.ShowOfflineMode;
+import com.xabber.android.ui.adapter.ContactSortKey;
 
 import java.util.ArrayList;
-import java.util.Collection;
-import java.util.Collections;
 import java.util.Comparator;
+import java.util.List;
 
 /**
  * Group representation in the contact list.
@@ -35,7 +35,7 @@ public class GroupConfiguration implements Comparable<GroupConfiguration> {
     /**
      * List of contacts in group.
      */
-    private final ArrayList<AbstractContact> abstractContacts;
+    private final ArrayList<ContactSortKey> abstractContacts;
 
     private final AccountJid account;
     private final String group;
@@ -88,23 +88,17 @@ public class GroupConfiguration implements Comparable<GroupConfiguration> {
     /**
      * Adds new contact.
      */
-    void addAbstractContact(AbstractContact abstractContact) {
+    void addAbstractContact(ContactSortKey abstractContact) {
         abstractContacts.add(abstractContact);
     }
 
     /**
-     * Gets list of contacts.
+     * Sorts list of contacts.
      *
+     * @return sorted contacts.
      */
-    Collection<AbstractContact> getAbstractContacts() {
-        return abstractContacts;
-    }
-
-    /**
-     * Sorts list of abstract contacts.
-     */
-    void sortAbstractContacts(Comparator<AbstractContact> comparator) {
-        Collections.sort(abstractContacts, comparator);
+    List<AbstractContact> getSortedAbstractContacts(Comparator<ContactSortKey> comparator) {
+        return ContactSortKey.sortKeys(abstractContacts, comparator);
     }
 
     /**
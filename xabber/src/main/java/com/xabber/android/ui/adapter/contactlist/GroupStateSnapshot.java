@@ -0,0 +1,88 @@
+package com.xabber.android.ui.adapter.contactlist;
+
+import com.xabber.android.data.entity.AccountJid;
+import com.xabber.android.data.roster.GroupManager;
+import com.xabber.android.data.roster.GroupStateProvider;
+import com.xabber.android.data.roster.ShowOfflineMode;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Immutable copy of group states used by contact list build.
+ * <p/>
+ * States are copied on UI thread before build is started, groups which
+ * were not copied are treated as expanded with normal offline mode.
+ */
+class GroupStateSnapshot implements GroupStateProvider {
+
+    private final GroupStateProvider source;
+
+    private final Map<AccountJid, Map<String, Boolean>> expanded;
+
+    private final Map<AccountJid, Map<String, ShowOfflineMode>> showOfflineModes;
+
+    GroupStateSnapshot(GroupStateProvider source) {
+        this.source = source;
+        expanded = new HashMap<>();
+        showOfflineModes = new HashMap<>();
+    }
+
+    /**
+     * Copies state of group. Should be called on UI thread.
+     */
+    void add(AccountJid account, String group) {
+        Map<String, Boolean> accountExpanded = expanded.get(account);
+        if (accountExpanded == null) {
+            accountExpanded = new HashMap<>();
+            expanded.put(account, accountExpanded);
+            showOfflineModes.put(account, new HashMap<String, ShowOfflineMode>());
+        }
+        if (accountExpanded.containsKey(group)) {
+            return;
+        }
+        accountExpanded.put(group, source.isExpanded(account, group));
+        showOfflineModes.get(account).put(group, source.getShowOfflineMode(account, group));
+    }
+
+    /**
+     * Copies states of contact's groups both inside its account and in
+     * the list without accounts. Should be called on UI thread.
+     */
+    void addContactGroups(AccountJid account, Collection<String> groups) {
+        if (groups.isEmpty()) {
+            add(account, GroupManager.NO_GROUP);
+            add(GroupManager.NO_ACCOUNT, GroupManager.NO_GROUP);
+        }
+        for (String group : groups) {
+            add(account, group);
+            add(GroupManager.NO_ACCOUNT, group);
+        }
+    }
+
+    @Override
+    public boolean isExpanded(AccountJid account, String group) {
+        Map<String, Boolean> accountExpanded = expanded.get(account);
+        Boolean value = accountExpanded == null ? null : accountExpanded.get(group);
+        return value == null || value;
+    }
+
+    @Override
+    public ShowOfflineMode getShowOfflineMode(AccountJid account, String group) {
+        Map<String, ShowOfflineMode> accountModes = showOfflineModes.get(account);
+        ShowOfflineMode value = accountModes == null ? null : accountModes.get(group);
+        return value == null ? ShowOfflineMode.normal : value;
+    }
+
+    @Override
+    public void setExpanded(AccountJid account, String group, boolean expanded) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void setShowOfflineMode(AccountJid account, String group, ShowOfflineMode showOfflineMode) {
+        throw new UnsupportedOperationException();
+    }
+
+}
@@ -54,12 +54,15 @@ import com.xabber.android.data.entity.AccountJid;
 import com.xabber.android.data.entity.BaseEntity;
 import com.xabber.android.data.entity.UserJid;
 import com.xabber.android.data.extension.attention.AttentionManager;
+import com.xabber.android.data.extension.avatar.AvatarsDecodedEvent;
 import com.xabber.android.data.extension.capability.CapabilitiesManager;
 import com.xabber.android.data.extension.capability.ClientInfo;
 import com.xabber.android.data.extension.cs.ChatStateManager;
 import com.xabber.android.data.extension.file.FileUtils;
+import com.xabber.android.data.extension.file.MediaCacheManager;
 import com.xabber.android.data.extension.httpfileupload.HttpFileUploadManager;
 import com.xabber.android.data.extension.httpfileupload.HttpUploadListener;
+import com.xabber.android.data.extension.httpfileupload.HttpUploadProgressEvent;
 import com.xabber.android.data.extension.mam.LastHistoryLoadFinishedEvent;
 import com.xabber.android.data.extension.mam.LastHistoryLoadStartedEvent;
 import com.xabber.android.data.extension.mam.LoadHistorySettings;
@@ -75,7 +78,6 @@ import com.xabber.android.data.extension.otr.SecurityLevel;
 import com.xabber.android.data.log.LogManager;
 import com.xabber.android.data.message.AbstractChat;
 import com.xabber.android.data.message.MessageManager;
-import com.xabber.android.data.message.MessageUpdateEvent;
 import com.xabber.android.data.message.NewIncomingMessageEvent;
 import com.xabber.android.data.message.RegularChat;
 import com.xabber.android.data.message.chat.ChatManager;
@@ -390,6 +392,8 @@ public class ChatFragment extends Fragment implements PopupMenu.OnMenuItemClickL
         restoreScrollState();
 
         showHideNotifyIfNeed();
+
+        MediaCacheManager.getInstance().prefetch(account, user);
     }
 
     @Override
@@ -693,8 +697,10 @@ public class ChatFragment extends Fragment implements PopupMenu.OnMenuItemClickL
     }
 
     @Subscribe(threadMode = ThreadMode.MAIN)
-    public void onEvent(MessageUpdateEvent event) {
-        chatMessageAdapter.onChange();
+    public void onEvent(HttpUploadProgressEvent event) {
+        if (event.getAccount().equals(account) && event.getUser().equals(user)) {
+            chatMessageAdapter.onUploadProgress(event.getUniqueId());
+        }
     }
 
     @Subscribe(threadMode = ThreadMode.MAIN)
@@ -712,6 +718,12 @@ public class ChatFragment extends Fragment implements PopupMenu.OnMenuItemClickL
         }
     }
 
+    @Subscribe(threadMode = ThreadMode.MAIN)
+    public void onEvent(AvatarsDecodedEvent event) {
+        updateContact();
+        chatMessageAdapter.notifyItemRangeChanged(0, chatMessageAdapter.getItemCount());
+    }
+
     private void onAttachButtonPressed() {
         if (PermissionsRequester.requestFileReadPermissionIfNeeded(this, PERMISSIONS_REQUEST_ATTACH_FILE)) {
             startFileSelection();
@@ -1353,7 +1365,6 @@ public class ChatFragment extends Fragment implements PopupMenu.OnMenuItemClickL
                     break;
                 case "action_message_show_original_otr":
                     chatMessageAdapter.addOrRemoveItemNeedOriginalText(clickedMessageItem.getUniqueId());
-                    chatMessageAdapter.notifyDataSetChanged();
                     break;
                 case "action_message_status":
                     if (clickedMessageItem.isError())
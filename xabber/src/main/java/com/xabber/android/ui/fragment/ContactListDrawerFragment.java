@@ -24,12 +24,17 @@ import com.xabber.android.data.Application;
 import com.xabber.android.data.log.LogManager;
 import com.xabber.android.data.account.listeners.OnAccountChangedListener;
 import com.xabber.android.data.entity.AccountJid;
+import com.xabber.android.data.extension.avatar.AvatarsDecodedEvent;
 import com.xabber.android.data.xaccount.XabberAccount;
 import com.xabber.android.data.xaccount.XabberAccountManager;
 import com.xabber.android.ui.adapter.NavigationDrawerAccountAdapter;
 import com.xabber.android.ui.color.AccountPainter;
 import com.xabber.android.ui.color.ColorManager;
 
+import org.greenrobot.eventbus.EventBus;
+import org.greenrobot.eventbus.Subscribe;
+import org.greenrobot.eventbus.ThreadMode;
+
 import java.util.Collection;
 
 public class ContactListDrawerFragment extends Fragment implements View.OnClickListener, OnAccountChangedListener, AdapterView.OnItemClickListener {
@@ -122,6 +127,7 @@ public class ContactListDrawerFragment extends Fragment implements View.OnClickL
     @Override
     public void onResume() {
         super.onResume();
+        EventBus.getDefault().register(this);
         Application.getInstance().addUIListener(OnAccountChangedListener.class, this);
         update();
     }
@@ -129,6 +135,7 @@ public class ContactListDrawerFragment extends Fragment implements View.OnClickL
     @Override
     public void onPause() {
         super.onPause();
+        EventBus.getDefault().unregister(this);
         Application.getInstance().removeUIListener(OnAccountChangedListener.class, this);
     }
 
@@ -148,6 +155,11 @@ public class ContactListDrawerFragment extends Fragment implements View.OnClickL
         update();
     }
 
+    @Subscribe(threadMode = ThreadMode.MAIN)
+    public void onAvatarsDecodedEvent(AvatarsDecodedEvent event) {
+        adapter.notifyDataSetChanged();
+    }
+
     private void update() {
         adapter.onChange();
 
@@ -5,6 +5,7 @@ import android.app.Fragment;
 import android.os.Bundle;
 import android.support.v7.widget.LinearLayoutManager;
 import android.support.v7.widget.RecyclerView;
+import android.support.v7.widget.SimpleItemAnimator;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
@@ -26,6 +27,7 @@ import com.xabber.android.data.account.StatusMode;
 import com.xabber.android.data.account.listeners.OnAccountChangedListener;
 import com.xabber.android.data.connection.ConnectionManager;
 import com.xabber.android.data.entity.AccountJid;
+import com.xabber.android.data.extension.avatar.AvatarsDecodedEvent;
 import com.xabber.android.data.message.NewMessageEvent;
 import com.xabber.android.data.roster.AbstractContact;
 import com.xabber.android.data.roster.OnContactChangedListener;
@@ -115,6 +117,8 @@ public class ContactListFragment extends Fragment implements OnAccountChangedLis
         linearLayoutManager = new LinearLayoutManager(getActivity());
         recyclerView.setLayoutManager(linearLayoutManager);
         recyclerView.setAdapter(adapter);
+        // changed contacts are rebound in place instead of cross-fading
+        ((SimpleItemAnimator) recyclerView.getItemAnimator()).setSupportsChangeAnimations(false);
         infoView = view.findViewById(R.id.info);
         connectedView = infoView.findViewById(R.id.connected);
         disconnectedView = infoView.findViewById(R.id.disconnected);
@@ -182,6 +186,12 @@ public class ContactListFragment extends Fragment implements OnAccountChangedLis
         adapter.refreshRequest();
     }
 
+    @Subscribe(threadMode = ThreadMode.MAIN)
+    public void onAvatarsDecodedEvent(AvatarsDecodedEvent event) {
+        adapter.onAvatarsDecoded();
+        accountActionButtonsAdapter.onChange();
+    }
+
     @Override
     public void onContactListChanged(CommonState commonState, boolean hasContacts,
                                      boolean hasVisibleContacts, boolean isFilterEnabled) {
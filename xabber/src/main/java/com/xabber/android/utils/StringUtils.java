@@ -45,7 +45,7 @@ public class StringUtils {
     }
 
     private static SimpleDateFormat logDateTimeFormat;
-    private static DateFormat timeFormat;
+    private static final DateFormat timeFormat;
 
     private StringUtils() {
     }
@@ -129,6 +129,8 @@ public class StringUtils {
     }
 
     /**
+     * Can be called from background thread.
+     *
      * @param timeStamp
      * @return String with time or with date and time depend on current time.
      */
@@ -145,11 +147,15 @@ public class StringUtils {
         midnight.set(Calendar.SECOND, 0);
         midnight.set(Calendar.MILLISECOND, 0);
 
+        String time;
+        synchronized (timeFormat) {
+            time = timeFormat.format(timeStamp);
+        }
         if (timeStamp.getTime() > midnight.getTimeInMillis()) {
-            return timeFormat.format(timeStamp);
+            return time;
         } else {
             DateFormat dateFormat = android.text.format.DateFormat.getDateFormat(context);
-            return dateFormat.format(timeStamp) + " " + timeFormat.format(timeStamp);
+            return dateFormat.format(timeStamp) + " " + time;
         }
     }
 
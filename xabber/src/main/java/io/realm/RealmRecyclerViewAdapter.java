@@ -1,6 +1,7 @@
 package io.realm;
 
 import android.content.Context;
+import android.support.annotation.Nullable;
 import android.support.v7.widget.RecyclerView;
 import android.view.LayoutInflater;
 
@@ -9,7 +10,7 @@ public abstract class RealmRecyclerViewAdapter<T extends RealmObject, VH extends
     protected LayoutInflater inflater;
     protected RealmResults<T> realmResults;
     protected Context context;
-    private final RealmChangeListener listener;
+    private final OrderedRealmCollectionChangeListener<RealmResults<T>> listener;
 
     public RealmRecyclerViewAdapter(Context context, RealmResults<T> realmResults, boolean automaticUpdate) {
         if (context == null) {
@@ -18,10 +19,10 @@ public abstract class RealmRecyclerViewAdapter<T extends RealmObject, VH extends
         this.context = context;
         this.realmResults = realmResults;
         this.inflater = LayoutInflater.from(context);
-        this.listener = (!automaticUpdate) ? null : new RealmChangeListener() {
+        this.listener = (!automaticUpdate) ? null : new OrderedRealmCollectionChangeListener<RealmResults<T>>() {
             @Override
-            public void onChange(Object element) {
-                RealmRecyclerViewAdapter.this.onChange();
+            public void onChange(RealmResults<T> collection, OrderedCollectionChangeSet changeSet) {
+                RealmRecyclerViewAdapter.this.onChange(changeSet);
             }
         };
 
@@ -30,8 +31,33 @@ public abstract class RealmRecyclerViewAdapter<T extends RealmObject, VH extends
         }
     }
 
-    public void onChange() {
-        notifyDataSetChanged();
+    /**
+     * Notifies about changed items only, so that unchanged views are not
+     * rebound.
+     *
+     * @param changeSet <code>null</code> when asynchronous query is loaded
+     *                  first time.
+     */
+    public void onChange(@Nullable OrderedCollectionChangeSet changeSet) {
+        if (changeSet == null) {
+            notifyDataSetChanged();
+            return;
+        }
+
+        // deletions are in reverse order to keep positions of next ranges
+        OrderedCollectionChangeSet.Range[] deletions = changeSet.getDeletionRanges();
+        for (int index = deletions.length - 1; index >= 0; index--) {
+            OrderedCollectionChangeSet.Range range = deletions[index];
+            notifyItemRangeRemoved(range.startIndex, range.length);
+        }
+
+        for (OrderedCollectionChangeSet.Range range : changeSet.getInsertionRanges()) {
+            notifyItemRangeInserted(range.startIndex, range.length);
+        }
+
+        for (OrderedCollectionChangeSet.Range range : changeSet.getChangeRanges()) {
+            notifyItemRangeChanged(range.startIndex, range.length);
+        }
     }
 
     public void release() {